@@ -0,0 +1,78 @@
+package edu.cornell.ncrn.ced2ar.stata.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaFileGenerator;
+
+/**
+* This class provides the data files the benchmarks run against.
+* Data files are not part of the repository.  Files are looked up in the directory of the benchmark.dir
+* system property, java.io.tmpdir by default, by format, byte order, type mix and number of observations:
+* 	ced2ar-benchmark-<format>-<LSF|MSF>-<mix>-<observations>.dta
+* A file that does not exist is written once by DtaFileGenerator and reused by later runs.  A file has the
+* variables of its type mix, 5% missing values and value labels of 100 values on the byte, int and long variables.
+*
+* 	NUMERIC   20 variables cycling through byte, int, long, float and double
+* 	STRING    2 numeric variables followed by 8 str variables of 8 to 64 bytes
+* 	WIDE      500 variables; numeric variables and a str12 every fifth variable; 10 value label tables
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class BenchmarkFiles {
+	public enum Mix{
+		NUMERIC,
+		STRING,
+		WIDE
+	}
+
+	/**
+	 * Returns the data file of the format, byte order and type mix, writing it if it does not exist
+	 * @param dtaFileFormat 113, 114, 115, 117 or 118
+	 * @param byteOrder LSF or MSF
+	 * @param mix
+	 * @param numberOfObservations
+	 * @return path of the data file
+	 * @throws IOException
+	 */
+	public static synchronized String get(int dtaFileFormat, String byteOrder, Mix mix, int numberOfObservations) throws IOException{
+		File file = getFile(dtaFileFormat, byteOrder, mix, numberOfObservations);
+		if(!file.isFile()){
+			File tempFile = new File(file.getPath() + ".tmp");
+			DtaFileGenerator generator = new DtaFileGenerator();
+			generator.setDtaFileFormat(dtaFileFormat);
+			generator.setByteOrder(byteOrder);
+			generator.setNumberOfObservations(numberOfObservations);
+			generator.setMissingValueDensity(0.05);
+			generator.setNumberOfValueLabels(100);
+			generator.setDataLabel("benchmark data");
+			switch(mix){
+				case NUMERIC:
+					generator.setNumberOfVariables(20);
+					generator.setTypeMix("byte", "int", "long", "float", "double");
+					break;
+				case STRING:
+					generator.setNumberOfVariables(10);
+					generator.setTypeMix("long", "byte", "str8", "str16", "str24", "str32", "str40", "str48", "str56", "str64");
+					break;
+				default:
+					generator.setNumberOfVariables(500);
+					generator.setTypeMix("byte", "int", "long", "float", "str12");
+					generator.setNumberOfValueLabelTables(10);
+			}
+			generator.generate(tempFile.getPath());
+			if(!tempFile.renameTo(file)) throw new IOException("Unable to create " + file);
+		}
+		return file.getPath();
+	}
+
+	private static File getFile(int dtaFileFormat, String byteOrder, Mix mix, int numberOfObservations){
+		File directory = new File(System.getProperty("benchmark.dir", System.getProperty("java.io.tmpdir")));
+		return new File(directory, "ced2ar-benchmark-" + dtaFileFormat + "-" + byteOrder + "-" + mix + "-" + numberOfObservations + ".dta");
+	}
+}
@@ -0,0 +1,37 @@
+package edu.cornell.ncrn.ced2ar.stata.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+* Runs the benchmarks with the GC profiler, so that every result reports the allocation rate
+* (gc.alloc.rate and gc.alloc.rate.norm) next to the throughput.
+* Takes the JMH command line options, e.g.
+* 	java -jar target/benchmarks.jar RowDecode -p format=118 -p byteOrder=LSF
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class BenchmarkRunner {
+	public static void main(String[] args) throws IOException, RunnerException, CommandLineOptionException{
+		CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		if(commandLineOptions.shouldHelp() || commandLineOptions.shouldList() || commandLineOptions.shouldListProfilers()){
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+		new Runner(new OptionsBuilder()
+				.parent(commandLineOptions)
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
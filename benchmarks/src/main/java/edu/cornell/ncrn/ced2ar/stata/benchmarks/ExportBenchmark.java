@@ -0,0 +1,70 @@
+package edu.cornell.ncrn.ced2ar.stata.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+import edu.cornell.ncrn.ced2ar.stata.StataReaderFactory;
+import edu.cornell.ncrn.ced2ar.stata.exceptions.InvalidDtaFormatException;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaCsvExporter;
+
+/**
+* Measures the export of a whole file to CSV with DtaCsvExporter.  Scores are files per second.
+* Chunks are exported on the threads of the exporter, so the allocation rate reported by the GC
+* profiler only covers the stitching of the chunk files.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ExportBenchmark {
+	@Param({"113", "114", "115", "117", "118"})
+	public int format;
+
+	@Param({"LSF", "MSF"})
+	public String byteOrder;
+
+	@Param({"NUMERIC", "STRING", "WIDE"})
+	public BenchmarkFiles.Mix mix;
+
+	@Param({"100000"})
+	public int observations;
+
+	private StataReader stataReader;
+	private File csvFile;
+
+	@Setup
+	public void setup() throws IOException, InvalidDtaFormatException{
+		stataReader = new StataReaderFactory().getStataReader(BenchmarkFiles.get(format, byteOrder, mix, observations));
+		csvFile = File.createTempFile("ced2ar-benchmark", ".csv");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException{
+		stataReader.closeDtaFile();
+		csvFile.delete();
+	}
+
+	@Benchmark
+	public long export() throws IOException{
+		new DtaCsvExporter(stataReader).export(csvFile.getPath());
+		return csvFile.length();
+	}
+}
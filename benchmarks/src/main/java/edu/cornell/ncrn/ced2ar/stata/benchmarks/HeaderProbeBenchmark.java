@@ -0,0 +1,51 @@
+package edu.cornell.ncrn.ced2ar.stata.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import edu.cornell.ncrn.ced2ar.stata.StataReaderFactory;
+import edu.cornell.ncrn.ced2ar.stata.exceptions.InvalidDtaFormatException;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaHeader;
+
+/**
+* Measures StataReaderFactory.probe: format detection and header parsing without the variables.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HeaderProbeBenchmark {
+	@Param({"113", "114", "115", "117", "118"})
+	public int format;
+
+	@Param({"LSF", "MSF"})
+	public String byteOrder;
+
+	private final StataReaderFactory factory = new StataReaderFactory();
+	private String dataFile;
+
+	@Setup
+	public void setup() throws IOException{
+		dataFile = BenchmarkFiles.get(format, byteOrder, BenchmarkFiles.Mix.NUMERIC, 1000);
+	}
+
+	@Benchmark
+	public DtaHeader probe() throws IOException, InvalidDtaFormatException{
+		return factory.probe(dataFile);
+	}
+}
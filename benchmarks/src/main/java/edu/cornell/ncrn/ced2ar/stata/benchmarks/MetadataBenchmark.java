@@ -0,0 +1,66 @@
+package edu.cornell.ncrn.ced2ar.stata.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+import edu.cornell.ncrn.ced2ar.stata.StataReaderFactory;
+import edu.cornell.ncrn.ced2ar.stata.exceptions.InvalidDtaFormatException;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaVariable;
+
+/**
+* Measures StataReaderFactory.getStataReader on a file of 500 variables: header, variables and,
+* for formats before 117, value labels.  valueLabels also reads the value label table of every
+* labeled variable, which formats 117 and 118 read on demand.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MetadataBenchmark {
+	@Param({"113", "114", "115", "117", "118"})
+	public int format;
+
+	@Param({"LSF", "MSF"})
+	public String byteOrder;
+
+	private final StataReaderFactory factory = new StataReaderFactory();
+	private String dataFile;
+
+	@Setup
+	public void setup() throws IOException{
+		dataFile = BenchmarkFiles.get(format, byteOrder, BenchmarkFiles.Mix.WIDE, 1000);
+	}
+
+	@Benchmark
+	public int getStataReader() throws IOException, InvalidDtaFormatException{
+		StataReader stataReader = factory.getStataReader(dataFile);
+		stataReader.closeDtaFile();
+		return stataReader.getDtaVariables().size();
+	}
+
+	@Benchmark
+	public void valueLabels(Blackhole blackhole) throws IOException, InvalidDtaFormatException{
+		StataReader stataReader = factory.getStataReader(dataFile);
+		stataReader.closeDtaFile();
+		for(DtaVariable dtaVariable:stataReader.getDtaVariables()){
+			blackhole.consume(dtaVariable.getValueLabelTable());
+		}
+	}
+}
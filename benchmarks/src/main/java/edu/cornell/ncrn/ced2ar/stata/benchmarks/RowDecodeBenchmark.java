@@ -0,0 +1,88 @@
+package edu.cornell.ncrn.ced2ar.stata.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import edu.cornell.ncrn.ced2ar.stata.StataCursor;
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+import edu.cornell.ncrn.ced2ar.stata.StataReaderFactory;
+import edu.cornell.ncrn.ced2ar.stata.exceptions.InvalidDtaFormatException;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaRowLayout;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaRowView;
+
+/**
+* Measures the decoding of observations by type mix.  Scores are observations per second.
+* 	observations   List<String> per observation, as returned by getObservations and the cursors
+* 	rowViews       values read from the row view, without Strings for numeric variables
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RowDecodeBenchmark {
+	private static final int OBSERVATIONS = 20000;
+
+	@Param({"113", "114", "115", "117", "118"})
+	public int format;
+
+	@Param({"LSF", "MSF"})
+	public String byteOrder;
+
+	@Param({"NUMERIC", "STRING", "WIDE"})
+	public BenchmarkFiles.Mix mix;
+
+	private StataReader stataReader;
+
+	@Setup
+	public void setup() throws IOException, InvalidDtaFormatException{
+		stataReader = new StataReaderFactory().getStataReader(BenchmarkFiles.get(format, byteOrder, mix, OBSERVATIONS));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException{
+		stataReader.closeDtaFile();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OBSERVATIONS)
+	public void observations(Blackhole blackhole) throws IOException{
+		try(StataCursor cursor = stataReader.openCursor(1, OBSERVATIONS)){
+			while(cursor.hasNext()){
+				blackhole.consume(cursor.next());
+			}
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(OBSERVATIONS)
+	public void rowViews(Blackhole blackhole) throws IOException{
+		try(StataCursor cursor = stataReader.openCursor(1, OBSERVATIONS)){
+			while(cursor.hasNext()){
+				DtaRowView rowView = cursor.nextRowView();
+				DtaRowLayout rowLayout = rowView.getRowLayout();
+				for(int i=0;i<rowLayout.getNumberOfVariables();i++){
+					if(rowLayout.isString(i)) blackhole.consume(rowView.getString(i));
+					else if(!rowView.isMissing(i)) blackhole.consume(rowView.getDouble(i));
+				}
+			}
+		}
+	}
+}
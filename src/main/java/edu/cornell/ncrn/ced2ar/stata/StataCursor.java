@@ -0,0 +1,72 @@
+package edu.cornell.ncrn.ced2ar.stata;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaRowView;
+
+/**
+ * Iterates over a range of observations of a STATA file.
+ * The STATA file is kept open until the cursor is closed; observations are read 
+ * sequentially without repositioning the file for each observation.
+ * 
+ * Usage 
+ * 	try(StataCursor cursor = SR.openCursor(1, 1000)){
+ * 		while(cursor.hasNext()){
+ * 			List<String> observation = cursor.next();
+ * 		}
+ * 	}
+ * 
+ * Consumers that do not need Strings can call nextRowView() instead of next(). 
+ * The same row view is returned for every observation; no objects are created per observation.
+ * 
+ * I/O errors raised while reading an observation are thrown as UncheckedIOException 
+ * 
+ * DtaRowView is the one class of the impl package in this interface.
+ */
+public interface StataCursor extends Iterator<List<String>>, AutoCloseable {
+
+	/**
+	 * Moves to the next observation and returns the row view positioned over it.
+	 * The row view is reused; it is valid until the next call to next() or nextRowView() 
+	 * @return
+	 */
+	public DtaRowView nextRowView();
+
+	/**
+	 * Limits the observations returned by this cursor to the selected variables.
+	 * Values are returned, and row view columns are numbered, in the order of the variable names.
+	 * Variables that are not selected are not decoded. 
+	 * Calling select without variable names selects all the variables.
+	 * @param variableNames
+	 * @return this cursor
+	 */
+	public StataCursor select(String... variableNames);
+	
+	/**
+	 * Skips the observations that do not satisfy the filter expression. 
+	 * Filter is evaluated on the raw bytes of the observation before any value is converted to a String.
+	 * Filter may refer to any variable, selected or not. 
+	 * 	cursor.where("age >= 18 && state == 36")
+	 * Missing values are larger than any number, as they are in STATA. See DtaFilter for the syntax.
+	 * @param filterExpression 
+	 * @return this cursor
+	 * @throws IllegalArgumentException if the filter expression is invalid
+	 */
+	public StataCursor where(String filterExpression);
+	
+	/**
+	 * Returns the observation number of the observation last returned by next()
+	 * Returns 0 if next() has not been called yet.
+	 * @return
+	 */
+	public long getObservationNumber();
+	
+	/**
+	 * Closes the STATA file opened by this cursor
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException;
+}
@@ -3,6 +3,7 @@ package edu.cornell.ncrn.ced2ar.stata;
 import java.io.IOException;
 import java.util.List;
 
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaColumn;
 import edu.cornell.ncrn.ced2ar.stata.impl.DtaHeader;
 import edu.cornell.ncrn.ced2ar.stata.impl.DtaVariable;
 
@@ -27,6 +28,8 @@ public interface StataReader {
 	
 	/**
 	 * Returns a list of observations as CSV formatted String
+	 * One element is returned for each observation number from start to end; observation numbers
+	 * that are not in the data set return an empty list, as getObservation does.
 	 * 
 	 * @param start Start number of the  observation
 	 * @param end End number of the observation
@@ -35,6 +38,45 @@ public interface StataReader {
 	 */
 	public List<List<String>> getObservations(long start,long end) throws IOException;
 	
+	/**
+	 * Opens a cursor over the observations start to end (both inclusive).
+	 * Observation numbers outside the range of the data set are skipped.
+	 * The cursor keeps the STATA file open until it is closed.
+	 * 
+	 * @param start Start number of the  observation
+	 * @param end End number of the observation
+	 * @return
+	 * @throws IOException
+	 */
+	public StataCursor openCursor(long start,long end) throws IOException;
+	
+	/**
+	 * Limits the observations returned by this reader, and by the cursors opened afterwards, 
+	 * to the selected variables. Values are returned in the order of the variable names.
+	 * Calling select without variable names selects all the variables.
+	 * @param variableNames
+	 */
+	public void select(String... variableNames);
+	
+	/**
+	 * Returns the values of a variable for all the observations as a primitive column.
+	 * Only the requested variable is decoded.
+	 * @param variableName
+	 * @return
+	 * @throws IOException
+	 */
+	public DtaColumn readColumn(String variableName) throws IOException;
+	
+	/**
+	 * Returns the values of a variable for the observations start to end (both inclusive) as a primitive column.
+	 * @param variableName
+	 * @param start Start number of the  observation
+	 * @param end End number of the observation
+	 * @return
+	 * @throws IOException
+	 */
+	public DtaColumn readColumn(String variableName, long start, long end) throws IOException;
+	
 	/**
 	 * Opens the STATA file 
 	 * @throws IOException
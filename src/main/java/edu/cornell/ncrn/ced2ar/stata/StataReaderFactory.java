@@ -1,6 +1,7 @@
 package edu.cornell.ncrn.ced2ar.stata;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.log4j.Logger;
 
@@ -10,45 +11,241 @@ import edu.cornell.ncrn.ced2ar.stata.impl.Dta114Reader;
 import edu.cornell.ncrn.ced2ar.stata.impl.Dta115Reader;
 import edu.cornell.ncrn.ced2ar.stata.impl.Dta117Reader;
 import edu.cornell.ncrn.ced2ar.stata.impl.Dta118Reader;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaBlockScanner;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaChannelInput;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaFileHandlePool;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaHeader;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaMetadata;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaMetadataCache;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaMetrics;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.DataAccessMode;
 
 public class StataReaderFactory {
 	private static final Logger logger = Logger.getLogger(StataReaderFactory.class);
+	
+	private static final String XML_FORMAT_PREFIX = "<stata_dta><header><release>";
+
+	private DataAccessMode dataAccessMode = DataAccessMode.RANDOM_ACCESS_FILE;
+	private int scanBlockSize = DtaBlockScanner.DEFAULT_BLOCK_SIZE;
+	private int prefetchDepth;
+	private DtaFileHandlePool fileHandlePool = DtaFileHandlePool.getSharedPool();
+	private boolean stringDeduplication;
+	private DtaMetadataCache metadataCache;
+	private DtaMetrics metrics = DtaMetrics.NOOP;
+	
+	/**
+	 * Returns a reader for the stata file.  Data access mode, scan block size, prefetch depth, string deduplication, metrics and file handle pool of the
+	 * factory are applied to the reader.
+	 * If the factory has a meta data cache, meta data of the file is read from the cache.
+	 * @param stataFile
+	 * @return StataReader 
+	 * @throws IOException
+	 * @throws InvalidDtaFormatException
+	 */
 	public StataReader getStataReader(String stataFile) throws IOException, InvalidDtaFormatException{
-		try{
-			return (new Dta115Reader(stataFile));
-		}
-		catch(InvalidDtaFormatException IDFE){
-			logger.info("Stata Data file " + stataFile + " is not a Format 115.");
-		}
-		try{
-			return (new Dta114Reader(stataFile));
-		}
-		catch(InvalidDtaFormatException IDFE){
-			logger.info("Stata Data file " + stataFile + " is not a Format 114.");
+		DtaReader dtaReader = metadataCache == null ? newDtaReader(stataFile, true) : newCachedDtaReader(stataFile);
+		dtaReader.setDataAccessMode(dataAccessMode);
+		dtaReader.setScanBlockSize(scanBlockSize);
+		dtaReader.setPrefetchDepth(prefetchDepth);
+		dtaReader.setFileHandlePool(fileHandlePool);
+		dtaReader.setStringDeduplication(stringDeduplication);
+		dtaReader.setMetrics(metrics);
+		return (StataReader)dtaReader;
+	}
+	
+	/**
+	 * Returns the header of the stata file.  Only the first bytes and the header of the file
+	 * are read; variables, value labels and data are not.
+	 * @param stataFile
+	 * @return DtaHeader with the format, byte order, number of variables and observations of the file
+	 * @throws IOException
+	 * @throws InvalidDtaFormatException
+	 */
+	public DtaHeader probe(String stataFile) throws IOException, InvalidDtaFormatException{
+		if(metadataCache != null){
+			DtaMetadata dtaMetadata = metadataCache.get(DtaMetadataCache.getKey(stataFile));
+			if(dtaMetadata != null) return dtaMetadata.getDtaHeader();
 		}
-		try{
-			return (new Dta113Reader(stataFile));
+		return newDtaReader(stataFile, false).getDtaHeader();
+	}
+
+	/**
+	 * Creates the reader from the meta data cache.  If the data file is not in the cache the reader
+	 * reads the meta data and the meta data is added to the cache.
+	 * @param stataFile
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidDtaFormatException
+	 */
+	private DtaReader newCachedDtaReader(String stataFile) throws IOException, InvalidDtaFormatException{
+		DtaMetadataCache.Key key = DtaMetadataCache.getKey(stataFile);
+		DtaMetadata dtaMetadata = metadataCache.get(key);
+		if(dtaMetadata == null){
+			DtaReader dtaReader = newDtaReader(stataFile, true);
+			metadataCache.put(key, dtaReader.getDtaMetadata());
+			return dtaReader;
 		}
-		catch(InvalidDtaFormatException IDFE){
-			logger.info("Stata Data file " + stataFile + " is not a Format 113.");
+		logger.debug("Meta data of Stata Data file " + stataFile + " is read from the cache");
+		switch(dtaMetadata.getDtaHeader().getDtaFileFormat()){
+			case 113: return new Dta113Reader(stataFile, dtaMetadata);
+			case 114: return new Dta114Reader(stataFile, dtaMetadata);
+			case 115: return new Dta115Reader(stataFile, dtaMetadata);
+			case 117: return new Dta117Reader(stataFile, dtaMetadata);
+			case 118: return new Dta118Reader(stataFile, dtaMetadata);
+			default: throw new InvalidDtaFormatException("Cached meta data of " + stataFile + " is of an unknown format.");
 		}
-		try{
-			return (new Dta117Reader(stataFile));
+	}
+
+	/**
+	 * Creates the reader of the format of the stata file.
+	 * The format is read from the first bytes of the file so that only one reader is constructed.
+	 * @param stataFile
+	 * @param readMetaData false reads only the header
+	 * @return
+	 * @throws IOException
+	 * @throws InvalidDtaFormatException
+	 */
+	private DtaReader newDtaReader(String stataFile, boolean readMetaData) throws IOException, InvalidDtaFormatException{
+		int dtaFileFormat = readDtaFileFormat(stataFile, fileHandlePool);
+		logger.debug("Stata Data file " + stataFile + " is a Format " + dtaFileFormat);
+		switch(dtaFileFormat){
+			case 113: return new Dta113Reader(stataFile, readMetaData, metrics, fileHandlePool);
+			case 114: return new Dta114Reader(stataFile, readMetaData, metrics, fileHandlePool);
+			case 115: return new Dta115Reader(stataFile, readMetaData, metrics, fileHandlePool);
+			case 117: return new Dta117Reader(stataFile, readMetaData, metrics, fileHandlePool);
+			case 118: return new Dta118Reader(stataFile, readMetaData, metrics, fileHandlePool);
+			default:
+				logger.info("Stata Data file " + stataFile + " is not a Format 113, 114, 115, 117 or 118 stata file. ie This datafile is not stata v8, v10, v12, v13 or v14");
+				throw new InvalidDtaFormatException("Stata Data file " + stataFile + " is not a Format 113, 114, 115, 117 or 118 stata file.");
 		}
-		catch(InvalidDtaFormatException IDFE){
-			logger.info("Stata Data file " + stataFile + " is not a Format 117");
+	}
+
+	/**
+	 * Reads the format of the stata file from its first bytes.
+	 * 	Formats 113, 114 and 115 start with the format number in the first byte, followed by the byte order 1 (MSF) or 2 (LSF)
+	 * 	Formats 117 and 118 start with <stata_dta><header><release>, followed by the format number in 3 characters
+	 * @param stataFile
+	 * @return format of the stata file, or -1 if the file is not a stata file
+	 * @throws IOException
+	 */
+	protected static int readDtaFileFormat(String stataFile) throws IOException{
+		return readDtaFileFormat(stataFile, null);
+	}
+
+	/**
+	 * Reads the format of the stata file from its first bytes through a channel of the file handle pool
+	 * @param stataFile
+	 * @param fileHandlePool pool of open data files, or null to open the data file
+	 * @return format of the stata file, or -1 if the file is not a stata file
+	 * @throws IOException
+	 */
+	protected static int readDtaFileFormat(String stataFile, DtaFileHandlePool fileHandlePool) throws IOException{
+		byte[] b = new byte[XML_FORMAT_PREFIX.length() + 3];
+		int length;
+		try(DtaChannelInput stataDataInput = DtaChannelInput.open(stataFile, fileHandlePool, DtaMetrics.NOOP)){
+			length = stataDataInput.read(b);
 		}
-		try{
-			return (new Dta118Reader(stataFile));
+		if(length >= 2 && (b[0]==113 || b[0]==114 || b[0]==115) && (b[1]==1 || b[1]==2)){
+			return b[0];
 		}
-		catch(InvalidDtaFormatException IDFE){
-			logger.info("Stata Data file " + stataFile + " is not a Format 113, 114, 115, 117 or 118 stata file. ie This datafile is not stata v8, v10, v12, v13 or v14");
-			throw IDFE;
+		if(length == b.length && new String(b, 0, XML_FORMAT_PREFIX.length(), StandardCharsets.US_ASCII).equals(XML_FORMAT_PREFIX)){
+			String release = new String(b, XML_FORMAT_PREFIX.length(), 3, StandardCharsets.US_ASCII);
+			if(release.equals("117") || release.equals("118")) return Integer.parseInt(release);
 		}
-
+		return -1;
 	}
 	
-	
+	public DataAccessMode getDataAccessMode() {
+		return dataAccessMode;
+	}
+
+	/**
+	 * Sets the data access mode of the readers created by this factory. 
+	 * MEMORY_MAPPED is recommended for large data files.  POSITIONAL_READ is recommended when one reader
+	 * serves getObservation calls of many threads.
+	 * @param dataAccessMode
+	 */
+	public void setDataAccessMode(DataAccessMode dataAccessMode) {
+		this.dataAccessMode = dataAccessMode;
+	}
+
+	public int getScanBlockSize() {
+		return scanBlockSize;
+	}
+
+	/**
+	 * Sets the size of the blocks, in bytes, read by cursors of the readers created by this factory.
+	 * @param scanBlockSize
+	 */
+	public void setScanBlockSize(int scanBlockSize) {
+		this.scanBlockSize = scanBlockSize;
+	}
+
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/**
+	 * Sets the number of blocks read ahead by cursors of the readers created by this factory.  0 disables read ahead.
+	 * @param prefetchDepth
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		this.prefetchDepth = prefetchDepth;
+	}
+
+	public DtaFileHandlePool getFileHandlePool() {
+		return fileHandlePool;
+	}
+
+	/**
+	 * Sets the pool of open data files the readers created by this factory read meta data, observations
+	 * and blocks through.  The default, DtaFileHandlePool.getSharedPool(), shares the open data files with
+	 * the readers of the other factories that use it.  null opens the data file for each use.
+	 * @param fileHandlePool
+	 */
+	public void setFileHandlePool(DtaFileHandlePool fileHandlePool) {
+		this.fileHandlePool = fileHandlePool;
+	}
+
+	public boolean isStringDeduplication() {
+		return stringDeduplication;
+	}
+
+	/**
+	 * @param stringDeduplication true to return repeated values of string variables as the same String instance
+	 */
+	public void setStringDeduplication(boolean stringDeduplication) {
+		this.stringDeduplication = stringDeduplication;
+	}
+
+	public DtaMetadataCache getMetadataCache() {
+		return metadataCache;
+	}
+
+	/**
+	 * Sets the cache of the meta data of the stata files.  Readers of a cached stata file are created
+	 * without parsing the header, variables and value labels again.  Meta data is not cached by default.
+	 * @param metadataCache cache, or null to disable caching
+	 */
+	public void setMetadataCache(DtaMetadataCache metadataCache) {
+		this.metadataCache = metadataCache;
+	}
+
+	public DtaMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics the readers created by this factory report to: reads, decoded observations,
+	 * decode time by variable type, and the time spent parsing meta data and value labels.
+	 * Metrics are not reported by default.
+	 * @param metrics metrics, for example a DtaMetricsRegistry, or DtaMetrics.NOOP to disable the reporting
+	 */
+	public void setMetrics(DtaMetrics metrics) {
+		this.metrics = metrics == null ? DtaMetrics.NOOP : metrics;
+	}
+
 	public static void main(String argc[]) throws Exception{
 		StataReaderFactory factory = new StataReaderFactory();
 		// this file is failing on reading value labels'
@@ -72,16 +72,69 @@ public class Dta113Reader extends DtaReader implements StataReader {
 	 * @throws IOException
 	 */
 	public Dta113Reader(String stataFile) throws IOException,InvalidDtaFormatException {
+		this(stataFile, true);
+	}
+
+	/**
+	 * This method opens and reads the header of the STATA data File.
+	 * Meta data is read only if readMetaData is true.  A reader that has read only the header
+	 * is not ready for reading of data; it is used to probe the data file.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @throws IOException
+	 */
+	public Dta113Reader(String stataFile, boolean readMetaData) throws IOException,InvalidDtaFormatException {
+		this(stataFile, readMetaData, DtaMetrics.NOOP);
+	}
+
+	/**
+	 * This method opens and reads the header of the STATA data File, reporting the reads and
+	 * the time spent parsing to the metrics.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @param metrics
+	 * @throws IOException
+	 */
+	public Dta113Reader(String stataFile, boolean readMetaData, DtaMetrics metrics) throws IOException,InvalidDtaFormatException {
+		this(stataFile, readMetaData, metrics, null);
+	}
+
+	/**
+	 * This method reads the header of the STATA data File through a channel of the file handle pool,
+	 * reporting the reads and the time spent parsing to the metrics.  The reader uses the pool afterwards.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @param metrics
+	 * @param fileHandlePool pool of open data files, or null to open the data file
+	 * @throws IOException
+	 */
+	public Dta113Reader(String stataFile, boolean readMetaData, DtaMetrics metrics, DtaFileHandlePool fileHandlePool) throws IOException,InvalidDtaFormatException {
 		setDataFile(stataFile);
+		setMetrics(metrics);
+		setFileHandlePool(fileHandlePool);
+		long start = System.nanoTime();
 		try{
 			openDtaFile();
 			readHeader();
 			isValidFormat();
-			readDtaMetaData();
+			if(readMetaData) readDtaMetaData();
 		}
 		finally{
 			this.closeDtaFile();
 		}
+		this.metrics.metadataParsed(System.nanoTime() - start);
+	}
+
+	/**
+	 * Creates a reader from the meta data of the STATA data File.  The data file is not parsed.
+	 * @param stataFile
+	 * @param dtaMetadata meta data returned by getDtaMetadata of a reader of the same data file
+	 * @throws InvalidDtaFormatException
+	 */
+	public Dta113Reader(String stataFile, DtaMetadata dtaMetadata) throws InvalidDtaFormatException {
+		setDataFile(stataFile);
+		setDtaMetadata(dtaMetadata);
+		isValidFormat();
 	}
 
 	/**
@@ -106,7 +159,7 @@ public class Dta113Reader extends DtaReader implements StataReader {
 	 * @throws IOException
 	 */
 	protected void readDtaMetaData() throws IOException{
-		lengthOfFile = stataDataRAF.length();
+		lengthOfFile = stataDataInput.length();
 		List<DtaVariable> dtaVariables = new ArrayList<DtaVariable>();
 		setDtaVariables(dtaVariables);
 		readTypeList();
@@ -117,14 +170,14 @@ public class Dta113Reader extends DtaReader implements StataReader {
 		readVariableLabelRecord();
 		readExpansionFieldRecord();
 
-		startOfDataRecord = stataDataRAF.getFilePointer();
+		startOfDataRecord = stataDataInput.getFilePointer();
 		dataRecordLength = getObservationLength();
 		startOfValueLabelsRecord = startOfDataRecord +  (dtaHeader.getNumberOfObservations()*dataRecordLength);
 		containsValueLabels = (startOfValueLabelsRecord<this.lengthOfFile);
 		logger.info("Contains Value Labels: " + containsValueLabels);
 		
 		if(containsValueLabels){
-			stataDataRAF.seek(startOfValueLabelsRecord); 
+			stataDataInput.seek(startOfValueLabelsRecord); 
 			readValueLabels();
 		}
 		for(DtaVariable dtaVariable:dtaVariables){
@@ -138,7 +191,33 @@ public class Dta113Reader extends DtaReader implements StataReader {
 	 * Internal use only.
 	 */
 	protected void move2ObservationStart(long observationNumber) throws IOException{
-		stataDataRAF.seek(startOfDataRecord +  ((observationNumber-1)*dataRecordLength));
+		stataDataInput.seek(startOfDataRecord +  ((observationNumber-1)*dataRecordLength));
+	}
+
+	/**
+	 * Section offsets of format 113, 114 and 115 are
+	 * 	start of data record, start of value labels record, length of data record and length of the file
+	 */
+	@Override
+	protected long[] getSectionOffsets(){
+		return new long[]{startOfDataRecord, startOfValueLabelsRecord, dataRecordLength, lengthOfFile};
+	}
+
+	@Override
+	protected void setSectionOffsets(long[] sectionOffsets){
+		startOfDataRecord = sectionOffsets[0];
+		startOfValueLabelsRecord = sectionOffsets[1];
+		dataRecordLength = sectionOffsets[2];
+		lengthOfFile = sectionOffsets[3];
+		containsValueLabels = (startOfValueLabelsRecord<this.lengthOfFile);
+	}
+
+	/**
+	 * Data record immediately follows the expansion fields.
+	 */
+	@Override
+	protected long getStartOfObservations(){
+		return startOfDataRecord;
 	}
 
 	/**
@@ -164,14 +243,14 @@ public class Dta113Reader extends DtaReader implements StataReader {
 		byte[] b;
 		while(true){
 			b = new byte[5];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			byte[] lastFour = Arrays.copyOfRange(b,1,5);
 			int expansionFieldLength = getIntValue(lastFour, dtaHeader.isLittleEndian());
 			if(expansionFieldLength ==0) 
 				break;
 			else{
 				b = new byte[expansionFieldLength];
-				stataDataRAF.read(b);// read content and ignore
+				stataDataInput.read(b);// read content and ignore
 			}
 		}
 		
@@ -185,7 +264,7 @@ public class Dta113Reader extends DtaReader implements StataReader {
 	 */
 	protected void readVariableLabelRecord() throws IOException{
 		byte[] b = new byte[(dtaHeader.getNumberOfVariables())*81];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int variableLabelStart=0;
 		for(DtaVariable dtaVariable: dtaVariables){
 			String variableLabel=getStringValue(Arrays.copyOfRange(b, variableLabelStart, (variableLabelStart+81)));
@@ -202,7 +281,7 @@ public class Dta113Reader extends DtaReader implements StataReader {
 	 */
 	protected void readVariableValueFormatRecord() throws IOException{
 		byte[] b = new byte[(dtaHeader.getNumberOfVariables())*33];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int variableValueLabelNameStart=0;
 		for(DtaVariable dtaVariable: dtaVariables){
 			String variableValueLabelName=getStringValue(Arrays.copyOfRange(b, variableValueLabelNameStart, (variableValueLabelNameStart+33)));
@@ -221,7 +300,7 @@ public class Dta113Reader extends DtaReader implements StataReader {
 	protected void readFormatRecord() throws IOException{
 		int sizeOfFormatRecord = 12;
 		byte[] b = new byte[(dtaHeader.getNumberOfVariables())*sizeOfFormatRecord];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int variableFormatStart=0;
 		for(DtaVariable dtaVariable: dtaVariables){
 			String variableFormat =getStringValue(Arrays.copyOfRange(b, variableFormatStart, (variableFormatStart+49)));
@@ -239,7 +318,7 @@ public class Dta113Reader extends DtaReader implements StataReader {
  	 */
 	protected void readSortOrderRecord() throws IOException{
 		byte[] b = new byte[(dtaHeader.getNumberOfVariables()+1)*2];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		
 	}
 
@@ -253,7 +332,7 @@ public class Dta113Reader extends DtaReader implements StataReader {
 	 */
 	protected void readVariableList() throws IOException{
 		byte[] b = new byte[dtaHeader.getNumberOfVariables()*33];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int variableNameStart=0;
 		for(DtaVariable dtaVariable: dtaVariables){
 			String variableName =getStringValue(Arrays.copyOfRange(b, variableNameStart, (variableNameStart +33)));
@@ -279,12 +358,12 @@ public class Dta113Reader extends DtaReader implements StataReader {
      *   long      253 = 0xfd
      *   float     254 = 0xfe
      *   double    255 = 0xff
-	 * @param stataDataRAF
+	 * @param stataDataInput
 	 * @throws IOException
 	 */
 	protected void readTypeList() throws IOException{
 		byte[] b = new byte[dtaHeader.getNumberOfVariables()];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int variableType = 0;
 		for(int i=0;i<b.length;i++){
 			variableType = getByteValue(b[i],dtaHeader.isLittleEndian());
@@ -303,37 +382,37 @@ public class Dta113Reader extends DtaReader implements StataReader {
 	 * Reads the header record of the stata file.
 	 * File pointer is assumed to be at the start location.
 	 * 
-	 * @param stataDataRAF
+	 * @param stataDataInput
 	 * @return Header 
 	 * @throws IOException 
 	 */
 	protected void readHeader() throws IOException{
 		DtaHeader dtaHeader = new DtaHeader();
 
-		dtaHeader.setDtaFileFormat(stataDataRAF.readByte());
-		dtaHeader.setByteOrder(stataDataRAF.readByte());
-		stataDataRAF.readByte();// File type is read and discorded
-		stataDataRAF.readByte();// Unused byte is read and discorded.
+		dtaHeader.setDtaFileFormat(stataDataInput.readByte());
+		dtaHeader.setByteOrder(stataDataInput.readByte());
+		stataDataInput.readByte();// File type is read and discorded
+		stataDataInput.readByte();// Unused byte is read and discorded.
 		
 		
 		byte[] numberOfVariablesBytes = new byte[HeaderRecord.NUMBER_OF_VARIABLES.size];
-		stataDataRAF.read(numberOfVariablesBytes);
+		stataDataInput.read(numberOfVariablesBytes);
 		int numberOfVariables = getShortValue(numberOfVariablesBytes,dtaHeader.isLittleEndian());
 		dtaHeader.setNumberOfVariables(numberOfVariables);
 		
 		byte[] numberOfObservationsBytes = new byte[HeaderRecord.NUMBER_OF_OBSERVATIONS.size];
-		stataDataRAF.read(numberOfObservationsBytes);
+		stataDataInput.read(numberOfObservationsBytes);
 		int numberOfObservations = getIntValue(numberOfObservationsBytes,dtaHeader.isLittleEndian());
 		dtaHeader.setNumberOfObservations(numberOfObservations);
 		
 		byte[] dataLabelBytes = new byte[HeaderRecord.DATA_LABEL.size];
-		stataDataRAF.read(dataLabelBytes);
+		stataDataInput.read(dataLabelBytes);
 		String dataLabelString =  getStringValue(dataLabelBytes);
 		dtaHeader.setDataLabel(dataLabelString);
 		
 
 		byte[] timestampBytes = new byte[HeaderRecord.TIME_STAMP.size];
-		stataDataRAF.read(timestampBytes);
+		stataDataInput.read(timestampBytes);
 		String timestampString =  getStringValue(timestampBytes);
 		dtaHeader.setTimeStamp(timestampString);
 
@@ -49,6 +49,52 @@ public class Dta114Reader extends Dta113Reader implements StataReader {
 		super(stataFile);
 	}
 
+	/**
+	 * This method opens and reads the header of the STATA data File.
+	 * Meta data is read only if readMetaData is true.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @throws IOException
+	 */
+	public Dta114Reader(String stataFile, boolean readMetaData) throws IOException,InvalidDtaFormatException {
+		super(stataFile, readMetaData);
+	}
+
+	/**
+	 * This method opens and reads the header of the STATA data File, reporting the reads and
+	 * the time spent parsing to the metrics.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @param metrics
+	 * @throws IOException
+	 */
+	public Dta114Reader(String stataFile, boolean readMetaData, DtaMetrics metrics) throws IOException,InvalidDtaFormatException {
+		super(stataFile, readMetaData, metrics);
+	}
+
+	/**
+	 * This method reads the header of the STATA data File through a channel of the file handle pool,
+	 * reporting the reads and the time spent parsing to the metrics.  The reader uses the pool afterwards.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @param metrics
+	 * @param fileHandlePool pool of open data files, or null to open the data file
+	 * @throws IOException
+	 */
+	public Dta114Reader(String stataFile, boolean readMetaData, DtaMetrics metrics, DtaFileHandlePool fileHandlePool) throws IOException,InvalidDtaFormatException {
+		super(stataFile, readMetaData, metrics, fileHandlePool);
+	}
+
+	/**
+	 * Creates a reader from the meta data of the STATA data File.  The data file is not parsed.
+	 * @param stataFile
+	 * @param dtaMetadata
+	 * @throws InvalidDtaFormatException
+	 */
+	public Dta114Reader(String stataFile, DtaMetadata dtaMetadata) throws InvalidDtaFormatException {
+		super(stataFile, dtaMetadata);
+	}
+
 	/**
 	 * This method ensures that the data file is in format 114. Throws InvalidDtaFormatException if not.
 	 * @throws InvalidDtaFormatException
@@ -68,7 +114,7 @@ public class Dta114Reader extends Dta113Reader implements StataReader {
 	protected void readFormatRecord() throws IOException{
 		int sizeOfFormatRecord = 49;
 		byte[] b = new byte[(dtaHeader.getNumberOfVariables())*sizeOfFormatRecord];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int variableFormatStart=0;
 		for(DtaVariable dtaVariable: dtaVariables){
 			String variableFormat =getStringValue(Arrays.copyOfRange(b, variableFormatStart, (variableFormatStart+49)));
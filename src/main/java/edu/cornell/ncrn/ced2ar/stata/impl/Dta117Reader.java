@@ -53,28 +53,140 @@ public class Dta117Reader extends DtaReader implements StataReader{
 	protected long startOfValueLabelsSection;
 	protected long startOfEndStataDataSection;
 	protected long endOfFile;
+	protected volatile DtaStrLIndex strLIndex;
 	
 	
 	public Dta117Reader(String stataFile) throws IOException,InvalidDtaFormatException{
+		this(stataFile, true);
+	}
+
+	/**
+	 * This method opens and reads the header of the STATA data File.
+	 * Map and variables are read only if readMetaData is true.  A reader that has read only
+	 * the header is not ready for reading of data; it is used to probe the data file.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @throws IOException
+	 */
+	public Dta117Reader(String stataFile, boolean readMetaData) throws IOException,InvalidDtaFormatException{
+		this(stataFile, readMetaData, DtaMetrics.NOOP);
+	}
+
+	/**
+	 * This method opens and reads the header of the STATA data File, reporting the reads and
+	 * the time spent parsing to the metrics.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @param metrics
+	 * @throws IOException
+	 */
+	public Dta117Reader(String stataFile, boolean readMetaData, DtaMetrics metrics) throws IOException,InvalidDtaFormatException{
+		this(stataFile, readMetaData, metrics, null);
+	}
+
+	/**
+	 * This method reads the header of the STATA data File through a channel of the file handle pool,
+	 * reporting the reads and the time spent parsing to the metrics.  The reader uses the pool afterwards.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @param metrics
+	 * @param fileHandlePool pool of open data files, or null to open the data file
+	 * @throws IOException
+	 */
+	public Dta117Reader(String stataFile, boolean readMetaData, DtaMetrics metrics, DtaFileHandlePool fileHandlePool) throws IOException,InvalidDtaFormatException{
 		setDataFile(stataFile);
+		setMetrics(metrics);
+		setFileHandlePool(fileHandlePool);
+		long start = System.nanoTime();
 		try{
 			openDtaFile();
 			readHeader();
 			isValidFormat();
-			readMap();
-			readVariables();
+			if(readMetaData){
+				readMap();
+				readVariables();
+			}
 		}
 		finally{
 			closeDtaFile();
 		}
+		this.metrics.metadataParsed(System.nanoTime() - start);
+	}
+
+	/**
+	 * Creates a reader from the meta data of the STATA data File.  The data file is not parsed.
+	 * @param stataFile
+	 * @param dtaMetadata meta data returned by getDtaMetadata of a reader of the same data file
+	 * @throws InvalidDtaFormatException
+	 */
+	public Dta117Reader(String stataFile, DtaMetadata dtaMetadata) throws InvalidDtaFormatException{
+		setDataFile(stataFile);
+		setDtaMetadata(dtaMetadata);
+		isValidFormat();
+	}
+
+	/**
+	 * Section offsets of format 117 and 118 are the 14 file positions of the map.  See readMap
+	 */
+	@Override
+	protected long[] getSectionOffsets(){
+		return new long[]{startOfStataDataSection, startOfMapSection, startOfVariableTypesSection, startOfVarNamesSection,
+				startOfSortListSection, startOfFormatsSection, startOfValueLabelNamesSection, startOfVariableLablesSection,
+				startOfCharacteristicsSection, startOfDataSection, startOfStrlsSection, startOfValueLabelsSection,
+				startOfEndStataDataSection, endOfFile};
+	}
+
+	@Override
+	protected void setSectionOffsets(long[] sectionOffsets){
+		startOfStataDataSection = sectionOffsets[0];
+		startOfMapSection = sectionOffsets[1];
+		startOfVariableTypesSection = sectionOffsets[2];
+		startOfVarNamesSection = sectionOffsets[3];
+		startOfSortListSection = sectionOffsets[4];
+		startOfFormatsSection = sectionOffsets[5];
+		startOfValueLabelNamesSection = sectionOffsets[6];
+		startOfVariableLablesSection = sectionOffsets[7];
+		startOfCharacteristicsSection = sectionOffsets[8];
+		startOfDataSection = sectionOffsets[9];
+		startOfStrlsSection = sectionOffsets[10];
+		startOfValueLabelsSection = sectionOffsets[11];
+		startOfEndStataDataSection = sectionOffsets[12];
+		endOfFile = sectionOffsets[13];
+	}
+
+	/**
+	 * strL index is created on the first call; GSO blocks are indexed on the first lookup.
+	 * Calls after the first do not lock.
+	 */
+	@Override
+	public DtaStrLIndex getStrLIndex(){
+		DtaStrLIndex index = strLIndex;
+		if(index == null){
+			synchronized(this){
+				index = strLIndex;
+				if(index == null){
+					index = new DtaStrLIndex(dataFile, dtaHeader.getDtaFileFormat(), dtaHeader.isLittleEndian(), 
+							startOfStrlsSection, startOfValueLabelsSection);
+					index.setMetrics(metrics);
+					index.setFileHandlePool(fileHandlePool);
+					strLIndex = index;
+				}
+			}
+		}
+		return index;
 	}
 
 	@Override
 	protected void move2ObservationStart(long observationNumber) throws IOException{
-		stataDataRAF.seek(	startOfDataSection+"<data>".length() + 
+		stataDataInput.seek(	startOfDataSection+"<data>".length() + 
 				getObservationLength() * (observationNumber-1));
 	}
 
+	@Override
+	protected long getStartOfObservations(){
+		return startOfDataSection+"<data>".length();
+	}
+
 
 	/**
 	 * This method reads variable information. 
@@ -88,14 +200,14 @@ public class Dta117Reader extends DtaReader implements StataReader{
 	 */
 	protected void readVariables() throws IOException{
 		List<DtaVariable> dtaVariables = new ArrayList<DtaVariable>();
-		stataDataRAF.seek(startOfVariableTypesSection+"<variable_types>".length());
+		stataDataInput.seek(startOfVariableTypesSection+"<variable_types>".length());
 		
 		// Read Variable Type information
 		for(int i=0;i<getDtaHeader().getNumberOfVariables();i++){
 			DtaVariable dtaVariable = new DtaVariable();
 			dtaVariable.setDta117DataType(true);
 			byte[] b = new byte[2];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			//Variable type is a 2 byte unsigned integer.
 			/*
 			byte[] bytes = new byte[4];
@@ -109,45 +221,49 @@ public class Dta117Reader extends DtaReader implements StataReader{
 		}
 		
 		// Read Variable name information
-		stataDataRAF.seek(startOfVarNamesSection+"<varnames>".length());
+		stataDataInput.seek(startOfVarNamesSection+"<varnames>".length());
 		for(int i=0;i<getDtaHeader().getNumberOfVariables();i++){
 			byte[] b = new byte[33];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			dtaVariables.get(i).setName(getStringValue(b));
 		}
 		
 		// Read Variable Format information
-		stataDataRAF.seek(startOfFormatsSection+"<formats>".length());
+		stataDataInput.seek(startOfFormatsSection+"<formats>".length());
 		for(int i=0;i<getDtaHeader().getNumberOfVariables();i++){
 			byte[] b = new byte[49];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			dtaVariables.get(i).setVariableFormat(getStringValue(b));
 		}
 		
 
 		// Read Value Label names information
-		stataDataRAF.seek(startOfValueLabelNamesSection+"<value_label_names>".length());
+		stataDataInput.seek(startOfValueLabelNamesSection+"<value_label_names>".length());
 		for(int i=0;i<getDtaHeader().getNumberOfVariables();i++){
 			byte[] b = new byte[33];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			dtaVariables.get(i).setVariableValueLabelName(getStringValue(b));
 		}
 
 		
 		// Read Variable Label information
-		stataDataRAF.seek(startOfVariableLablesSection+"<variable_labels>".length());
+		stataDataInput.seek(startOfVariableLablesSection+"<variable_labels>".length());
 		for(int i=0;i<getDtaHeader().getNumberOfVariables();i++){
 			byte[] b = new byte[81];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			dtaVariables.get(i).setVariableLabel(getStringValue(b));
 		}
 
 		setDtaVariables(dtaVariables);
 
 		
-		// Read Value Labels add them to the variables
-		stataDataRAF.seek(startOfValueLabelsSection+"<value_labels><lbl>".length());
-		readValueLabels();
+		// Value Labels are read on demand
+		valueLabelIndex = new DtaValueLabelIndex(dataFile, dtaHeader.isLittleEndian(), getValueLabelNameLength(), getCharset(), startOfValueLabelsSection);
+		valueLabelIndex.setMetrics(metrics);
+		valueLabelIndex.setFileHandlePool(fileHandlePool);
+		for(DtaVariable dtaVariable:dtaVariables){
+			dtaVariable.setValueLabelIndex(valueLabelIndex);
+		}
 		// for debugging
 		for(DtaVariable dtaVariable:dtaVariables){
 			logger.debug(dtaVariable);
@@ -180,77 +296,77 @@ public class Dta117Reader extends DtaReader implements StataReader{
 	 */
 	protected void readMap() throws IOException{
 		int startPositionOfFilePositions= "<map>".length();
-		stataDataRAF.seek(startPositionOfFilePositions+stataDataRAF.getFilePointer());
+		stataDataInput.seek(startPositionOfFilePositions+stataDataInput.getFilePointer());
 		
 		
 		byte b[] = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfStataDataSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <stata_data> " + startOfStataDataSection );
 		
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfMapSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <map> " + startOfMapSection);
 		
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfVariableTypesSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <variable_types> " + startOfVariableTypesSection);
 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfVarNamesSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <varnames> " + startOfVarNamesSection);
 
 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfSortListSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <sortlist> " + startOfSortListSection);
 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfFormatsSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <formats> " + startOfFormatsSection);
 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfValueLabelNamesSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <value_label_names> " + startOfValueLabelNamesSection);
 		
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfVariableLablesSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <variable_labels> " + startOfVariableLablesSection);
 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfCharacteristicsSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <characteristics> " + startOfCharacteristicsSection);
 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfDataSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <data> " + startOfDataSection);
 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfStrlsSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <strls> " + startOfStrlsSection);
 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfValueLabelsSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of <value_labels> " + startOfValueLabelsSection);
 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		startOfEndStataDataSection = getLongValue(b,this.dtaHeader.isLittleEndian());
 		logger.debug("Start of </stata_data> " + startOfEndStataDataSection);
 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		endOfFile = getLongValue(b,dtaHeader.isLittleEndian());
 		logger.debug("end of File " + endOfFile);
 	}
@@ -277,18 +393,18 @@ public class Dta117Reader extends DtaReader implements StataReader{
 		DtaHeader dtaHeader = new DtaHeader();
 		//Read File Format
 		int startPositionOfFileFormat = "<stata_dta><header><release>".length();
-		stataDataRAF.seek(startPositionOfFileFormat+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfFileFormat+stataDataInput.getFilePointer()); 
 		byte b[] = new byte[3];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		String fileFormatId = getStringValue(b);
 		logger.debug("File format Id = " +fileFormatId);
 		dtaHeader.setDtaFileFormat(Byte.parseByte(fileFormatId));
 		
 		//Read Byte Order
 		int startPositionOfByteOrder= "</release><byteorder>".length();
-		stataDataRAF.seek(startPositionOfByteOrder+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfByteOrder+stataDataInput.getFilePointer()); 
 		b = new byte[3];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		String byteOrder = getStringValue(b);
 		logger.debug("byteOrder = " +byteOrder);
 		if(byteOrder.equals("LSF")){
@@ -303,9 +419,9 @@ public class Dta117Reader extends DtaReader implements StataReader{
 		
 		//Read Number of Variables 
 		int startPositionOfNumberOfVariables= "</byteorder><K>".length();
-		stataDataRAF.seek(startPositionOfNumberOfVariables+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfNumberOfVariables+stataDataInput.getFilePointer()); 
 		b = new byte[2];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int numberOfVariables = getShortValue(b, dtaHeader.isLittleEndian());
 		dtaHeader.setNumberOfVariables(numberOfVariables);		
 		logger.debug("numberOfVariables = " +numberOfVariables);
@@ -313,22 +429,22 @@ public class Dta117Reader extends DtaReader implements StataReader{
 
 		//Read Number of Variables 
 		int startPositionOfNumberOfObservations= "</K><N>".length();
-		stataDataRAF.seek(startPositionOfNumberOfObservations+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfNumberOfObservations+stataDataInput.getFilePointer()); 
 		b = new byte[4];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int numberOfObservations = getUnsignedIntValue(b, dtaHeader.isLittleEndian());
 		dtaHeader.setNumberOfObservations(numberOfObservations);		
 		logger.debug("numberOfObservations = " +numberOfObservations);
 
 		//Read Data Label
 		int startPositionOfDataLabel= "</N><label>".length();
-		stataDataRAF.seek(startPositionOfDataLabel+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfDataLabel+stataDataInput.getFilePointer()); 
 		b = new byte[1];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		//int sizeOfLabel = getByteValue(b[0], dtaHeader.isLittleEndian());
 		int sizeOfLabel = getUnsignedIntValue(b, dtaHeader.isLittleEndian());
 		b = new byte[sizeOfLabel];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		String label = getStringValue(b);
 		dtaHeader.setDataLabel(label);		
 		logger.debug("Data Label = " +label);
@@ -336,13 +452,13 @@ public class Dta117Reader extends DtaReader implements StataReader{
 
 		//Read Timestamp
 		int startPositionOfTimestamp= "</label><timestamp>".length();
-		stataDataRAF.seek(startPositionOfTimestamp+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfTimestamp+stataDataInput.getFilePointer()); 
 		b = new byte[1];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		//int sizeOfTimestamp = getByteValue(b[0], dtaHeader.isLittleEndian());
 		int sizeOfTimestamp = getUnsignedIntValue(b, dtaHeader.isLittleEndian());
 		b = new byte[sizeOfTimestamp];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		String timeStamp = getStringValue(b);
 		dtaHeader.setTimeStamp(timeStamp);		
 		logger.debug("timeStamp = " +timeStamp);
@@ -351,7 +467,7 @@ public class Dta117Reader extends DtaReader implements StataReader{
 		logger.debug("dtaHeader = " +dtaHeader);
 
 		int startPositionOfMap= "</timestamp></header>".length();
-		stataDataRAF.seek(startPositionOfMap+stataDataRAF.getFilePointer());
+		stataDataInput.seek(startPositionOfMap+stataDataInput.getFilePointer());
 	}
 	
 	/**
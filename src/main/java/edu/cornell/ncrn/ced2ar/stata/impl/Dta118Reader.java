@@ -10,8 +10,6 @@ import edu.cornell.ncrn.ced2ar.stata.StataReader;
 import edu.cornell.ncrn.ced2ar.stata.exceptions.InvalidDtaFormatException;
 
 /**
- 
-* strLs not supported  
 * This class reads STATA data file of format 118. 
 * 
 * Differences between Format 117 and format 118
@@ -48,6 +46,52 @@ public class Dta118Reader extends Dta117Reader implements StataReader{
 	public Dta118Reader(String stataFile) throws IOException,InvalidDtaFormatException{
 		super(stataFile);
 	}
+
+	/**
+	 * This method opens and reads the header of the STATA data File.
+	 * Map and variables are read only if readMetaData is true.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @throws IOException
+	 */
+	public Dta118Reader(String stataFile, boolean readMetaData) throws IOException,InvalidDtaFormatException{
+		super(stataFile, readMetaData);
+	}
+
+	/**
+	 * This method opens and reads the header of the STATA data File, reporting the reads and
+	 * the time spent parsing to the metrics.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @param metrics
+	 * @throws IOException
+	 */
+	public Dta118Reader(String stataFile, boolean readMetaData, DtaMetrics metrics) throws IOException,InvalidDtaFormatException{
+		super(stataFile, readMetaData, metrics);
+	}
+
+	/**
+	 * This method reads the header of the STATA data File through a channel of the file handle pool,
+	 * reporting the reads and the time spent parsing to the metrics.  The reader uses the pool afterwards.
+	 * @param stataFile
+	 * @param readMetaData
+	 * @param metrics
+	 * @param fileHandlePool pool of open data files, or null to open the data file
+	 * @throws IOException
+	 */
+	public Dta118Reader(String stataFile, boolean readMetaData, DtaMetrics metrics, DtaFileHandlePool fileHandlePool) throws IOException,InvalidDtaFormatException{
+		super(stataFile, readMetaData, metrics, fileHandlePool);
+	}
+
+	/**
+	 * Creates a reader from the meta data of the STATA data File.  The data file is not parsed.
+	 * @param stataFile
+	 * @param dtaMetadata
+	 * @throws InvalidDtaFormatException
+	 */
+	public Dta118Reader(String stataFile, DtaMetadata dtaMetadata) throws InvalidDtaFormatException{
+		super(stataFile, dtaMetadata);
+	}
 	/**
 	 * @throws InvalidDtaFormatException
 	 */
@@ -81,18 +125,18 @@ public class Dta118Reader extends Dta117Reader implements StataReader{
 		DtaHeader dtaHeader = new DtaHeader();
 		//Read File Format
 		int startPositionOfFileFormat = "<stata_dta><header><release>".length();
-		stataDataRAF.seek(startPositionOfFileFormat+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfFileFormat+stataDataInput.getFilePointer()); 
 		byte b[] = new byte[3];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		String fileFormatId = getStringValue(b);
 		logger.debug("File format Id = " +fileFormatId);
 		dtaHeader.setDtaFileFormat(Byte.parseByte(fileFormatId));
 		
 		//Read Byte Order
 		int startPositionOfByteOrder= "</release><byteorder>".length();
-		stataDataRAF.seek(startPositionOfByteOrder+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfByteOrder+stataDataInput.getFilePointer()); 
 		b = new byte[3];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		String byteOrder = getStringValue(b);
 		logger.debug("byteOrder = " +byteOrder);
 		if(byteOrder.equals("LSF")){
@@ -107,9 +151,9 @@ public class Dta118Reader extends Dta117Reader implements StataReader{
 		
 		//Read Number of Variables 
 		int startPositionOfNumberOfVariables= "</byteorder><K>".length();
-		stataDataRAF.seek(startPositionOfNumberOfVariables+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfNumberOfVariables+stataDataInput.getFilePointer()); 
 		b = new byte[2];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int numberOfVariables = getShortValue(b, dtaHeader.isLittleEndian());
 		dtaHeader.setNumberOfVariables(numberOfVariables);		
 		logger.debug("numberOfVariables = " +numberOfVariables);
@@ -117,21 +161,21 @@ public class Dta118Reader extends Dta117Reader implements StataReader{
 
 		//Read Number of Variables 
 		int startPositionOfNumberOfObservations= "</K><N>".length();
-		stataDataRAF.seek(startPositionOfNumberOfObservations+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfNumberOfObservations+stataDataInput.getFilePointer()); 
 		b = new byte[8];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		long numberOfObservations = getUnsignedLongValue(b, dtaHeader.isLittleEndian());
 		dtaHeader.setNumberOfObservations(numberOfObservations);		
 		logger.debug("numberOfObservations = " +numberOfObservations);
 
 		//Read Data Label
 		int startPositionOfDataLabel= "</N><label>".length();
-		stataDataRAF.seek(startPositionOfDataLabel+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfDataLabel+stataDataInput.getFilePointer()); 
 		b = new byte[2];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int sizeOfLabel = getUnsignedIntValue(b, dtaHeader.isLittleEndian());
 		b = new byte[sizeOfLabel];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		String label = getStringValue(b);
 		dtaHeader.setDataLabel(label);		
 		logger.debug("Data Label = " +label);
@@ -139,12 +183,12 @@ public class Dta118Reader extends Dta117Reader implements StataReader{
 
 		//Read Timestamp
 		int startPositionOfTimestamp= "</label><timestamp>".length();
-		stataDataRAF.seek(startPositionOfTimestamp+stataDataRAF.getFilePointer()); 
+		stataDataInput.seek(startPositionOfTimestamp+stataDataInput.getFilePointer()); 
 		b = new byte[1];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		int sizeOfTimestamp = getUnsignedIntValue(b, dtaHeader.isLittleEndian());
 		b = new byte[sizeOfTimestamp];
-		stataDataRAF.read(b);
+		stataDataInput.read(b);
 		String timeStamp = getStringValue(b);
 		dtaHeader.setTimeStamp(timeStamp);		
 		logger.debug("timeStamp = " +timeStamp);
@@ -153,9 +197,17 @@ public class Dta118Reader extends Dta117Reader implements StataReader{
 		logger.debug("dtaHeader = " +dtaHeader);
 
 		int startPositionOfMap= "</timestamp></header>".length();
-		stataDataRAF.seek(startPositionOfMap+stataDataRAF.getFilePointer());
+		stataDataInput.seek(startPositionOfMap+stataDataInput.getFilePointer());
 	}
 	
+	/**
+	 * labname of a value label table is 129 bytes long in format 118
+	 */
+	@Override
+	protected int getValueLabelNameLength(){
+		return 129;
+	}
+
 	/**
 	 * This method reads variable information. 
 	 * Variable information includes
@@ -168,58 +220,62 @@ public class Dta118Reader extends Dta117Reader implements StataReader{
 	 */
 	protected void readVariables() throws IOException{
 		List<DtaVariable> dtaVariables = new ArrayList<DtaVariable>();
-		stataDataRAF.seek(startOfVariableTypesSection+"<variable_types>".length());
+		stataDataInput.seek(startOfVariableTypesSection+"<variable_types>".length());
 		
 		// Read Variable Type information
 		for(int i=0;i<getDtaHeader().getNumberOfVariables();i++){
 			DtaVariable dtaVariable = new DtaVariable();
 			dtaVariable.setDta117DataType(true);
 			byte[] b = new byte[2];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			dtaVariable.setVariableType((getUnsignedIntValue(b, getDtaHeader().isLittleEndian())));
 			dtaVariables.add(dtaVariable);
 			
 		}
 		
 		// Read Variable name information
-		stataDataRAF.seek(startOfVarNamesSection+"<varnames>".length());
+		stataDataInput.seek(startOfVarNamesSection+"<varnames>".length());
 		for(int i=0;i<getDtaHeader().getNumberOfVariables();i++){
 			byte[] b = new byte[129];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			dtaVariables.get(i).setName(getStringValue(b));
 		}
 		
 		// Read Variable Format information
-		stataDataRAF.seek(startOfFormatsSection+"<formats>".length());
+		stataDataInput.seek(startOfFormatsSection+"<formats>".length());
 		for(int i=0;i<getDtaHeader().getNumberOfVariables();i++){
 			byte[] b = new byte[57];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			dtaVariables.get(i).setVariableFormat(getStringValue(b));
 		}
 		
 		// Read Value Label names information
-		stataDataRAF.seek(startOfValueLabelNamesSection+"<value_label_names>".length());
+		stataDataInput.seek(startOfValueLabelNamesSection+"<value_label_names>".length());
 		for(int i=0;i<getDtaHeader().getNumberOfVariables();i++){
 			byte[] b = new byte[129];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			dtaVariables.get(i).setVariableValueLabelName(getStringValue(b));
 		}
 
 		
 		// Read Variable Label information
-		stataDataRAF.seek(startOfVariableLablesSection+"<variable_labels>".length());
+		stataDataInput.seek(startOfVariableLablesSection+"<variable_labels>".length());
 		for(int i=0;i<getDtaHeader().getNumberOfVariables();i++){
 			byte[] b = new byte[321];
-			stataDataRAF.read(b);
+			stataDataInput.read(b);
 			dtaVariables.get(i).setVariableLabel(getStringValue(b));
 		}
 
 		setDtaVariables(dtaVariables);
 
 		
-		// Read Value Labels add them to the variables
-		stataDataRAF.seek(startOfValueLabelsSection+"<value_labels><lbl>".length());
-		readValueLabels();
+		// Value Labels are read on demand
+		valueLabelIndex = new DtaValueLabelIndex(dataFile, dtaHeader.isLittleEndian(), getValueLabelNameLength(), getCharset(), startOfValueLabelsSection);
+		valueLabelIndex.setMetrics(metrics);
+		valueLabelIndex.setFileHandlePool(fileHandlePool);
+		for(DtaVariable dtaVariable:dtaVariables){
+			dtaVariable.setValueLabelIndex(valueLabelIndex);
+		}
 		// for debugging
 		for(DtaVariable dtaVariable:dtaVariables){
 			logger.debug(dtaVariable);
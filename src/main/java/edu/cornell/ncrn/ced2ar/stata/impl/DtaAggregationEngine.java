@@ -0,0 +1,224 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import edu.cornell.ncrn.ced2ar.stata.StataCursor;
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+
+/**
+* This class is the super class of the engines that aggregate the variables of a stata data file
+* in one scan of the data section.
+* The observation range is split into chunks that are aggregated independently on a ForkJoinPool.
+* Each chunk opens its own cursor and decodes the values straight from the row view of the cursor
+* into its own partial aggregate.  Partial aggregates are merged in observation order once all the
+* chunks are done.
+*
+* Sub classes decide which variables they aggregate and implement newAggregate, accumulate and merge.
+* An aggregate is only used by the chunk that created it, so it does not need to be thread safe.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public abstract class DtaAggregationEngine<A> {
+	private static final Logger logger = Logger.getLogger(DtaAggregationEngine.class);
+
+	public static final long DEFAULT_CHUNK_SIZE = 1000000;
+
+	protected final StataReader stataReader;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private long chunkSize = DEFAULT_CHUNK_SIZE;
+	private String[] selectedVariables = new String[0];
+	private String filterExpression;
+
+	public DtaAggregationEngine(StataReader stataReader){
+		this.stataReader = stataReader;
+	}
+
+	/**
+	 * Returns true if the engine can aggregate the variable.
+	 * @param dtaVariable
+	 * @return
+	 */
+	protected abstract boolean isAggregated(DtaVariable dtaVariable);
+
+	/**
+	 * Returns true if the variable is aggregated when no variables are selected.
+	 * @param dtaVariable
+	 * @return isAggregated(dtaVariable) unless overridden
+	 */
+	protected boolean isSelectedByDefault(DtaVariable dtaVariable){
+		return isAggregated(dtaVariable);
+	}
+
+	/**
+	 * Returns an empty aggregate of the variables of the layout
+	 * @param rowLayout layout of the aggregated variables
+	 * @param dtaVariables aggregated variables, in the order of the layout
+	 * @return
+	 */
+	protected abstract A newAggregate(DtaRowLayout rowLayout, List<DtaVariable> dtaVariables);
+
+	/**
+	 * Adds the observation the row view is positioned over to the aggregate
+	 * @param aggregate
+	 * @param rowView
+	 */
+	protected abstract void accumulate(A aggregate, DtaRowView rowView);
+
+	/**
+	 * Merges the aggregate of the following chunk into the aggregate
+	 * @param aggregate aggregate of the earlier observations
+	 * @param next aggregate of the observations that follow
+	 * @return merged aggregate
+	 */
+	protected abstract A merge(A aggregate, A next);
+
+	/**
+	 * Aggregates the observations start to end (both inclusive)
+	 * @param start Start of the observation Number
+	 * @param end End of the observation number.
+	 * @return aggregate of the observations
+	 * @throws IOException
+	 */
+	protected A aggregate(long start, long end) throws IOException{
+		final List<DtaVariable> dtaVariables = getAggregatedVariables();
+		final String[] variableNames = new String[dtaVariables.size()];
+		int[] columns = new int[dtaVariables.size()];
+		List<DtaVariable> allVariables = stataReader.getDtaVariables();
+		for(int i=0;i<variableNames.length;i++){
+			variableNames[i] = dtaVariables.get(i).getRawName();
+			columns[i] = allVariables.indexOf(dtaVariables.get(i));
+		}
+		final DtaRowLayout rowLayout = new DtaRowLayout(allVariables).project(columns);
+
+		long first = Math.max(start, 1);
+		long last = Math.min(end, stataReader.getDtaHeader().getNumberOfObservations());
+		List<Callable<A>> chunks = new ArrayList<Callable<A>>();
+		for(long chunkStart = first; chunkStart <= last; chunkStart += chunkSize){
+			final long from = chunkStart;
+			final long to = Math.min(last, chunkStart + chunkSize - 1);
+			chunks.add(new Callable<A>(){
+				@Override
+				public A call() throws IOException {
+					A aggregate = newAggregate(rowLayout, dtaVariables);
+					if(variableNames.length == 0) return aggregate;
+					try(StataCursor cursor = stataReader.openCursor(from, to)){
+						cursor.select(variableNames);
+						if(filterExpression != null) cursor.where(filterExpression);
+						while(cursor.hasNext()){
+							accumulate(aggregate, cursor.nextRowView());
+						}
+					}
+					return aggregate;
+				}
+			});
+		}
+		logger.debug("Aggregating " + variableNames.length + " variable(s) of observations " + first + " to " + last + " in " + chunks.size() + " chunk(s)");
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try{
+			A aggregate = newAggregate(rowLayout, dtaVariables);
+			for(Future<A> future:pool.invokeAll(chunks)){
+				aggregate = merge(aggregate, future.get());
+			}
+			return aggregate;
+		}
+		catch(InterruptedException ex){
+			Thread.currentThread().interrupt();
+			throw new IOException("Aggregation was interrupted", ex);
+		}
+		catch(ExecutionException ex){
+			if(ex.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException)ex.getCause()).getCause();
+			if(ex.getCause() instanceof IOException) throw (IOException)ex.getCause();
+			if(ex.getCause() instanceof RuntimeException) throw (RuntimeException)ex.getCause();
+			throw new IOException("Unable to aggregate observations", ex.getCause());
+		}
+		finally{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the selected variables, or all the variables the engine aggregates by default if no variables are selected.
+	 * @return
+	 * @throws IllegalArgumentException if a selected variable is unknown or can not be aggregated
+	 */
+	protected List<DtaVariable> getAggregatedVariables(){
+		List<DtaVariable> dtaVariables = new ArrayList<DtaVariable>();
+		if(selectedVariables.length == 0){
+			for(DtaVariable dtaVariable:stataReader.getDtaVariables()){
+				if(isAggregated(dtaVariable) && isSelectedByDefault(dtaVariable)) dtaVariables.add(dtaVariable);
+			}
+			return dtaVariables;
+		}
+		for(String variableName:selectedVariables){
+			DtaVariable dtaVariable = null;
+			for(DtaVariable candidate:stataReader.getDtaVariables()){
+				if(candidate.getRawName().equals(variableName)){
+					dtaVariable = candidate;
+					break;
+				}
+			}
+			if(dtaVariable == null)
+				throw new IllegalArgumentException("Unknown variable " + variableName);
+			if(!isAggregated(dtaVariable))
+				throw new IllegalArgumentException("Variable " + variableName + " can not be aggregated by " + getClass().getSimpleName());
+			dtaVariables.add(dtaVariable);
+		}
+		return dtaVariables;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism number of chunks aggregated at the same time
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param chunkSize number of observations in a chunk
+	 */
+	public void setChunkSize(long chunkSize) {
+		if(chunkSize <= 0)
+			throw new IllegalArgumentException("Chunk size must be positive. Found " + chunkSize);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Limits the aggregation to the selected variables, in the given order.
+	 * Calling select without variable names selects all the variables the engine aggregates.
+	 * @param variableNames
+	 */
+	public void select(String... variableNames) {
+		this.selectedVariables = variableNames;
+	}
+
+	/**
+	 * Limits the aggregation to the observations that satisfy the filter. See DtaFilter for the syntax.
+	 * @param filterExpression filter, or null to aggregate all the observations
+	 */
+	public void where(String filterExpression) {
+		this.filterExpression = filterExpression;
+	}
+}
@@ -0,0 +1,239 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+* This class scans a range of observations sequentially, reading blocks ahead of the observations
+* being decoded.  Blocks are read with an AsynchronousFileChannel into prefetchDepth + 1 rotating
+* buffers: while the observations of one block are decoded, the next prefetchDepth blocks are being
+* read.  On storage with high latency, such as network attached storage, decoding no longer waits
+* for each read.  A scanner over a handle of the file handle pool makes the reads with positional
+* reads of the channel of the handle on daemon threads shared by the scanners.
+*
+* 	buffers    current block | prefetched blocks 1 .. prefetchDepth
+* 	next block waits for the read of the first prefetched block, which becomes the current block;
+* 	the buffer of the previous block is reused to read the block prefetchDepth blocks ahead.
+*
+* Blocks are a whole number of observations of getObservationLength() bytes, as in DtaBlockScanner.
+* The buffer of a block is valid until the next block is read.
+*
+* USAGE
+* 	dtaReader.setPrefetchDepth(2);
+* 	DtaBlockScanner scanner = dtaReader.openBlockScanner(1, 1000000);
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaAsyncBlockScanner extends DtaBlockScanner {
+	private static final ExecutorService HANDLE_READS = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "dta-block-prefetch");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final AsynchronousFileChannel channel;
+	private final DtaFileHandlePool.Handle handle;
+	private final int prefetchDepth;
+	private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<ByteBuffer>();
+	private final ArrayDeque<Prefetch> prefetches = new ArrayDeque<Prefetch>();
+	private ByteBuffer current;
+	private long nextObservation;
+
+	/**
+	 * Opens a scanner over observations start to end (both inclusive) and starts reading the first blocks
+	 * @param dataFile stata data file
+	 * @param startOfObservations file position of the first byte of the first observation
+	 * @param observationLength length of one observation in bytes
+	 * @param start first observation to scan. 1 based
+	 * @param end last observation to scan.
+	 * @param isLittleEndian byte order of the data file
+	 * @param blockSize size of the blocks in bytes.  Rounded down to a whole number of observations.
+	 * @param prefetchDepth number of blocks read ahead of the current block; at least 1
+	 * @throws IOException
+	 */
+	public DtaAsyncBlockScanner(String dataFile, long startOfObservations, int observationLength, long start, long end,
+			boolean isLittleEndian, int blockSize, int prefetchDepth) throws IOException{
+		super(startOfObservations, observationLength, start, end, isLittleEndian, blockSize);
+		if(prefetchDepth < 1)
+			throw new IllegalArgumentException("Prefetch depth must be at least 1. Found " + prefetchDepth);
+		this.prefetchDepth = prefetchDepth;
+		this.channel = AsynchronousFileChannel.open(Paths.get(dataFile), StandardOpenOption.READ);
+		this.handle = null;
+		startPrefetch(start);
+	}
+
+	/**
+	 * Opens a scanner over observations start to end (both inclusive) that reads through the channel of
+	 * a handle of the file handle pool, and starts reading the first blocks.  The handle is closed when the
+	 * scanner is closed.
+	 * @param handle handle of the stata data file
+	 * @param startOfObservations file position of the first byte of the first observation
+	 * @param observationLength length of one observation in bytes
+	 * @param start first observation to scan. 1 based
+	 * @param end last observation to scan.
+	 * @param isLittleEndian byte order of the data file
+	 * @param blockSize size of the blocks in bytes.  Rounded down to a whole number of observations.
+	 * @param prefetchDepth number of blocks read ahead of the current block; at least 1
+	 */
+	public DtaAsyncBlockScanner(DtaFileHandlePool.Handle handle, long startOfObservations, int observationLength, long start, long end,
+			boolean isLittleEndian, int blockSize, int prefetchDepth){
+		super(startOfObservations, observationLength, start, end, isLittleEndian, blockSize);
+		if(prefetchDepth < 1)
+			throw new IllegalArgumentException("Prefetch depth must be at least 1. Found " + prefetchDepth);
+		this.prefetchDepth = prefetchDepth;
+		this.channel = null;
+		this.handle = handle;
+		startPrefetch(start);
+	}
+
+	/**
+	 * Allocates the buffers and starts the reads of the first blocks
+	 * @param start first observation to scan
+	 */
+	private void startPrefetch(long start){
+		freeBuffers.add(buffer);
+		for(int i=0;i<prefetchDepth;i++){
+			freeBuffers.add(ByteBuffer.allocate(buffer.capacity()).order(buffer.order()));
+		}
+		nextObservation = start;
+		prefetch();
+	}
+
+	/**
+	 * Takes the block at the file position from the prefetched blocks, waiting for its read to
+	 * complete, and starts the reads of the blocks that follow.
+	 */
+	@Override
+	protected void fillBlock(long position, int length) throws IOException {
+		if(current != null){
+			freeBuffers.add(current);
+			current = null;
+		}
+		if(prefetches.isEmpty() || prefetches.peek().position != position){
+			cancel();
+			nextObservation = (position - startOfObservations) / Math.max(observationLength, 1) + 1;
+			prefetch();
+		}
+		Prefetch prefetch = prefetches.poll();
+		current = prefetch.buffer;
+		buffer = current;
+		prefetch.complete();
+		prefetch();
+	}
+
+	/**
+	 * Starts reads of the blocks that follow the prefetched blocks while there are free buffers
+	 */
+	private void prefetch(){
+		while(prefetches.size() < prefetchDepth && !freeBuffers.isEmpty() && nextObservation <= end){
+			int observations = (int)Math.min(observationsPerBlock, end - nextObservation + 1);
+			long position = startOfObservations + (nextObservation - 1) * observationLength;
+			ByteBuffer prefetchBuffer = freeBuffers.poll();
+			prefetchBuffer.clear();
+			prefetchBuffer.limit(observations * observationLength);
+			prefetches.add(new Prefetch(position, prefetchBuffer));
+			nextObservation += observations;
+		}
+	}
+
+	/**
+	 * Waits for the reads in progress and returns their buffers to the free buffers
+	 */
+	private void cancel(){
+		while(!prefetches.isEmpty()){
+			Prefetch prefetch = prefetches.poll();
+			try{
+				if(prefetch.future != null) prefetch.future.get();
+			}
+			catch(InterruptedException ex){
+				Thread.currentThread().interrupt();
+			}
+			catch(ExecutionException ex){
+				// the block is read again if it is needed
+			}
+			freeBuffers.add(prefetch.buffer);
+		}
+	}
+
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/**
+	 * Starts the read of the buffer at the file position
+	 * @param readBuffer
+	 * @param position
+	 * @return read in progress
+	 */
+	private Future<Integer> read(ByteBuffer readBuffer, long position){
+		if(channel != null) return channel.read(readBuffer, position);
+		return HANDLE_READS.submit(() -> handle.getChannel().read(readBuffer, position));
+	}
+
+	/**
+	 * Closes the channel, or waits for the reads in progress and closes the handle
+	 */
+	@Override
+	public void close() throws IOException {
+		if(channel != null){
+			channel.close();
+			return;
+		}
+		cancel();
+		handle.close();
+	}
+
+	/**
+	 * Read of one block.  The read is started when the block is prefetched; a read that returns
+	 * less than the block is continued when the block is taken.
+	 */
+	private class Prefetch{
+		private final long position;
+		private final ByteBuffer buffer;
+		private Future<Integer> future;
+
+		private Prefetch(long position, ByteBuffer buffer){
+			this.position = position;
+			this.buffer = buffer;
+			if(buffer.hasRemaining()) future = read(buffer, position);
+		}
+
+		/**
+		 * Waits until the block is read
+		 * @throws IOException
+		 */
+		private void complete() throws IOException{
+			try{
+				while(future != null){
+					int n = future.get();
+					if(n < 0) throw new EOFException("Data section ends before observation " + end);
+					metrics.read(n);
+					future = buffer.hasRemaining() ? read(buffer, position + buffer.position()) : null;
+				}
+			}
+			catch(InterruptedException ex){
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while reading the block at " + position);
+			}
+			catch(ExecutionException ex){
+				if(ex.getCause() instanceof IOException) throw (IOException)ex.getCause();
+				throw new IOException("Unable to read the block at " + position, ex.getCause());
+			}
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+* This class scans a range of observations sequentially.
+* Observations are fixed width, so the data section is read in blocks that hold a whole
+* number of observations.  Each block is read into the same reusable buffer and the
+* observations are decoded from that buffer.
+*
+* USAGE
+* 	DtaBlockScanner scanner = dtaReader.openBlockScanner(1, 1000);
+* 	while(scanner.next()){
+* 		dtaReader.decodeObservation(scanner.getBuffer(), scanner.getObservationOffset());
+* 	}
+* 	scanner.close();
+*
+* Bytes read and blocks fetched are counted so that the block size can be tuned
+* against the storage.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaBlockScanner implements Closeable {
+	public static final int DEFAULT_BLOCK_SIZE = 4*1024*1024;
+
+	private RandomAccessFile scannerRAF;
+	private FileChannel channel;
+	private DtaFileHandlePool.Handle handle;
+	protected final long startOfObservations;
+	protected final int observationLength;
+	protected final int observationsPerBlock;
+	protected final long end;
+	protected ByteBuffer buffer;
+
+	private long observationNumber;
+	private int observationOffset;
+	private int observationsInBlock;
+	private int observationIndexInBlock;
+	private long bytesRead;
+	private long blocksFetched;
+	protected DtaMetrics metrics = DtaMetrics.NOOP;
+
+	/**
+	 * Opens a scanner over observations start to end (both inclusive)
+	 * @param dataFile stata data file
+	 * @param startOfObservations file position of the first byte of the first observation
+	 * @param observationLength length of one observation in bytes
+	 * @param start first observation to scan. 1 based
+	 * @param end last observation to scan.
+	 * @param isLittleEndian byte order of the data file
+	 * @param blockSize size of the blocks in bytes.  Rounded down to a whole number of observations;
+	 * 			a block holds at least one observation.
+	 * @throws IOException
+	 */
+	public DtaBlockScanner(String dataFile, long startOfObservations, int observationLength, long start, long end,
+			boolean isLittleEndian, int blockSize) throws IOException{
+		this(startOfObservations, observationLength, start, end, isLittleEndian, blockSize);
+		this.scannerRAF = new RandomAccessFile(new File(dataFile),"r");
+		this.channel = scannerRAF.getChannel();
+	}
+
+	/**
+	 * Opens a scanner over observations start to end (both inclusive) that reads through the channel of
+	 * a handle of the file handle pool.  The handle is closed when the scanner is closed.
+	 * @param handle handle of the stata data file
+	 * @param startOfObservations file position of the first byte of the first observation
+	 * @param observationLength length of one observation in bytes
+	 * @param start first observation to scan. 1 based
+	 * @param end last observation to scan.
+	 * @param isLittleEndian byte order of the data file
+	 * @param blockSize size of the blocks in bytes.  Rounded down to a whole number of observations;
+	 * 			a block holds at least one observation.
+	 */
+	public DtaBlockScanner(DtaFileHandlePool.Handle handle, long startOfObservations, int observationLength, long start, long end,
+			boolean isLittleEndian, int blockSize){
+		this(startOfObservations, observationLength, start, end, isLittleEndian, blockSize);
+		this.handle = handle;
+	}
+
+	/**
+	 * Creates a scanner that reads its blocks with its own implementation of fillBlock.  The data file is not opened.
+	 * @param startOfObservations
+	 * @param observationLength
+	 * @param start
+	 * @param end
+	 * @param isLittleEndian
+	 * @param blockSize
+	 */
+	protected DtaBlockScanner(long startOfObservations, int observationLength, long start, long end,
+			boolean isLittleEndian, int blockSize){
+		if(blockSize <= 0)
+			throw new IllegalArgumentException("Block size must be positive. Found " + blockSize);
+		this.startOfObservations = startOfObservations;
+		this.observationLength = observationLength;
+		this.observationsPerBlock = observationLength == 0 ? blockSize : Math.max(1, blockSize/observationLength);
+		this.observationNumber = start-1;
+		this.end = end;
+		this.buffer = ByteBuffer.allocate(observationsPerBlock*observationLength);
+		this.buffer.order(isLittleEndian?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Moves to the next observation.  A new block is read when the observations
+	 * of the current block are exhausted.
+	 * @return false if there are no more observations in the range.
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException{
+		if(observationNumber >= end) return false;
+		observationNumber++;
+		observationIndexInBlock++;
+		if(observationIndexInBlock >= observationsInBlock){
+			readBlock();
+		}
+		observationOffset = observationIndexInBlock*observationLength;
+		return true;
+	}
+
+	/**
+	 * Reads the block that starts at the current observation number
+	 * @throws IOException
+	 */
+	protected void readBlock() throws IOException{
+		observationsInBlock = (int)Math.min(observationsPerBlock, end - observationNumber + 1);
+		observationIndexInBlock = 0;
+		long position = startOfObservations + (observationNumber-1)*observationLength;
+		fillBlock(position, observationsInBlock*observationLength);
+		bytesRead += buffer.limit();
+		blocksFetched++;
+	}
+
+	/**
+	 * Reads the block at the file position into the buffer.  The limit of the buffer is the length of the block.
+	 * @param position file position of the block
+	 * @param length length of the block in bytes
+	 * @throws IOException
+	 */
+	protected void fillBlock(long position, int length) throws IOException{
+		buffer.clear();
+		buffer.limit(length);
+		FileChannel channel = handle != null ? handle.getChannel() : this.channel;
+		while(buffer.hasRemaining()){
+			int n = channel.read(buffer, position + buffer.position());
+			if(n < 0) throw new EOFException("Data section ends before observation " + end);
+			metrics.read(n);
+		}
+	}
+
+	/**
+	 * Buffer that holds the current observation. Ordered by the byte order of the data file.
+	 * Contents of the buffer change when the next block is read.
+	 * @return
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return position of the current observation in the buffer
+	 */
+	public int getObservationOffset() {
+		return observationOffset;
+	}
+
+	/**
+	 * @return 1 based number of the current observation
+	 */
+	public long getObservationNumber() {
+		return observationNumber;
+	}
+
+	public int getObservationsPerBlock() {
+		return observationsPerBlock;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	public long getBlocksFetched() {
+		return blocksFetched;
+	}
+
+	public DtaMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @param metrics metrics each read of a block is reported to
+	 */
+	public void setMetrics(DtaMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(scannerRAF != null) scannerRAF.close();
+		if(handle != null) handle.close();
+	}
+}
@@ -0,0 +1,154 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+/**
+* This class counts the distinct values of a variable.
+* Hashes of the values are kept in an exact set until the set holds more than exactLimit hashes;
+* from then on the hashes are counted in a HyperLogLog sketch of 2^precision registers.
+* Low cardinality variables are therefore counted exactly, and high cardinality variables
+* use a fixed amount of memory with a relative error of about 1.04/sqrt(2^precision):
+* 0.8% for the default precision of 14.
+*
+* USAGE
+* 	long distinctValues = dtaCardinality.getCount();
+* 	boolean exact = dtaCardinality.isExact();
+*
+* Use an exactLimit of Integer.MAX_VALUE to always count exactly.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaCardinality {
+	public static final int DEFAULT_PRECISION = 14;
+	public static final int DEFAULT_EXACT_LIMIT = 4096;
+
+	private final String name;
+	private final int precision;
+	private final int exactLimit;
+	private long[] hashes = new long[16];
+	private int size;
+	private byte[] registers;
+
+	/**
+	 * @param name name of the variable
+	 * @param precision number of index bits of the HyperLogLog sketch, 4 to 18
+	 * @param exactLimit number of distinct values counted exactly
+	 */
+	public DtaCardinality(String name, int precision, int exactLimit){
+		if(precision < 4 || precision > 18)
+			throw new IllegalArgumentException("Precision must be between 4 and 18. Found " + precision);
+		this.name = name;
+		this.precision = precision;
+		this.exactLimit = exactLimit;
+	}
+
+	/**
+	 * Adds the 64 bit hash of a value
+	 * @param hash
+	 */
+	public void add(long hash){
+		if(registers != null){
+			addToRegisters(hash);
+			return;
+		}
+		if(hash == 0) hash = 1;
+		int mask = hashes.length - 1;
+		int slot = (int)(hash ^ (hash >>> 32)) & mask;
+		while(hashes[slot] != 0){
+			if(hashes[slot] == hash) return;
+			slot = (slot + 1) & mask;
+		}
+		hashes[slot] = hash;
+		size++;
+		if(size > exactLimit) toRegisters();
+		else if(size * 2 > hashes.length) growHashes();
+	}
+
+	/**
+	 * Adds the distinct values of an other range of observations of the same variable
+	 * @param other
+	 */
+	public void merge(DtaCardinality other){
+		if(other.registers == null){
+			for(long hash:other.hashes){
+				if(hash != 0) add(hash);
+			}
+			return;
+		}
+		if(registers == null) toRegisters();
+		for(int i=0;i<registers.length;i++){
+			if(other.registers[i] > registers[i]) registers[i] = other.registers[i];
+		}
+	}
+
+	private void addToRegisters(long hash){
+		int index = (int)(hash >>> (64 - precision));
+		int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+		if(rank > registers[index]) registers[index] = (byte)rank;
+	}
+
+	private void growHashes(){
+		long[] old = hashes;
+		hashes = new long[old.length * 2];
+		size = 0;
+		for(long hash:old){
+			if(hash != 0) add(hash);
+		}
+	}
+
+	private void toRegisters(){
+		registers = new byte[1 << precision];
+		for(long hash:hashes){
+			if(hash != 0) addToRegisters(hash);
+		}
+		hashes = null;
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of distinct values: exact while the count is within exactLimit,
+	 * otherwise the HyperLogLog estimate.
+	 * @return
+	 */
+	public long getCount(){
+		if(registers == null) return size;
+		int m = registers.length;
+		double sum = 0;
+		int zeros = 0;
+		for(byte register:registers){
+			sum += Math.scalb(1.0, -register);
+			if(register == 0) zeros++;
+		}
+		double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+		double estimate = alpha * m * m / sum;
+		if(estimate <= 2.5 * m && zeros > 0) estimate = m * Math.log((double)m / zeros);
+		return Math.round(estimate);
+	}
+
+	/**
+	 * @return true if getCount is exact
+	 */
+	public boolean isExact(){
+		return registers == null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	public int getExactLimit() {
+		return exactLimit;
+	}
+
+	@Override
+	public String toString() {
+		return "DtaCardinality [name=" + name + ", count=" + getCount() + ", exact=" + isExact() + "]";
+	}
+}
@@ -0,0 +1,112 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+
+/**
+* This class counts the distinct values of the variables of a stata data file in one parallel
+* scan of the data section.
+* Values are hashed from the observations with DtaRowView.hash; str variables are not decoded
+* to Strings, and a file counts the same in either byte order.  Each chunk of observations fills its own DtaCardinality counters,
+* which are merged after the scan.
+*
+* USAGE
+* 	DtaCardinalityEngine engine = new DtaCardinalityEngine(SR);
+* 	for(DtaCardinality cardinality:engine.compute()){
+* 		long distinctValues = cardinality.getCount();
+* 	}
+*
+* Without a selection every variable is counted.  Numeric values are distinct by their value, and
+* each missing code counts as a value.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaCardinalityEngine extends DtaAggregationEngine<DtaCardinality[]> {
+	private int precision = DtaCardinality.DEFAULT_PRECISION;
+	private int exactLimit = DtaCardinality.DEFAULT_EXACT_LIMIT;
+
+	public DtaCardinalityEngine(StataReader stataReader){
+		super(stataReader);
+	}
+
+	/**
+	 * Counts the distinct values of all the observations
+	 * @return counts of the variables, in the order of the selection
+	 * @throws IOException
+	 */
+	public List<DtaCardinality> compute() throws IOException{
+		return compute(1, stataReader.getDtaHeader().getNumberOfObservations());
+	}
+
+	/**
+	 * Counts the distinct values of the observations start to end (both inclusive)
+	 * @param start Start of the observation Number
+	 * @param end End of the observation number.
+	 * @return counts of the variables, in the order of the selection
+	 * @throws IOException
+	 */
+	public List<DtaCardinality> compute(long start, long end) throws IOException{
+		return Arrays.asList(aggregate(start, end));
+	}
+
+	@Override
+	protected boolean isAggregated(DtaVariable dtaVariable) {
+		return DtaRowLayout.getKind(dtaVariable) != DtaRowLayout.KIND_UNKNOWN;
+	}
+
+	@Override
+	protected DtaCardinality[] newAggregate(DtaRowLayout rowLayout, List<DtaVariable> dtaVariables) {
+		DtaCardinality[] cardinalities = new DtaCardinality[dtaVariables.size()];
+		for(int i=0;i<cardinalities.length;i++){
+			cardinalities[i] = new DtaCardinality(dtaVariables.get(i).getName(), precision, exactLimit);
+		}
+		return cardinalities;
+	}
+
+	@Override
+	protected void accumulate(DtaCardinality[] cardinalities, DtaRowView rowView) {
+		for(int i=0;i<cardinalities.length;i++){
+			cardinalities[i].add(rowView.hash(i));
+		}
+	}
+
+	@Override
+	protected DtaCardinality[] merge(DtaCardinality[] cardinalities, DtaCardinality[] next) {
+		for(int i=0;i<cardinalities.length;i++){
+			cardinalities[i].merge(next[i]);
+		}
+		return cardinalities;
+	}
+
+	public int getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @param precision number of index bits of the HyperLogLog sketches, 4 to 18; 
+	 * a sketch takes 2^precision bytes
+	 */
+	public void setPrecision(int precision) {
+		this.precision = precision;
+	}
+
+	public int getExactLimit() {
+		return exactLimit;
+	}
+
+	/**
+	 * @param exactLimit number of distinct values counted exactly before a variable switches to HyperLogLog; 
+	 * Integer.MAX_VALUE counts all the variables exactly
+	 */
+	public void setExactLimit(int exactLimit) {
+		this.exactLimit = exactLimit;
+	}
+}
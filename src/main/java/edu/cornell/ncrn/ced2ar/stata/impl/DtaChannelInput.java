@@ -0,0 +1,133 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+* This class reads a STATA data file the way the meta data parsers read it: sequentially from a
+* file pointer that is moved with seek.  Reads are positional reads of a FileChannel, so the position
+* of the channel is never changed and the channel can be one of the file handle pool that is shared
+* with other readers of the data file.  Each read is reported to the metrics.
+*
+* USAGE
+* 	try(DtaChannelInput input = DtaChannelInput.open(dataFile, fileHandlePool, metrics)){
+* 		input.seek(position);
+* 		input.readFully(b);
+* 	}
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaChannelInput implements Closeable {
+	private final FileChannel channel;
+	private final DtaFileHandlePool.Handle handle;
+	private final DtaMetrics metrics;
+	private long filePointer;
+
+	private DtaChannelInput(FileChannel channel, DtaFileHandlePool.Handle handle, DtaMetrics metrics){
+		this.channel = channel;
+		this.handle = handle;
+		this.metrics = metrics == null ? DtaMetrics.NOOP : metrics;
+	}
+
+	/**
+	 * Opens the data file for reading.  With a file handle pool the channel is acquired from the pool
+	 * and given back on close; otherwise the data file is opened and closed on close.
+	 * @param dataFile
+	 * @param fileHandlePool pool of open data files, or null
+	 * @param metrics
+	 * @return input positioned at the start of the data file
+	 * @throws IOException
+	 */
+	public static DtaChannelInput open(String dataFile, DtaFileHandlePool fileHandlePool, DtaMetrics metrics) throws IOException{
+		if(fileHandlePool != null) return new DtaChannelInput(null, fileHandlePool.acquire(dataFile), metrics);
+		return new DtaChannelInput(FileChannel.open(Paths.get(dataFile), StandardOpenOption.READ), null, metrics);
+	}
+
+	/**
+	 * @return channel the data file is read through.  Only positional reads are to be made on it.
+	 * @throws IOException
+	 */
+	public FileChannel getChannel() throws IOException{
+		return handle != null ? handle.getChannel() : channel;
+	}
+
+	public long getFilePointer(){
+		return filePointer;
+	}
+
+	public void seek(long position) throws IOException{
+		if(position < 0) throw new IOException("Negative seek offset " + position);
+		filePointer = position;
+	}
+
+	public long length() throws IOException{
+		return getChannel().size();
+	}
+
+	/**
+	 * Reads up to b.length bytes at the file pointer.  Fewer bytes are read only at the end of the file.
+	 * @param b
+	 * @return number of bytes read, or -1 at the end of the file
+	 * @throws IOException
+	 */
+	public int read(byte[] b) throws IOException{
+		return read(b, 0, b.length);
+	}
+
+	/**
+	 * Reads up to len bytes at the file pointer.  Fewer bytes are read only at the end of the file.
+	 * @param b
+	 * @param off
+	 * @param len
+	 * @return number of bytes read, or -1 at the end of the file
+	 * @throws IOException
+	 */
+	public int read(byte[] b, int off, int len) throws IOException{
+		if(len == 0) return 0;
+		ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+		FileChannel fileChannel = getChannel();
+		while(buffer.hasRemaining()){
+			int n = fileChannel.read(buffer, filePointer);
+			if(n < 0) break;
+			filePointer += n;
+			metrics.read(n);
+		}
+		int read = len - buffer.remaining();
+		return read == 0 ? -1 : read;
+	}
+
+	/**
+	 * Reads b.length bytes at the file pointer
+	 * @param b
+	 * @throws EOFException if the file ends first
+	 * @throws IOException
+	 */
+	public void readFully(byte[] b) throws IOException{
+		if(read(b) < b.length && b.length > 0) throw new EOFException("File ends before " + b.length + " bytes at " + filePointer);
+	}
+
+	public byte readByte() throws IOException{
+		byte[] b = new byte[1];
+		readFully(b);
+		return b[0];
+	}
+
+	/**
+	 * Gives the channel back to the file handle pool, or closes it
+	 */
+	@Override
+	public void close() throws IOException {
+		if(handle != null) handle.close();
+		else channel.close();
+	}
+}
@@ -0,0 +1,136 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.util.BitSet;
+
+/**
+* This class holds the values of one variable for a range of observations in a primitive array.
+*
+* 	byte variables          byte[]   getByteValues()
+* 	int and long variables  int[]    getIntValues()
+* 	float and double        double[] getDoubleValues()
+* 	str and strL variables  String[] getStringValues()
+*
+* Missing values are recorded in a bitmap.  The array element of a missing value holds the
+* raw STATA missing code and should be ignored.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaColumn {
+	private final String name;
+	private final int kind;
+	private final long start;
+	private final int size;
+	private final BitSet missing;
+	private byte[] byteValues;
+	private int[] intValues;
+	private double[] doubleValues;
+	private String[] stringValues;
+
+	/**
+	 * Creates an empty column
+	 * @param name variable name
+	 * @param kind DtaRowLayout kind of the variable
+	 * @param start observation number of the first value
+	 * @param size number of values
+	 */
+	public DtaColumn(String name, int kind, long start, int size){
+		this.name = name;
+		this.kind = kind;
+		this.start = start;
+		this.size = size;
+		this.missing = new BitSet(size);
+		switch(kind){
+			case DtaRowLayout.KIND_BYTE: byteValues = new byte[size]; break;
+			case DtaRowLayout.KIND_INT:
+			case DtaRowLayout.KIND_LONG: intValues = new int[size]; break;
+			case DtaRowLayout.KIND_FLOAT:
+			case DtaRowLayout.KIND_DOUBLE: doubleValues = new double[size]; break;
+			case DtaRowLayout.KIND_STRING:
+			case DtaRowLayout.KIND_STRL: stringValues = new String[size]; break;
+			default: throw new IllegalArgumentException("Variable " + name + " is of unknown type");
+		}
+	}
+
+	/**
+	 * Copies the value of the column of the observation the row view is positioned over
+	 * @param index index in this column
+	 * @param rowView
+	 * @param column index of the variable in the row view
+	 */
+	public void set(int index, DtaRowView rowView, int column){
+		switch(kind){
+			case DtaRowLayout.KIND_BYTE: byteValues[index] = (byte)rowView.getInt(column); break;
+			case DtaRowLayout.KIND_INT:
+			case DtaRowLayout.KIND_LONG: intValues[index] = rowView.getInt(column); break;
+			case DtaRowLayout.KIND_FLOAT:
+			case DtaRowLayout.KIND_DOUBLE: doubleValues[index] = rowView.getDouble(column); break;
+			default: stringValues[index] = rowView.getString(column); break;
+		}
+		if(rowView.isMissing(column)) missing.set(index);
+	}
+
+	/**
+	 * @param index
+	 * @return true if the value at index is a STATA missing value
+	 */
+	public boolean isMissing(int index){
+		return missing.get(index);
+	}
+
+	/**
+	 * Returns the value at index of a numeric column as a double
+	 * @param index
+	 * @return
+	 */
+	public double getDouble(int index){
+		if(byteValues != null) return byteValues[index];
+		if(intValues != null) return intValues[index];
+		if(doubleValues != null) return doubleValues[index];
+		throw new IllegalStateException("Variable " + name + " is not numeric");
+	}
+
+	public int getMissingCount(){
+		return missing.cardinality();
+	}
+
+	public BitSet getMissing() {
+		return missing;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public byte[] getByteValues() {
+		return byteValues;
+	}
+
+	public int[] getIntValues() {
+		return intValues;
+	}
+
+	public double[] getDoubleValues() {
+		return doubleValues;
+	}
+
+	public String[] getStringValues() {
+		return stringValues;
+	}
+}
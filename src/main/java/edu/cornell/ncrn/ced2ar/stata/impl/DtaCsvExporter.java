@@ -0,0 +1,285 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+import edu.cornell.ncrn.ced2ar.stata.StataCursor;
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+
+/**
+* This class exports the observations of a stata data file to a CSV file in parallel.
+* Observations are fixed width, so the observation range is split into chunks that are
+* exported independently on a ForkJoinPool.  Each chunk opens its own cursor, and with it
+* its own file channel and decoding state, and writes a chunk file.  Chunk files are
+* stitched together in observation order once all the chunks are written.
+*
+* USAGE
+* 	DtaCsvExporter exporter = new DtaCsvExporter(SR);
+* 	exporter.setParallelism(32);
+* 	exporter.export("C:\\java\\info\\Data\\STATA\\auto.csv");
+*
+* The first line of the CSV file holds the variable names.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaCsvExporter {
+	private static final Logger logger = Logger.getLogger(DtaCsvExporter.class);
+
+	public static final long DEFAULT_CHUNK_SIZE = 1000000;
+
+	private final StataReader stataReader;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private long chunkSize = DEFAULT_CHUNK_SIZE;
+	private String[] selectedVariables = new String[0];
+	private String filterExpression;
+
+	public DtaCsvExporter(StataReader stataReader){
+		this.stataReader = stataReader;
+	}
+
+	/**
+	 * Exports all the observations
+	 * @param csvFile
+	 * @throws IOException
+	 */
+	public void export(String csvFile) throws IOException{
+		export(csvFile, 1, stataReader.getDtaHeader().getNumberOfObservations());
+	}
+
+	/**
+	 * Exports the observations start to end (both inclusive)
+	 * @param csvFile
+	 * @param start Start of the observation Number
+	 * @param end End of the observation number.
+	 * @throws IOException
+	 */
+	public void export(String csvFile, long start, long end) throws IOException{
+		Path csvPath = Paths.get(csvFile).toAbsolutePath();
+		long first = Math.max(start, 1);
+		long last = Math.min(end, stataReader.getDtaHeader().getNumberOfObservations());
+		DtaFilter filter = compileFilter();
+
+		List<Callable<Path>> chunks = new ArrayList<Callable<Path>>();
+		for(long chunkStart = first; chunkStart <= last; chunkStart += chunkSize){
+			chunks.add(new ChunkExport(csvPath, chunkStart, Math.min(last, chunkStart + chunkSize - 1), filter));
+		}
+		logger.debug("Exporting observations " + first + " to " + last + " in " + chunks.size() + " chunk(s)");
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		List<Path> chunkFiles = new ArrayList<Path>();
+		Throwable failure = null;
+		try{
+			try{
+				for(Future<Path> future:pool.invokeAll(chunks)){
+					chunkFiles.add(future.get());
+				}
+				stitch(csvPath, chunkFiles);
+			}
+			catch(InterruptedException ex){
+				Thread.currentThread().interrupt();
+				throw new IOException("Export to " + csvFile + " was interrupted", ex);
+			}
+			catch(ExecutionException ex){
+				if(ex.getCause() instanceof UncheckedIOException) throw ((UncheckedIOException)ex.getCause()).getCause();
+				if(ex.getCause() instanceof IOException) throw (IOException)ex.getCause();
+				if(ex.getCause() instanceof RuntimeException) throw (RuntimeException)ex.getCause();
+				throw new IOException("Unable to export " + csvFile, ex.getCause());
+			}
+		}
+		catch(IOException | RuntimeException | Error ex){
+			failure = ex;
+			throw ex;
+		}
+		finally{
+			pool.shutdown();
+			deleteChunkFiles(chunks, failure);
+		}
+	}
+
+	/**
+	 * Compiles the filter expression once for all the chunks, so that an invalid expression fails
+	 * before any chunk is exported.  Filters of readers other than DtaReader are compiled by their cursors.
+	 * @return compiled filter, or null
+	 * @throws IllegalArgumentException if the expression is invalid or refers to unknown variables
+	 */
+	private DtaFilter compileFilter(){
+		if(filterExpression == null || !(stataReader instanceof DtaReader)) return null;
+		return DtaFilter.compile(filterExpression, (DtaReader)stataReader);
+	}
+
+	/**
+	 * Deletes the chunk files.  If the export failed, errors of the deletes are added to the failure as
+	 * suppressed exceptions so that they do not mask it.
+	 * @param chunks
+	 * @param failure exception thrown by the export, or null
+	 * @throws IOException the first error of the deletes, if the export did not fail
+	 */
+	private void deleteChunkFiles(List<Callable<Path>> chunks, Throwable failure) throws IOException{
+		IOException deleteFailure = null;
+		for(Callable<Path> chunk:chunks){
+			try{
+				Files.deleteIfExists(((ChunkExport)chunk).chunkFile);
+			}
+			catch(IOException ex){
+				if(failure != null) failure.addSuppressed(ex);
+				else if(deleteFailure == null) deleteFailure = ex;
+				else deleteFailure.addSuppressed(ex);
+			}
+		}
+		if(deleteFailure != null) throw deleteFailure;
+	}
+
+	/**
+	 * Writes the header line followed by the chunk files, in order, to the CSV file.
+	 * @param csvPath
+	 * @param chunkFiles
+	 * @throws IOException
+	 */
+	protected void stitch(Path csvPath, List<Path> chunkFiles) throws IOException{
+		try(FileChannel out = FileChannel.open(csvPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			out.write(StandardCharsets.UTF_8.encode(getHeaderLine()));
+			for(Path chunkFile:chunkFiles){
+				try(FileChannel in = FileChannel.open(chunkFile, StandardOpenOption.READ)){
+					long size = in.size();
+					long position = 0;
+					while(position < size){
+						position += in.transferTo(position, size - position, out);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return names of the exported variables in CSV format followed by a line break
+	 */
+	protected String getHeaderLine(){
+		StringBuilder SB = new StringBuilder();
+		if(selectedVariables.length == 0){
+			for(DtaVariable dtaVariable:stataReader.getDtaVariables()){
+				if(SB.length() > 0) SB.append(',');
+				SB.append(toCSV(dtaVariable.getRawName()));
+			}
+		}
+		else{
+			for(String variableName:selectedVariables){
+				if(SB.length() > 0) SB.append(',');
+				SB.append(toCSV(variableName));
+			}
+		}
+		return SB.append("\r\n").toString();
+	}
+
+	/**
+	 * Makes the value RFC 4180 compatible.
+	 * Values that contain commas, double quotes or line breaks are enclosed in double quotes
+	 * and the double quotes are doubled.
+	 * @param value
+	 * @return CSV compatible value
+	 */
+	protected static String toCSV(String value){
+		for(int i=0;i<value.length();i++){
+			char c = value.charAt(i);
+			if(c == ',' || c == '"' || c == '\r' || c == '\n'){
+				return "\"" + value.replace("\"", "\"\"") + "\"";
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Exports one chunk of observations to its own chunk file
+	 */
+	private class ChunkExport implements Callable<Path>{
+		private final long start;
+		private final long end;
+		private final Path chunkFile;
+		private final DtaFilter filter;
+
+		private ChunkExport(Path csvPath, long start, long end, DtaFilter filter){
+			this.start = start;
+			this.end = end;
+			this.filter = filter;
+			this.chunkFile = csvPath.resolveSibling(csvPath.getFileName() + "." + start + ".part");
+		}
+
+		@Override
+		public Path call() throws IOException {
+			try(StataCursor cursor = stataReader.openCursor(start, end);
+					Writer writer = Files.newBufferedWriter(chunkFile, StandardCharsets.UTF_8)){
+				cursor.select(selectedVariables);
+				if(filter != null && cursor instanceof DtaObservationCursor) ((DtaObservationCursor)cursor).where(filter);
+				else if(filterExpression != null) cursor.where(filterExpression);
+				while(cursor.hasNext()){
+					List<String> observation = cursor.next();
+					for(int i=0;i<observation.size();i++){
+						if(i > 0) writer.write(',');
+						writer.write(toCSV(observation.get(i)));
+					}
+					writer.write("\r\n");
+				}
+			}
+			return chunkFile;
+		}
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @param parallelism number of chunks exported at the same time
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public long getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @param chunkSize number of observations in a chunk
+	 */
+	public void setChunkSize(long chunkSize) {
+		if(chunkSize <= 0)
+			throw new IllegalArgumentException("Chunk size must be positive. Found " + chunkSize);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Limits the export to the selected variables, in the given order.
+	 * @param variableNames
+	 */
+	public void select(String... variableNames) {
+		this.selectedVariables = variableNames;
+	}
+
+	/**
+	 * Limits the export to the observations that satisfy the filter. See DtaFilter for the syntax.
+	 * @param filterExpression filter, or null to export all the observations
+	 */
+	public void where(String filterExpression) {
+		this.filterExpression = filterExpression;
+	}
+}
@@ -0,0 +1,101 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+/**
+* This class holds the distribution of the values of a numeric variable: a quantile sketch of the
+* valid values, the count of the missing values and, if bins were set for the variable, a histogram.
+*
+* USAGE
+* 	double median = dtaDistribution.getQuantile(0.5);
+* 	DtaHistogram histogram = dtaDistribution.getHistogram();
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaDistribution {
+	private final String name;
+	private final DtaQuantileSketch quantileSketch;
+	private final DtaHistogram histogram;
+	private long missing;
+
+	/**
+	 * @param name name of the variable
+	 * @param quantileSketch
+	 * @param histogram histogram, or null
+	 */
+	public DtaDistribution(String name, DtaQuantileSketch quantileSketch, DtaHistogram histogram){
+		this.name = name;
+		this.quantileSketch = quantileSketch;
+		this.histogram = histogram;
+	}
+
+	/**
+	 * Adds a valid value
+	 * @param value
+	 */
+	public void add(double value){
+		quantileSketch.add(value);
+		if(histogram != null) histogram.add(value);
+	}
+
+	public void addMissing(){
+		missing++;
+	}
+
+	/**
+	 * Adds the distribution of an other range of observations of the same variable
+	 * @param other
+	 */
+	public void merge(DtaDistribution other){
+		quantileSketch.merge(other.quantileSketch);
+		if(histogram != null) histogram.merge(other.histogram);
+		missing += other.missing;
+	}
+
+	/**
+	 * @param q between 0 and 1
+	 * @return approximate quantile of the valid values
+	 */
+	public double getQuantile(double q){
+		return quantileSketch.getQuantile(q);
+	}
+
+	/**
+	 * @return approximate median of the valid values
+	 */
+	public double getMedian(){
+		return quantileSketch.getMedian();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public DtaQuantileSketch getQuantileSketch() {
+		return quantileSketch;
+	}
+
+	/**
+	 * @return histogram, or null if no bins were set for the variable
+	 */
+	public DtaHistogram getHistogram() {
+		return histogram;
+	}
+
+	public long getValid() {
+		return quantileSketch.getCount();
+	}
+
+	public long getMissing() {
+		return missing;
+	}
+
+	@Override
+	public String toString() {
+		return "DtaDistribution [name=" + name + ", valid=" + getValid() + ", missing=" + missing + ", min=" + quantileSketch.getMin()
+				+ ", median=" + getMedian() + ", max=" + quantileSketch.getMax() + "]";
+	}
+}
@@ -0,0 +1,115 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+
+/**
+* This class computes the distributions of the numeric variables of a stata data file in one
+* parallel scan of the data section: approximate quantiles from a DtaQuantileSketch and, for the
+* variables bins are set for, a fixed bin DtaHistogram.
+* Each chunk of observations fills its own sketches, which are merged after the scan, so the
+* values are never sorted or held in memory.
+*
+* USAGE
+* 	DtaDistributionEngine engine = new DtaDistributionEngine(SR);
+* 	engine.setHistogram("income", 0, 250000, 50);
+* 	for(DtaDistribution distribution:engine.compute()){
+* 		double median = distribution.getMedian();
+* 	}
+*
+* Memory of a sketch is bounded by k; see DtaQuantileSketch.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaDistributionEngine extends DtaAggregationEngine<DtaDistribution[]> {
+	private int k = DtaQuantileSketch.DEFAULT_K;
+	private final HashMap<String,DtaHistogram> histograms = new HashMap<String,DtaHistogram>();
+
+	public DtaDistributionEngine(StataReader stataReader){
+		super(stataReader);
+	}
+
+	/**
+	 * Computes the distributions of all the observations
+	 * @return distributions of the variables, in the order of the selection
+	 * @throws IOException
+	 */
+	public List<DtaDistribution> compute() throws IOException{
+		return compute(1, stataReader.getDtaHeader().getNumberOfObservations());
+	}
+
+	/**
+	 * Computes the distributions of the observations start to end (both inclusive)
+	 * @param start Start of the observation Number
+	 * @param end End of the observation number.
+	 * @return distributions of the variables, in the order of the selection
+	 * @throws IOException
+	 */
+	public List<DtaDistribution> compute(long start, long end) throws IOException{
+		return Arrays.asList(aggregate(start, end));
+	}
+
+	@Override
+	protected boolean isAggregated(DtaVariable dtaVariable) {
+		int kind = DtaRowLayout.getKind(dtaVariable);
+		return kind != DtaRowLayout.KIND_STRING && kind != DtaRowLayout.KIND_STRL && kind != DtaRowLayout.KIND_UNKNOWN;
+	}
+
+	@Override
+	protected DtaDistribution[] newAggregate(DtaRowLayout rowLayout, List<DtaVariable> dtaVariables) {
+		DtaDistribution[] distributions = new DtaDistribution[dtaVariables.size()];
+		for(int i=0;i<distributions.length;i++){
+			DtaHistogram histogram = histograms.get(dtaVariables.get(i).getRawName());
+			distributions[i] = new DtaDistribution(dtaVariables.get(i).getName(), new DtaQuantileSketch(k), 
+					histogram == null ? null : histogram.newEmptyHistogram());
+		}
+		return distributions;
+	}
+
+	@Override
+	protected void accumulate(DtaDistribution[] distributions, DtaRowView rowView) {
+		for(int i=0;i<distributions.length;i++){
+			if(rowView.isMissing(i)) distributions[i].addMissing();
+			else distributions[i].add(rowView.getDouble(i));
+		}
+	}
+
+	@Override
+	protected DtaDistribution[] merge(DtaDistribution[] distributions, DtaDistribution[] next) {
+		for(int i=0;i<distributions.length;i++){
+			distributions[i].merge(next[i]);
+		}
+		return distributions;
+	}
+
+	/**
+	 * Sets the bins of the histogram of a variable
+	 * @param variableName
+	 * @param lower lower bound of the first bin
+	 * @param upper upper bound of the last bin
+	 * @param numberOfBins
+	 */
+	public void setHistogram(String variableName, double lower, double upper, int numberOfBins){
+		histograms.put(variableName, new DtaHistogram(lower, upper, numberOfBins));
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @param k memory bound of the quantile sketches; a sketch retains about 3k values
+	 */
+	public void setK(int k) {
+		this.k = k;
+	}
+}
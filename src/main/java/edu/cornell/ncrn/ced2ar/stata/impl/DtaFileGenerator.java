@@ -0,0 +1,707 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+* This class writes synthetic stata data files of formats 113, 114, 115, 117 and 118 in either byte order.
+* Files have the number of variables and observations asked for.  Types of the variables cycle through
+* the type mix; values are a deterministic function of the seed, the variable and the observation, so
+* the same settings always write the same file.
+*
+* 	type mix      byte, int, long, float, double, str, strN (str of width N) and strL
+* 	str           width of each str variable is between minStringWidth and maxStringWidth
+* 	strL          contents of 0 to 2 * strLLength characters; formats 117 and 118 only
+* 	missing       missingValueDensity of the numeric values are missing; 1 in 5 of them is .a to .z
+* 	              missingValueDensity of the string values are empty
+* 	value labels  numberOfValueLabels labels per table; byte, int and long variables are labeled
+* 	              by numberOfValueLabelTables tables in turn and take the values 0 to numberOfValueLabels-1
+*
+* Observations are encoded into a reused buffer and written through a file channel; nothing is kept per
+* observation, so the size of the file is limited only by the disk.  The <map> of formats 117 and 118
+* is written last, when the offsets of the sections that follow the data are known.
+*
+* USAGE
+* 	DtaFileGenerator generator = new DtaFileGenerator();
+* 	generator.setDtaFileFormat(118);
+* 	generator.setByteOrder("MSF");
+* 	generator.setNumberOfVariables(200);
+* 	generator.setNumberOfObservations(100000000L);
+* 	generator.setTypeMix("byte", "int", "long", "double", "str", "strL");
+* 	generator.setMissingValueDensity(0.05);
+* 	generator.generate("/data/synthetic.dta");
+*
+* 	java -cp ced2arstatareader.jar edu.cornell.ncrn.ced2ar.stata.impl.DtaFileGenerator
+* 		-format 118 -byteorder MSF -variables 200 -observations 100000000 -types byte,int,long,double,str,strL
+* 		-missing 0.05 /data/synthetic.dta
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaFileGenerator {
+	private static final Logger logger = Logger.getLogger(DtaFileGenerator.class);
+
+	public static final int BUFFER_SIZE = 4*1024*1024;
+	private static final int BYTE = 65530;
+	private static final int INT = 65529;
+	private static final int LONG = 65528;
+	private static final int FLOAT = 65527;
+	private static final int DOUBLE = 65526;
+	private static final int STRL = 32768;
+	private static final String TIMESTAMP = "01 Jan 2015 10:00";
+	private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel",
+			"india", "juliett", "kilo", "lima", "mike", "november", "oscar", "papa"};
+
+	private int dtaFileFormat = 118;
+	private String byteOrder = "LSF";
+	private int numberOfVariables = 10;
+	private long numberOfObservations = 1000;
+	private String[] typeMix = {"byte", "int", "long", "float", "double", "str"};
+	private int minStringWidth = 1;
+	private int maxStringWidth = 32;
+	private int strLLength = 100;
+	private int numberOfValueLabels;
+	private int numberOfValueLabelTables = 1;
+	private double missingValueDensity;
+	private long seed;
+	private String dataLabel = "synthetic data";
+
+	// state of the file being generated
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private int[] types;
+	private int[] valueLabelTables;
+	private long missingThreshold;
+
+	/**
+	 * Writes the data file
+	 * @param dtaFile path of the data file; an existing file is replaced
+	 * @throws IOException
+	 */
+	public void generate(String dtaFile) throws IOException{
+		types = getVariableTypes();
+		valueLabelTables = getValueLabelTables();
+		missingThreshold = (long)(missingValueDensity * (1L << 32));
+		int observationLength = 0;
+		for(int type:types) observationLength += getWidth(type);
+		long start = System.currentTimeMillis();
+		buffer = ByteBuffer.allocate(Math.max(BUFFER_SIZE, observationLength)).order(getJavaByteOrder());
+		try(FileChannel fileChannel = FileChannel.open(Paths.get(dtaFile), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+			channel = fileChannel;
+			if(dtaFileFormat < 117) write113();
+			else write117();
+			flush();
+			logger.info("Generated " + dtaFile + ": " + numberOfVariables + " variables, " + numberOfObservations
+					+ " observations, " + channel.size() + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+		}
+		finally{
+			channel = null;
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Formats 113, 114 and 115
+	 * 	header, descriptors, variable labels, expansion fields, data, value labels
+	 * @throws IOException
+	 */
+	private void write113() throws IOException{
+		int formatLength = dtaFileFormat == 113 ? 12 : 49;
+		buffer.put((byte)dtaFileFormat).put((byte)("LSF".equals(byteOrder) ? 2 : 1)).put((byte)1).put((byte)0);
+		buffer.putShort((short)numberOfVariables).putInt((int)numberOfObservations);
+		putString(dataLabel, 81);
+		putString(TIMESTAMP, 18);
+		for(int type:types){
+			buffer.put((byte)(type <= 2045 ? type : 251 + (BYTE - type)));
+		}
+		for(int i=0;i<numberOfVariables;i++) putString(getVariableName(i), 33);
+		ensureCapacity(2 * (numberOfVariables + 1));
+		buffer.put(new byte[2 * (numberOfVariables + 1)]);
+		for(int i=0;i<numberOfVariables;i++) putString(getVariableFormat(i), formatLength);
+		for(int i=0;i<numberOfVariables;i++) putString(getValueLabelName(i), 33);
+		for(int i=0;i<numberOfVariables;i++) putString(getVariableLabel(i), 81);
+		ensureCapacity(5);
+		buffer.put(new byte[5]);
+		writeData();
+		for(int table=0;table<getNumberOfValueLabelTablesWritten();table++){
+			writeValueLabelTable(table, 33);
+		}
+	}
+
+	/**
+	 * Formats 117 and 118
+	 * 	<stata_dta><header/><map/><variable_types/><varnames/><sortlist/><formats/><value_label_names/>
+	 * 	<variable_labels/><characteristics/><data/><strls/><value_labels/></stata_dta>
+	 * @throws IOException
+	 */
+	private void write117() throws IOException{
+		boolean is118 = dtaFileFormat >= 118;
+		int nameLength = is118 ? 129 : 33;
+		int formatLength = is118 ? 57 : 49;
+		int labelLength = is118 ? 321 : 81;
+		long[] map = new long[14];
+		putTag("<stata_dta><header><release>" + dtaFileFormat + "</release><byteorder>" + byteOrder + "</byteorder><K>");
+		buffer.putShort((short)numberOfVariables);
+		putTag("</K><N>");
+		if(is118) buffer.putLong(numberOfObservations);
+		else buffer.putInt((int)numberOfObservations);
+		putTag("</N><label>");
+		byte[] label = dataLabel.getBytes(is118 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+		if(is118) buffer.putShort((short)label.length);
+		else buffer.put((byte)label.length);
+		buffer.put(label);
+		putTag("</label><timestamp>");
+		buffer.put((byte)TIMESTAMP.length());
+		putTag(TIMESTAMP + "</timestamp></header>");
+		map[1] = getPosition();
+		putTag("<map>");
+		ensureCapacity(map.length * 8);
+		buffer.put(new byte[map.length * 8]);
+		putTag("</map>");
+		map[2] = getPosition();
+		putTag("<variable_types>");
+		for(int type:types){
+			ensureCapacity(2);
+			buffer.putShort((short)type);
+		}
+		putTag("</variable_types>");
+		map[3] = getPosition();
+		putTag("<varnames>");
+		for(int i=0;i<numberOfVariables;i++) putString(getVariableName(i), nameLength);
+		putTag("</varnames>");
+		map[4] = getPosition();
+		putTag("<sortlist>");
+		ensureCapacity(2 * (numberOfVariables + 1));
+		buffer.put(new byte[2 * (numberOfVariables + 1)]);
+		putTag("</sortlist>");
+		map[5] = getPosition();
+		putTag("<formats>");
+		for(int i=0;i<numberOfVariables;i++) putString(getVariableFormat(i), formatLength);
+		putTag("</formats>");
+		map[6] = getPosition();
+		putTag("<value_label_names>");
+		for(int i=0;i<numberOfVariables;i++) putString(getValueLabelName(i), nameLength);
+		putTag("</value_label_names>");
+		map[7] = getPosition();
+		putTag("<variable_labels>");
+		for(int i=0;i<numberOfVariables;i++) putString(getVariableLabel(i), labelLength);
+		putTag("</variable_labels>");
+		map[8] = getPosition();
+		putTag("<characteristics></characteristics>");
+		map[9] = getPosition();
+		putTag("<data>");
+		writeData();
+		putTag("</data>");
+		map[10] = getPosition();
+		putTag("<strls>");
+		writeStrLs();
+		putTag("</strls>");
+		map[11] = getPosition();
+		putTag("<value_labels>");
+		for(int table=0;table<getNumberOfValueLabelTablesWritten();table++){
+			putTag("<lbl>");
+			writeValueLabelTable(table, nameLength);
+			putTag("</lbl>");
+		}
+		putTag("</value_labels>");
+		map[12] = getPosition();
+		putTag("</stata_dta>");
+		map[13] = getPosition();
+		flush();
+
+		ByteBuffer mapBuffer = ByteBuffer.allocate(map.length * 8).order(getJavaByteOrder());
+		for(long offset:map) mapBuffer.putLong(offset);
+		mapBuffer.flip();
+		long position = map[1] + "<map>".length();
+		while(mapBuffer.hasRemaining()){
+			position += channel.write(mapBuffer, position);
+		}
+	}
+
+	/**
+	 * Writes the observations of the data section
+	 * @throws IOException
+	 */
+	private void writeData() throws IOException{
+		int observationLength = 0;
+		for(int type:types) observationLength += getWidth(type);
+		for(long j=1;j<=numberOfObservations;j++){
+			ensureCapacity(observationLength);
+			for(int i=0;i<types.length;i++){
+				putValue(i, j);
+			}
+		}
+	}
+
+	private void putValue(int i, long j){
+		long random = getRandom(i, j);
+		boolean missing = (random & 0xFFFFFFFFL) < missingThreshold;
+		int missingIndex = missing && ((random >>> 32) % 5) == 0 ? 1 + (int)((random >>> 40) % 26) : 0;
+		long value = random >>> 32;
+		int labels = valueLabelTables[i] < 0 ? 0 : numberOfValueLabels;
+		switch(types[i]){
+			case BYTE:
+				if(missing) buffer.put((byte)(101 + missingIndex));
+				else buffer.put((byte)(labels > 0 ? value % Math.min(labels, 101) : value % 201 - 100));
+				break;
+			case INT:
+				if(missing) buffer.putShort((short)(32741 + missingIndex));
+				else buffer.putShort((short)(labels > 0 ? value % Math.min(labels, 32741) : value % 65481 - 32740));
+				break;
+			case LONG:
+				if(missing) buffer.putInt(2147483621 + missingIndex);
+				else buffer.putInt((int)(labels > 0 ? value % labels : value % 2000000000L - 1000000000L));
+				break;
+			case FLOAT:
+				if(missing) buffer.putFloat(Float.intBitsToFloat(0x7f000000 + (missingIndex << 11)));
+				else buffer.putFloat((value % 2000000 - 1000000) / 16f);
+				break;
+			case DOUBLE:
+				if(missing) buffer.putDouble(Double.longBitsToDouble(0x7fe0000000000000L + ((long)missingIndex << 40)));
+				else buffer.putDouble((value - (1L << 31)) / 1024.0);
+				break;
+			case STRL:
+				long v = missing ? 0 : i + 1;
+				long o = missing ? 0 : j;
+				if(dtaFileFormat < 118){
+					buffer.putInt((int)v).putInt((int)o);
+				}
+				else if(buffer.order() == ByteOrder.LITTLE_ENDIAN){
+					buffer.putLong((o << 16) | v);
+				}
+				else{
+					buffer.putLong((v << 48) | o);
+				}
+				break;
+			default:
+				int width = types[i];
+				int length = missing ? 0 : 1 + (int)(value % width);
+				putText(random, 0, length);
+				for(int k=length;k<width;k++) buffer.put((byte)0);
+		}
+	}
+
+	/**
+	 * Writes a GSO block for each non empty strL cell, in the order of the cells in the data section
+	 * 	"GSO" v o t len contents
+	 * @throws IOException
+	 */
+	private void writeStrLs() throws IOException{
+		boolean hasStrLs = false;
+		for(int type:types) hasStrLs |= type == STRL;
+		if(!hasStrLs) return;
+		for(long j=1;j<=numberOfObservations;j++){
+			for(int i=0;i<types.length;i++){
+				if(types[i] != STRL) continue;
+				long random = getRandom(i, j);
+				if((random & 0xFFFFFFFFL) < missingThreshold) continue;
+				int length = (int)((random >>> 32) % (2L * strLLength + 1));
+				ensureCapacity(3 + 4 + 8 + 1 + 4);
+				putTag("GSO");
+				buffer.putInt(i + 1);
+				if(dtaFileFormat < 118) buffer.putInt((int)j);
+				else buffer.putLong(j);
+				buffer.put((byte)DtaStrLIndex.GSO_TYPE_ASCII).putInt(length + 1);
+				int written = 0;
+				while(written < length){
+					ensureCapacity(1);
+					int end = written + Math.min(length - written, buffer.remaining());
+					putText(random, written, end);
+					written = end;
+				}
+				ensureCapacity(1);
+				buffer.put((byte)0);
+			}
+		}
+	}
+
+	/**
+	 * Puts the characters start to end (exclusive) of an ASCII text: a word, a number and filler letters.
+	 * A character depends only on the random bits and its position, so a text can be put in parts.
+	 * @param random
+	 * @param start
+	 * @param end
+	 */
+	private void putText(long random, int start, int end){
+		String text = WORDS[(int)(random & 15)] + " " + ((random >>> 4) % 1000);
+		for(int k=start;k<end;k++){
+			buffer.put((byte)(k < text.length() ? text.charAt(k) : 'a' + k % 26));
+		}
+	}
+
+	/**
+	 * Value label table t labels the values 0 to numberOfValueLabels-1
+	 * 	len labname padding n txtlen off[] val[] txt[]
+	 * @param table
+	 * @param nameLength
+	 * @throws IOException
+	 */
+	private void writeValueLabelTable(int table, int nameLength) throws IOException{
+		int n = numberOfValueLabels;
+		byte[][] labels = new byte[n][];
+		int textLength = 0;
+		for(int value=0;value<n;value++){
+			labels[value] = ("label " + value + " of " + getValueLabelTableName(table)).getBytes(StandardCharsets.US_ASCII);
+			textLength += labels[value].length + 1;
+		}
+		ensureCapacity(4 + nameLength + 3 + 8);
+		buffer.putInt(8 + 8 * n + textLength);
+		putString(getValueLabelTableName(table), nameLength);
+		buffer.put(new byte[3]).putInt(n).putInt(textLength);
+		int offset = 0;
+		for(int value=0;value<n;value++){
+			ensureCapacity(4);
+			buffer.putInt(offset);
+			offset += labels[value].length + 1;
+		}
+		for(int value=0;value<n;value++){
+			ensureCapacity(4);
+			buffer.putInt(value);
+		}
+		for(int value=0;value<n;value++){
+			ensureCapacity(labels[value].length + 1);
+			buffer.put(labels[value]).put((byte)0);
+		}
+	}
+
+	/**
+	 * Cycles the type mix through the variables and validates the settings
+	 * @return format 117 type codes of the variables
+	 */
+	private int[] getVariableTypes(){
+		if(dtaFileFormat < 113 || dtaFileFormat > 118 || dtaFileFormat == 116)
+			throw new IllegalArgumentException("Unsupported stata format " + dtaFileFormat + ". Formats 113, 114, 115, 117 and 118 are supported");
+		if(!"LSF".equals(byteOrder) && !"MSF".equals(byteOrder))
+			throw new IllegalArgumentException("Byte order must be LSF or MSF. Found " + byteOrder);
+		if(numberOfVariables < 1 || numberOfVariables > 32767)
+			throw new IllegalArgumentException("Number of variables must be between 1 and 32767. Found " + numberOfVariables);
+		if(numberOfObservations < 0 || (dtaFileFormat < 118 && numberOfObservations > Integer.MAX_VALUE))
+			throw new IllegalArgumentException("Number of observations out of range for format " + dtaFileFormat + ": " + numberOfObservations);
+		if(typeMix.length == 0)
+			throw new IllegalArgumentException("Type mix is empty");
+		int maxWidth = dtaFileFormat < 117 ? 244 : 2045;
+		if(minStringWidth < 1 || maxStringWidth < minStringWidth || maxStringWidth > maxWidth)
+			throw new IllegalArgumentException("String widths must be between 1 and " + maxWidth + ". Found " + minStringWidth + " to " + maxStringWidth);
+		int[] variableTypes = new int[numberOfVariables];
+		for(int i=0;i<numberOfVariables;i++){
+			String type = typeMix[i % typeMix.length].trim();
+			if("byte".equals(type)) variableTypes[i] = BYTE;
+			else if("int".equals(type)) variableTypes[i] = INT;
+			else if("long".equals(type)) variableTypes[i] = LONG;
+			else if("float".equals(type)) variableTypes[i] = FLOAT;
+			else if("double".equals(type)) variableTypes[i] = DOUBLE;
+			else if("strL".equals(type)){
+				if(dtaFileFormat < 117) throw new IllegalArgumentException("strL variables need format 117 or 118");
+				variableTypes[i] = STRL;
+			}
+			else if("str".equals(type)){
+				variableTypes[i] = minStringWidth + (int)(mix(seed ^ i) % (maxStringWidth - minStringWidth + 1));
+			}
+			else if(type.matches("str[0-9]+")){
+				variableTypes[i] = Integer.parseInt(type.substring(3));
+				if(variableTypes[i] < 1 || variableTypes[i] > maxWidth)
+					throw new IllegalArgumentException("Width of " + type + " must be between 1 and " + maxWidth);
+			}
+			else throw new IllegalArgumentException("Unknown type " + type + " in the type mix");
+		}
+		return variableTypes;
+	}
+
+	/**
+	 * @return value label table of each variable, or -1 for variables without value labels
+	 */
+	private int[] getValueLabelTables(){
+		if(numberOfValueLabels < 0 || numberOfValueLabelTables < 1)
+			throw new IllegalArgumentException("Number of value labels and tables out of range: " + numberOfValueLabels + ", " + numberOfValueLabelTables);
+		int[] tables = new int[numberOfVariables];
+		Arrays.fill(tables, -1);
+		if(numberOfValueLabels == 0) return tables;
+		int labeled = 0;
+		for(int i=0;i<numberOfVariables;i++){
+			if(types[i] == BYTE || types[i] == INT || types[i] == LONG){
+				tables[i] = labeled++ % numberOfValueLabelTables;
+			}
+		}
+		return tables;
+	}
+
+	private int getNumberOfValueLabelTablesWritten(){
+		int count = 0;
+		for(int table:valueLabelTables) count = Math.max(count, table + 1);
+		return count;
+	}
+
+	private String getVariableName(int i){
+		return "v" + (i + 1);
+	}
+
+	private String getVariableLabel(int i){
+		return "synthetic variable " + (i + 1);
+	}
+
+	private String getVariableFormat(int i){
+		switch(types[i]){
+			case BYTE:
+			case INT: return "%8.0g";
+			case LONG: return "%12.0g";
+			case FLOAT: return "%9.0g";
+			case DOUBLE: return "%10.0g";
+			case STRL: return "%9s";
+			default: return "%" + types[i] + "s";
+		}
+	}
+
+	private String getValueLabelName(int i){
+		return valueLabelTables[i] < 0 ? "" : getValueLabelTableName(valueLabelTables[i]);
+	}
+
+	private String getValueLabelTableName(int table){
+		return "labels" + (table + 1);
+	}
+
+	private int getWidth(int type){
+		switch(type){
+			case BYTE: return 1;
+			case INT: return 2;
+			case LONG:
+			case FLOAT: return 4;
+			case DOUBLE:
+			case STRL: return 8;
+			default: return type;
+		}
+	}
+
+	private ByteOrder getJavaByteOrder(){
+		return "LSF".equals(byteOrder) ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+	}
+
+	/**
+	 * @param i variable
+	 * @param j observation
+	 * @return 64 random bits of the value of variable i of observation j
+	 */
+	private long getRandom(int i, long j){
+		return mix(seed + j * 0x9E3779B97F4A7C15L + i * 0xC2B2AE3D27D4EB4FL);
+	}
+
+	private static long mix(long h){
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h & Long.MAX_VALUE;
+	}
+
+	private void putTag(String tag) throws IOException{
+		ensureCapacity(tag.length());
+		for(int k=0;k<tag.length();k++){
+			buffer.put((byte)tag.charAt(k));
+		}
+	}
+
+	private void putString(String value, int length) throws IOException{
+		ensureCapacity(length);
+		byte[] b = value.getBytes(dtaFileFormat >= 118 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+		int n = Math.min(b.length, length - 1);
+		buffer.put(b, 0, n);
+		for(int k=n;k<length;k++) buffer.put((byte)0);
+	}
+
+	/**
+	 * @return file position of the next byte put into the buffer
+	 * @throws IOException
+	 */
+	private long getPosition() throws IOException{
+		return channel.position() + buffer.position();
+	}
+
+	private void ensureCapacity(int length) throws IOException{
+		if(buffer.remaining() < length) flush();
+	}
+
+	private void flush() throws IOException{
+		buffer.flip();
+		while(buffer.hasRemaining()){
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	public int getDtaFileFormat() {
+		return dtaFileFormat;
+	}
+
+	/**
+	 * @param dtaFileFormat 113, 114, 115, 117 or 118
+	 */
+	public void setDtaFileFormat(int dtaFileFormat) {
+		this.dtaFileFormat = dtaFileFormat;
+	}
+
+	public String getByteOrder() {
+		return byteOrder;
+	}
+
+	/**
+	 * @param byteOrder LSF (little endian) or MSF (big endian)
+	 */
+	public void setByteOrder(String byteOrder) {
+		this.byteOrder = byteOrder;
+	}
+
+	public int getNumberOfVariables() {
+		return numberOfVariables;
+	}
+
+	public void setNumberOfVariables(int numberOfVariables) {
+		this.numberOfVariables = numberOfVariables;
+	}
+
+	public long getNumberOfObservations() {
+		return numberOfObservations;
+	}
+
+	public void setNumberOfObservations(long numberOfObservations) {
+		this.numberOfObservations = numberOfObservations;
+	}
+
+	public String[] getTypeMix() {
+		return typeMix;
+	}
+
+	/**
+	 * Sets the types of the variables.  Variable i has the type typeMix[i % typeMix.length];
+	 * repeat a type to give it more weight.
+	 * @param typeMix byte, int, long, float, double, str, strN or strL
+	 */
+	public void setTypeMix(String... typeMix) {
+		this.typeMix = typeMix;
+	}
+
+	public int getMinStringWidth() {
+		return minStringWidth;
+	}
+
+	/**
+	 * @param minStringWidth minimum width of the str variables of the type mix
+	 */
+	public void setMinStringWidth(int minStringWidth) {
+		this.minStringWidth = minStringWidth;
+	}
+
+	public int getMaxStringWidth() {
+		return maxStringWidth;
+	}
+
+	/**
+	 * @param maxStringWidth maximum width of the str variables of the type mix; at most 244 before format 117
+	 */
+	public void setMaxStringWidth(int maxStringWidth) {
+		this.maxStringWidth = maxStringWidth;
+	}
+
+	public int getStrLLength() {
+		return strLLength;
+	}
+
+	/**
+	 * @param strLLength mean length of the contents of the strLs
+	 */
+	public void setStrLLength(int strLLength) {
+		this.strLLength = strLLength;
+	}
+
+	public int getNumberOfValueLabels() {
+		return numberOfValueLabels;
+	}
+
+	/**
+	 * @param numberOfValueLabels labels per value label table; 0 writes no value labels
+	 */
+	public void setNumberOfValueLabels(int numberOfValueLabels) {
+		this.numberOfValueLabels = numberOfValueLabels;
+	}
+
+	public int getNumberOfValueLabelTables() {
+		return numberOfValueLabelTables;
+	}
+
+	public void setNumberOfValueLabelTables(int numberOfValueLabelTables) {
+		this.numberOfValueLabelTables = numberOfValueLabelTables;
+	}
+
+	public double getMissingValueDensity() {
+		return missingValueDensity;
+	}
+
+	/**
+	 * @param missingValueDensity fraction between 0 and 1 of the values that are missing
+	 */
+	public void setMissingValueDensity(double missingValueDensity) {
+		this.missingValueDensity = missingValueDensity;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public String getDataLabel() {
+		return dataLabel;
+	}
+
+	public void setDataLabel(String dataLabel) {
+		this.dataLabel = dataLabel;
+	}
+
+	public static void main(String args[]) throws Exception{
+		DtaFileGenerator generator = new DtaFileGenerator();
+		String dtaFile = null;
+		for(int i=0;i<args.length;i++){
+			String option = args[i];
+			if(!option.startsWith("-")){
+				dtaFile = option;
+				continue;
+			}
+			if(i + 1 == args.length) throw new IllegalArgumentException("Missing value of " + option);
+			String value = args[++i];
+			if("-format".equals(option)) generator.setDtaFileFormat(Integer.parseInt(value));
+			else if("-byteorder".equals(option)) generator.setByteOrder(value);
+			else if("-variables".equals(option)) generator.setNumberOfVariables(Integer.parseInt(value));
+			else if("-observations".equals(option)) generator.setNumberOfObservations(Long.parseLong(value));
+			else if("-types".equals(option)) generator.setTypeMix(value.split(","));
+			else if("-minwidth".equals(option)) generator.setMinStringWidth(Integer.parseInt(value));
+			else if("-maxwidth".equals(option)) generator.setMaxStringWidth(Integer.parseInt(value));
+			else if("-strllength".equals(option)) generator.setStrLLength(Integer.parseInt(value));
+			else if("-labels".equals(option)) generator.setNumberOfValueLabels(Integer.parseInt(value));
+			else if("-labeltables".equals(option)) generator.setNumberOfValueLabelTables(Integer.parseInt(value));
+			else if("-missing".equals(option)) generator.setMissingValueDensity(Double.parseDouble(value));
+			else if("-seed".equals(option)) generator.setSeed(Long.parseLong(value));
+			else throw new IllegalArgumentException("Unknown option " + option);
+		}
+		if(dtaFile == null){
+			System.err.println("Usage: DtaFileGenerator [-format 113|114|115|117|118] [-byteorder LSF|MSF] [-variables n] [-observations n]"
+					+ " [-types byte,int,long,float,double,str,strN,strL] [-minwidth n] [-maxwidth n] [-strllength n]"
+					+ " [-labels n] [-labeltables n] [-missing fraction] [-seed n] file");
+			return;
+		}
+		generator.generate(dtaFile);
+	}
+}
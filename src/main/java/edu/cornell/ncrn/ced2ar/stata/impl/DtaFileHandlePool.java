@@ -0,0 +1,405 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+* This class keeps read only channels of data files open so that they can be shared by readers.
+* Channels are keyed by the absolute path of the file and reference counted: each acquire returns
+* a handle that must be closed, and a channel that is not held by any handle stays open for the
+* idle timeout so that the next reader of the file does not open it again.
+* A channel is reused only while the file has the file key, size and last modified time it had when
+* the channel was opened.  A file that is rewritten or replaced is opened again; handles of the old
+* channel keep reading the old file and the old channel is closed on its last release.
+*
+* 	acquire      returns a handle of the open channel of the file, opening the file if needed
+* 	close        of the handle releases the channel; the last release starts the idle timeout
+* 	idle         channels are closed by a daemon thread after the idle timeout
+* 	limit        at most maxOpenHandles files are open; the least recently used idle channel is closed
+* 	             to open another file, and acquire waits for a release when all the channels are held.
+* 	             The shared pool and pools created with NO_LIMIT have no limit.
+*
+* Cursors and readers in POSITIONAL_READ mode hold their handle until they are closed, so a limit must
+* leave room for the cursors and readers open at the same time.
+*
+* Only positional reads may be made on the channels; the position of a shared channel is meaningless.
+* A channel closed by the interrupt of a thread reading from it is opened again by the next getChannel.
+*
+* Readers created by StataReaderFactory use the shared pool unless another pool, or null, is set on the
+* factory: meta data, observations, blocks of cursors, strLs and value label tables are read through it.
+*
+* USAGE
+* 	try(DtaFileHandlePool.Handle handle = DtaFileHandlePool.getSharedPool().acquire(dataFile)){
+* 		handle.getChannel().read(buffer, position);
+* 	}
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaFileHandlePool implements Closeable {
+	private static final Logger logger = Logger.getLogger(DtaFileHandlePool.class);
+
+	public static final int NO_LIMIT = Integer.MAX_VALUE;
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60*1000;
+	public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 30*1000;
+
+	private static final DtaFileHandlePool sharedPool = new DtaFileHandlePool();
+
+	private final int maxOpenHandles;
+	private final long idleTimeoutMillis;
+	private long acquireTimeoutMillis = DEFAULT_ACQUIRE_TIMEOUT_MILLIS;
+	/** channels in least recently used order */
+	private final LinkedHashMap<Path,Entry> entries = new LinkedHashMap<Path,Entry>(16, 0.75f, true);
+	private ScheduledExecutorService sweeper;
+	private long opened;
+	private long reused;
+	private boolean closed;
+
+	/**
+	 * Creates a pool without a limit on the number of open files
+	 */
+	public DtaFileHandlePool(){
+		this(NO_LIMIT, DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param maxOpenHandles maximum number of files open at the same time, or NO_LIMIT.  Held handles,
+	 * 			including the handles of open cursors and POSITIONAL_READ readers, count against the limit.
+	 * @param idleTimeoutMillis time a channel that is not held stays open. 0 closes the channel on its last release.
+	 */
+	public DtaFileHandlePool(int maxOpenHandles, long idleTimeoutMillis){
+		if(maxOpenHandles <= 0)
+			throw new IllegalArgumentException("Maximum number of open handles must be positive. Found " + maxOpenHandles);
+		if(idleTimeoutMillis < 0)
+			throw new IllegalArgumentException("Idle timeout can not be negative. Found " + idleTimeoutMillis);
+		this.maxOpenHandles = maxOpenHandles;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	/**
+	 * @return pool, without a limit on the number of open files, that can be shared by all the readers of the process
+	 */
+	public static DtaFileHandlePool getSharedPool(){
+		return sharedPool;
+	}
+
+	/**
+	 * Returns a handle of the open channel of the file.  The file is opened if it is not already open,
+	 * or if it has been rewritten or replaced since its channel was opened.
+	 * Waits up to the acquire timeout for a release when maxOpenHandles files are open and held.
+	 * The slot of the file is reserved under the lock of the pool and the file is opened outside it,
+	 * so a slow open does not hold up the acquires and releases of other files.  Acquires of a file
+	 * that is being opened wait for the open.
+	 * @param dataFile
+	 * @return handle that must be closed
+	 * @throws IOException if the file can not be opened or no channel is released in time
+	 */
+	public Handle acquire(String dataFile) throws IOException{
+		Path path = Paths.get(dataFile).toAbsolutePath().normalize();
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		Entry entry = reserve(path, attributes, dataFile);
+		if(entry.channel != null) return new Handle(entry);
+		FileChannel channel;
+		try{
+			channel = FileChannel.open(path, StandardOpenOption.READ);
+		}
+		catch(IOException | RuntimeException ex){
+			synchronized(this){
+				if(entries.get(path) == entry) entries.remove(path);
+				notifyAll();
+			}
+			throw ex;
+		}
+		synchronized(this){
+			entry.channel = channel;
+			opened++;
+			notifyAll();
+			if(closed){
+				entry.references--;
+				remove(entry);
+				throw new IOException("File handle pool is closed");
+			}
+			startSweeper();
+		}
+		return new Handle(entry);
+	}
+
+	/**
+	 * Adds a reference to the open channel of the file, or reserves a slot for the file if it is not open.
+	 * @param path
+	 * @param attributes current attributes of the file
+	 * @param dataFile
+	 * @return entry of the open channel, or a new entry without a channel that the caller must open
+	 * @throws IOException if no slot is released in time
+	 */
+	private synchronized Entry reserve(Path path, BasicFileAttributes attributes, String dataFile) throws IOException{
+		long deadline = System.currentTimeMillis() + acquireTimeoutMillis;
+		while(true){
+			if(closed) throw new IOException("File handle pool is closed");
+			Entry entry = entries.get(path);
+			if(entry != null && entry.channel != null){
+				if(entry.isSameFile(attributes)){
+					entry.references++;
+					reused++;
+					return entry;
+				}
+				logger.debug(path + " has changed since it was opened");
+				entries.remove(path);
+				if(entry.references == 0) closeChannel(entry);
+				entry = null;
+			}
+			if(entry == null && (entries.size() < maxOpenHandles || closeLeastRecentlyUsedIdle())){
+				entry = new Entry(path, attributes);
+				entry.references++;
+				entries.put(path, entry);
+				return entry;
+			}
+			long wait = deadline - System.currentTimeMillis();
+			if(wait <= 0){
+				if(entry != null) throw new IOException("Timed out waiting for " + dataFile + " to be opened");
+				throw new IOException("Unable to open " + dataFile + ". All " + maxOpenHandles + " file handles are in use");
+			}
+			try{
+				wait(wait);
+			}
+			catch(InterruptedException ex){
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for a file handle of " + dataFile);
+			}
+		}
+	}
+
+	/**
+	 * Releases one reference of the channel.  Channel is closed on the last release if there is no idle timeout.
+	 * @param entry
+	 */
+	private synchronized void release(Entry entry){
+		entry.references--;
+		entry.lastReleased = System.nanoTime();
+		if(entry.references == 0 && (idleTimeoutMillis == 0 || closed || entries.get(entry.path) != entry)){
+			remove(entry);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Opens the channel of the entry again if it has been closed.  The file is opened under the lock of
+	 * the entry, not of the pool.
+	 * @param entry
+	 * @return open channel
+	 * @throws IOException
+	 */
+	private FileChannel reopen(Entry entry) throws IOException{
+		synchronized(entry){
+			if(!entry.channel.isOpen()){
+				synchronized(this){
+					if(closed) throw new IOException("File handle pool is closed");
+				}
+				logger.debug("Reopening closed channel of " + entry.path);
+				entry.channel = FileChannel.open(entry.path, StandardOpenOption.READ);
+				synchronized(this){
+					opened++;
+				}
+			}
+			return entry.channel;
+		}
+	}
+
+	/**
+	 * Closes the least recently used channel that is not held
+	 * @return false if all the channels are held
+	 */
+	private boolean closeLeastRecentlyUsedIdle(){
+		for(Entry entry:entries.values()){
+			if(entry.references == 0){
+				remove(entry);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Closes the channels that have not been held for the idle timeout
+	 */
+	private synchronized void closeIdle(){
+		long now = System.nanoTime();
+		Iterator<Entry> iterator = entries.values().iterator();
+		while(iterator.hasNext()){
+			Entry entry = iterator.next();
+			if(entry.references == 0 && now - entry.lastReleased >= TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)){
+				iterator.remove();
+				closeChannel(entry);
+			}
+		}
+	}
+
+	private void remove(Entry entry){
+		if(entries.get(entry.path) == entry) entries.remove(entry.path);
+		closeChannel(entry);
+	}
+
+	private void closeChannel(Entry entry){
+		try{
+			entry.channel.close();
+		}
+		catch(IOException ex){
+			logger.warn("Unable to close " + entry.path, ex);
+		}
+	}
+
+	/**
+	 * Starts the daemon thread that closes idle channels, if it is not running
+	 */
+	private void startSweeper(){
+		if(sweeper != null || idleTimeoutMillis == 0) return;
+		sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "dta-file-handle-pool");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(idleTimeoutMillis/2, 1);
+		sweeper.scheduleWithFixedDelay(this::closeIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Closes the channels that are not held and stops the idle timeout thread.
+	 * Held channels are closed when they are released.  Acquire fails after the pool is closed.
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if(sweeper != null) sweeper.shutdownNow();
+		Iterator<Entry> iterator = entries.values().iterator();
+		while(iterator.hasNext()){
+			Entry entry = iterator.next();
+			if(entry.references == 0){
+				iterator.remove();
+				closeChannel(entry);
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * @return number of files open
+	 */
+	public synchronized int getOpenHandles(){
+		return entries.size();
+	}
+
+	/**
+	 * @return number of times a file has been opened
+	 */
+	public synchronized long getOpened() {
+		return opened;
+	}
+
+	/**
+	 * @return number of acquires that reused an open channel
+	 */
+	public synchronized long getReused() {
+		return reused;
+	}
+
+	public int getMaxOpenHandles() {
+		return maxOpenHandles;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	public synchronized long getAcquireTimeoutMillis() {
+		return acquireTimeoutMillis;
+	}
+
+	/**
+	 * @param acquireTimeoutMillis time acquire waits for a release when all the channels are held
+	 */
+	public synchronized void setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+	}
+
+	/**
+	 * Open channel of a file, the identity of the file it was opened for and the number of handles that hold it.
+	 * The channel is null while the file is being opened.
+	 */
+	private static class Entry{
+		private final Path path;
+		private final Object fileKey;
+		private final long size;
+		private final long lastModified;
+		private volatile FileChannel channel;
+		private int references;
+		private long lastReleased;
+
+		private Entry(Path path, BasicFileAttributes attributes){
+			this.path = path;
+			this.fileKey = attributes.fileKey();
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+		}
+
+		/**
+		 * @param attributes current attributes of the file
+		 * @return true if the file is the file the channel was opened for and has not been modified
+		 */
+		private boolean isSameFile(BasicFileAttributes attributes){
+			return Objects.equals(fileKey, attributes.fileKey()) && size == attributes.size()
+					&& lastModified == attributes.lastModifiedTime().toMillis();
+		}
+	}
+
+	/**
+	 * Reference to the channel of a file.  Closing the handle releases the reference; the channel
+	 * itself is closed by the pool.
+	 */
+	public class Handle implements Closeable{
+		private final Entry entry;
+		private boolean released;
+
+		private Handle(Entry entry){
+			this.entry = entry;
+		}
+
+		/**
+		 * Returns the channel of the file, opening it again if it has been closed by an interrupt.
+		 * The channel can change between calls; use it only for positional reads.
+		 * @return open channel
+		 * @throws IOException
+		 */
+		public FileChannel getChannel() throws IOException{
+			FileChannel channel = entry.channel;
+			return channel.isOpen() ? channel : reopen(entry);
+		}
+
+		@Override
+		public void close() {
+			synchronized(this){
+				if(released) return;
+				released = true;
+			}
+			release(entry);
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+* This class is a compiled filter over observations.
+* Filters are evaluated on the raw bytes of an observation through a DtaRowView that is
+* positioned over the full observation; values are never converted to Strings.
+*
+* Filter expressions are written the way they are written in STATA
+*
+* 	age >= 18 && state == 36
+* 	(sex == 1 | sex == 2) & !(income == .)
+* 	name != "unknown"
+*
+* 	comparisons     ==  !=  <  <=  >  >=
+* 	logical         &&  &   ||  |   !    ( )
+* 	literals        numbers, "strings" and . for the missing value
+*
+* Missing values follow the STATA semantics: a missing value is larger than any number, so
+* age > 65 is true for a missing age and age < . is true only for non missing ages.
+* All the STATA missing codes compare equal to the missing literal.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public abstract class DtaFilter {
+	public enum Operator{
+		EQ("=="),NE("!="),LT("<"),LE("<="),GT(">"),GE(">=");
+		private String symbol;
+		private Operator(String symbol){
+			this.symbol = symbol;
+		}
+		public String getSymbol(){
+			return symbol;
+		}
+		private boolean test(int comparison){
+			switch(this){
+				case EQ: return comparison == 0;
+				case NE: return comparison != 0;
+				case LT: return comparison < 0;
+				case LE: return comparison <= 0;
+				case GT: return comparison > 0;
+				default: return comparison >= 0;
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the observation the row view is positioned over satisfies the filter.
+	 * @param rowView row view over all the variables of the observation
+	 * @return
+	 */
+	public abstract boolean accept(DtaRowView rowView);
+
+	/**
+	 * Compiles a filter expression against the variables of the reader.
+	 * @param expression
+	 * @param dtaReader
+	 * @return compiled filter
+	 * @throws IllegalArgumentException if the expression is invalid or refers to unknown variables
+	 */
+	public static DtaFilter compile(String expression, DtaReader dtaReader){
+		Parser parser = new Parser(expression, dtaReader);
+		DtaFilter filter = parser.parseOr();
+		parser.skipSpaces();
+		if(parser.position < expression.length())
+			throw parser.error("Unexpected input");
+		return filter;
+	}
+
+	/**
+	 * Returns a filter that compares a numeric variable with a value.
+	 * Use Double.POSITIVE_INFINITY as the value to compare with the missing value.
+	 * @param column index of the variable in the full row layout
+	 * @param operator
+	 * @param value
+	 * @return
+	 */
+	public static DtaFilter compare(final int column, final Operator operator, final double value){
+		return new DtaFilter(){
+			@Override
+			public boolean accept(DtaRowView rowView) {
+				double d = rowView.isMissing(column) ? Double.POSITIVE_INFINITY : rowView.getDouble(column);
+				return operator.test(d < value ? -1 : (d > value ? 1 : 0));
+			}
+		};
+	}
+
+	/**
+	 * Returns a filter that compares the bytes of a string variable with an ISO-8859-1 value.
+	 * @param column index of the variable in the full row layout
+	 * @param operator
+	 * @param value
+	 * @return
+	 */
+	public static DtaFilter compare(final int column, final Operator operator, String value){
+		return compare(column, operator, value, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns a filter that compares the bytes of a string variable with a value.
+	 * @param column index of the variable in the full row layout
+	 * @param operator
+	 * @param value
+	 * @param charset charset of the data file
+	 * @return
+	 */
+	public static DtaFilter compare(final int column, final Operator operator, String value, Charset charset){
+		final byte[] bytes = value.getBytes(charset);
+		return new DtaFilter(){
+			@Override
+			public boolean accept(DtaRowView rowView) {
+				return operator.test(rowView.compareString(column, bytes));
+			}
+		};
+	}
+
+	public static DtaFilter and(final DtaFilter left, final DtaFilter right){
+		return new DtaFilter(){
+			@Override
+			public boolean accept(DtaRowView rowView) {
+				return left.accept(rowView) && right.accept(rowView);
+			}
+		};
+	}
+
+	public static DtaFilter or(final DtaFilter left, final DtaFilter right){
+		return new DtaFilter(){
+			@Override
+			public boolean accept(DtaRowView rowView) {
+				return left.accept(rowView) || right.accept(rowView);
+			}
+		};
+	}
+
+	public static DtaFilter not(final DtaFilter filter){
+		return new DtaFilter(){
+			@Override
+			public boolean accept(DtaRowView rowView) {
+				return !filter.accept(rowView);
+			}
+		};
+	}
+
+	/**
+	 * Recursive descent parser of filter expressions
+	 */
+	private static class Parser{
+		private final String expression;
+		private final DtaReader dtaReader;
+		private int position;
+
+		private Parser(String expression, DtaReader dtaReader){
+			this.expression = expression;
+			this.dtaReader = dtaReader;
+		}
+
+		private DtaFilter parseOr(){
+			DtaFilter filter = parseAnd();
+			while(accept("||") || accept("|")){
+				filter = or(filter, parseAnd());
+			}
+			return filter;
+		}
+
+		private DtaFilter parseAnd(){
+			DtaFilter filter = parseNot();
+			while(accept("&&") || accept("&")){
+				filter = and(filter, parseNot());
+			}
+			return filter;
+		}
+
+		private DtaFilter parseNot(){
+			if(!lookingAt("!=") && accept("!")){
+				return not(parseNot());
+			}
+			if(accept("(")){
+				DtaFilter filter = parseOr();
+				if(!accept(")")) throw error("Expected )");
+				return filter;
+			}
+			return parseComparison();
+		}
+
+		private DtaFilter parseComparison(){
+			skipSpaces();
+			int start = position;
+			while(position < expression.length() &&
+					(Character.isLetterOrDigit(expression.charAt(position)) || expression.charAt(position) == '_')){
+				position++;
+			}
+			if(start == position) throw error("Expected a variable name");
+			String variableName = expression.substring(start, position);
+			int column = dtaReader.getVariableIndex(variableName);
+			if(column < 0) throw error("Unknown variable " + variableName);
+
+			Operator operator = parseOperator();
+			int kind = dtaReader.getRowLayout().getKind(column);
+			skipSpaces();
+			if(lookingAt("\"")){
+				if(kind != DtaRowLayout.KIND_STRING && kind != DtaRowLayout.KIND_STRL) throw error("Variable " + variableName + " is not a string variable");
+				return compare(column, operator, parseString(), dtaReader.getCharset());
+			}
+			if(kind == DtaRowLayout.KIND_STRING || kind == DtaRowLayout.KIND_STRL || kind == DtaRowLayout.KIND_UNKNOWN)
+				throw error("Variable " + variableName + " is not a numeric variable");
+			return compare(column, operator, parseNumber());
+		}
+
+		private Operator parseOperator(){
+			for(Operator operator:new Operator[]{Operator.EQ,Operator.NE,Operator.LE,Operator.GE,Operator.LT,Operator.GT}){
+				if(accept(operator.getSymbol())) return operator;
+			}
+			throw error("Expected a comparison operator");
+		}
+
+		private String parseString(){
+			int start = ++position;
+			int end = expression.indexOf('"', start);
+			if(end < 0) throw error("Unterminated string");
+			position = end+1;
+			return expression.substring(start, end);
+		}
+
+		private double parseNumber(){
+			int start = position;
+			while(position < expression.length() && "+-.0123456789eE".indexOf(expression.charAt(position)) >= 0){
+				position++;
+			}
+			String number = expression.substring(start, position);
+			if(number.equals(".")) return Double.POSITIVE_INFINITY;
+			try{
+				return Double.parseDouble(number);
+			}
+			catch(NumberFormatException ex){
+				throw error("Expected a number");
+			}
+		}
+
+		private boolean lookingAt(String token){
+			skipSpaces();
+			return expression.startsWith(token, position);
+		}
+
+		private boolean accept(String token){
+			if(lookingAt(token)){
+				position += token.length();
+				return true;
+			}
+			return false;
+		}
+
+		private void skipSpaces(){
+			while(position < expression.length() && Character.isWhitespace(expression.charAt(position))){
+				position++;
+			}
+		}
+
+		private IllegalArgumentException error(String message){
+			return new IllegalArgumentException(message + " at position " + position + " of filter: " + expression);
+		}
+	}
+}
@@ -0,0 +1,321 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+* This class holds the frequency table of a categorical variable.
+* Values of byte, int and long variables are counted in a dense array of primitive counts that
+* covers the range of the values seen so far.  Variables the values of which spread over more than
+* maxDenseRange values are counted in a sparse open addressing table instead.  Values of string
+* variables are counted in a hash map.
+*
+* Missing values are counted in their own buckets: . and .a to .z.
+* Labels are joined to the counts when the frequency table is asked for, after all the
+* observations are counted.
+*
+* USAGE
+* 	for(DtaFrequencies.Frequency frequency:dtaFrequencies.getFrequencies()){
+* 		frequency.getValue(); frequency.getLabel(); frequency.getCount();
+* 	}
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaFrequencies {
+	public static final int DEFAULT_MAX_DENSE_RANGE = 1 << 16;
+	public static final int NUMBER_OF_MISSING_VALUES = 27;
+	/** value the label of the missing value . is stored under; .a to .z follow */
+	public static final int MISSING_LABEL_VALUE = (int)DtaReader.VALID_LONG_VALUES.MAX_VALUE.getValue() + 1;
+
+	private final DtaVariable dtaVariable;
+	private final boolean string;
+	private final int maxDenseRange;
+	private final long[] missingCounts = new long[NUMBER_OF_MISSING_VALUES];
+
+	private long[] denseCounts;
+	private int denseBase;
+	private int[] sparseValues;
+	private long[] sparseCounts;
+	private int sparseSize;
+	private HashMap<String,long[]> stringCounts;
+
+	/**
+	 * @param dtaVariable
+	 * @param maxDenseRange maximum number of values counted in the dense array
+	 */
+	public DtaFrequencies(DtaVariable dtaVariable, int maxDenseRange){
+		this.dtaVariable = dtaVariable;
+		this.string = dtaVariable.isString() || dtaVariable.isStrL();
+		this.maxDenseRange = maxDenseRange;
+		if(string) stringCounts = new HashMap<String,long[]>();
+	}
+
+	/**
+	 * Counts a valid value of a byte, int or long variable
+	 * @param value
+	 */
+	public void add(int value){
+		add(value, 1);
+	}
+
+	/**
+	 * Counts a missing value
+	 * @param missingIndex 0 for . and 1 to 26 for .a to .z; other codes are counted as .
+	 */
+	public void addMissing(int missingIndex){
+		if(missingIndex < 0 || missingIndex >= NUMBER_OF_MISSING_VALUES) missingIndex = 0;
+		missingCounts[missingIndex]++;
+	}
+
+	/**
+	 * Counts a value of a string variable
+	 * @param value
+	 */
+	public void add(String value){
+		long[] count = stringCounts.get(value);
+		if(count == null) stringCounts.put(value, new long[]{1});
+		else count[0]++;
+	}
+
+	/**
+	 * Adds the counts of an other range of observations of the same variable
+	 * @param other
+	 */
+	public void merge(DtaFrequencies other){
+		for(int i=0;i<NUMBER_OF_MISSING_VALUES;i++){
+			missingCounts[i] += other.missingCounts[i];
+		}
+		if(string){
+			for(Map.Entry<String,long[]> entry:other.stringCounts.entrySet()){
+				long[] count = stringCounts.get(entry.getKey());
+				if(count == null) stringCounts.put(entry.getKey(), entry.getValue());
+				else count[0] += entry.getValue()[0];
+			}
+			return;
+		}
+		if(other.denseCounts != null){
+			for(int i=0;i<other.denseCounts.length;i++){
+				if(other.denseCounts[i] != 0) add(other.denseBase + i, other.denseCounts[i]);
+			}
+		}
+		if(other.sparseValues != null){
+			for(int i=0;i<other.sparseValues.length;i++){
+				if(other.sparseCounts[i] != 0) add(other.sparseValues[i], other.sparseCounts[i]);
+			}
+		}
+	}
+
+	private void add(int value, long count){
+		if(sparseValues == null){
+			if(denseCounts == null){
+				denseCounts = new long[16];
+				denseBase = (int)Math.max((long)value - 8, Integer.MIN_VALUE);
+			}
+			long index = (long)value - denseBase;
+			if((index >= 0 && index < denseCounts.length) || growDense(value)){
+				denseCounts[value - denseBase] += count;
+				return;
+			}
+		}
+		addSparse(value, count);
+	}
+
+	/**
+	 * Grows the dense array to cover the value.  Switches to the sparse table if the
+	 * range of the values would exceed maxDenseRange.
+	 * @param value
+	 * @return true if the value is covered by the dense array
+	 */
+	private boolean growDense(int value){
+		long low = Math.min((long)denseBase, value);
+		long high = Math.max((long)denseBase + denseCounts.length - 1, value);
+		if(high - low + 1 > maxDenseRange){
+			toSparse();
+			return false;
+		}
+		long length = Math.min(Math.max(denseCounts.length * 2L, high - low + 1), maxDenseRange);
+		long base = value < denseBase ? Math.max(high - length + 1, Integer.MIN_VALUE) : low;
+		long[] counts = new long[(int)length];
+		System.arraycopy(denseCounts, 0, counts, (int)(denseBase - base), denseCounts.length);
+		denseCounts = counts;
+		denseBase = (int)base;
+		return true;
+	}
+
+	private void toSparse(){
+		long[] counts = denseCounts;
+		int base = denseBase;
+		denseCounts = null;
+		sparseValues = new int[64];
+		sparseCounts = new long[64];
+		for(int i=0;i<counts.length;i++){
+			if(counts[i] != 0) addSparse(base + i, counts[i]);
+		}
+	}
+
+	private void addSparse(int value, long count){
+		int mask = sparseValues.length - 1;
+		int slot = (value * 0x9E3779B9) & mask;
+		while(sparseCounts[slot] != 0){
+			if(sparseValues[slot] == value){
+				sparseCounts[slot] += count;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		sparseValues[slot] = value;
+		sparseCounts[slot] = count;
+		if(++sparseSize * 2 > sparseValues.length){
+			int[] values = sparseValues;
+			long[] counts = sparseCounts;
+			sparseValues = new int[values.length * 2];
+			sparseCounts = new long[counts.length * 2];
+			sparseSize = 0;
+			for(int i=0;i<values.length;i++){
+				if(counts[i] != 0) addSparse(values[i], counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the count of a valid value of a byte, int or long variable
+	 * @param value
+	 * @return
+	 */
+	public long getCount(int value){
+		if(denseCounts != null){
+			long index = (long)value - denseBase;
+			return index >= 0 && index < denseCounts.length ? denseCounts[(int)index] : 0;
+		}
+		if(sparseValues == null) return 0;
+		int mask = sparseValues.length - 1;
+		int slot = (value * 0x9E3779B9) & mask;
+		while(sparseCounts[slot] != 0){
+			if(sparseValues[slot] == value) return sparseCounts[slot];
+			slot = (slot + 1) & mask;
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the count of a value of a string variable
+	 * @param value
+	 * @return
+	 */
+	public long getCount(String value){
+		long[] count = stringCounts == null ? null : stringCounts.get(value);
+		return count == null ? 0 : count[0];
+	}
+
+	/**
+	 * @param missingIndex 0 for . and 1 to 26 for .a to .z
+	 * @return count of the missing value
+	 */
+	public long getMissingCount(int missingIndex){
+		return missingCounts[missingIndex];
+	}
+
+	/**
+	 * Returns the frequency table: values in ascending order followed by the missing values.
+	 * Only values that occur are returned.  Labels are looked up in the value labels of the variable.
+	 * @return
+	 */
+	public List<Frequency> getFrequencies(){
+		List<Frequency> frequencies = new ArrayList<Frequency>();
+		if(string){
+			String[] values = stringCounts.keySet().toArray(new String[stringCounts.size()]);
+			Arrays.sort(values);
+			for(String value:values){
+				frequencies.add(new Frequency(value, null, stringCounts.get(value)[0], false));
+			}
+		}
+		else if(denseCounts != null){
+			for(int i=0;i<denseCounts.length;i++){
+				if(denseCounts[i] != 0) frequencies.add(newFrequency(denseBase + i, denseCounts[i]));
+			}
+		}
+		else if(sparseValues != null){
+			long[] entries = new long[sparseSize];
+			int n = 0;
+			for(int i=0;i<sparseValues.length;i++){
+				if(sparseCounts[i] != 0) entries[n++] = ((long)sparseValues[i] << 32) | i;
+			}
+			Arrays.sort(entries);
+			for(long entry:entries){
+				int slot = (int)entry;
+				frequencies.add(newFrequency(sparseValues[slot], sparseCounts[slot]));
+			}
+		}
+		for(int i=0;i<NUMBER_OF_MISSING_VALUES;i++){
+			if(missingCounts[i] == 0) continue;
+			String value = i == 0 ? "." : "." + (char)('a' + i - 1);
+			String label = string ? null : dtaVariable.getValueLabel(MISSING_LABEL_VALUE + i);
+			frequencies.add(new Frequency(value, label, missingCounts[i], true));
+		}
+		return frequencies;
+	}
+
+	private Frequency newFrequency(int value, long count){
+		return new Frequency(Integer.toString(value), dtaVariable.getValueLabel(value), count, false);
+	}
+
+	public DtaVariable getDtaVariable() {
+		return dtaVariable;
+	}
+
+	public String getName() {
+		return dtaVariable.getName();
+	}
+
+	/**
+	 * A value of the frequency table
+	 */
+	public static class Frequency{
+		private final String value;
+		private final String label;
+		private final long count;
+		private final boolean missing;
+
+		public Frequency(String value, String label, long count, boolean missing){
+			this.value = value;
+			this.label = label;
+			this.count = count;
+			this.missing = missing;
+		}
+
+		/**
+		 * @return value; missing values are ., .a to .z
+		 */
+		public String getValue() {
+			return value;
+		}
+
+		/**
+		 * @return label of the value, or null if the value has no label
+		 */
+		public String getLabel() {
+			return label;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public boolean isMissing() {
+			return missing;
+		}
+
+		@Override
+		public String toString() {
+			return value + (label == null ? "" : " " + label) + " " + count;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+
+/**
+* This class computes the frequency tables of the categorical variables of a stata data file
+* in one parallel scan of the data section.
+* byte, int and long values are counted from the raw bytes of the observations into primitive
+* count arrays; str and strL values are counted by value.  Missing values are counted in their
+* own buckets.  Value labels are joined to the counts after the scan.
+*
+* USAGE
+* 	DtaFrequencyEngine engine = new DtaFrequencyEngine(SR);
+* 	for(DtaFrequencies frequencies:engine.compute()){
+* 		List<DtaFrequencies.Frequency> table = frequencies.getFrequencies();
+* 	}
+*
+* Without a selection the byte, int and long variables that have a value label name are counted.
+* Any byte, int, long, str or strL variable can be selected.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaFrequencyEngine extends DtaAggregationEngine<DtaFrequencies[]> {
+	private static final int MISSING_BYTE = DtaReader.VALID_BYTE_VALUES.MAX_VALUE.getValue() + 1;
+	private static final int MISSING_INT = DtaReader.VALID_INT_VALUES.MAX_VALUE.getValue() + 1;
+	private static final int MISSING_LONG = (int)DtaReader.VALID_LONG_VALUES.MAX_VALUE.getValue() + 1;
+
+	private int maxDenseRange = DtaFrequencies.DEFAULT_MAX_DENSE_RANGE;
+
+	public DtaFrequencyEngine(StataReader stataReader){
+		super(stataReader);
+	}
+
+	/**
+	 * Computes the frequencies of all the observations
+	 * @return frequencies of the variables, in the order of the selection
+	 * @throws IOException
+	 */
+	public List<DtaFrequencies> compute() throws IOException{
+		return compute(1, stataReader.getDtaHeader().getNumberOfObservations());
+	}
+
+	/**
+	 * Computes the frequencies of the observations start to end (both inclusive)
+	 * @param start Start of the observation Number
+	 * @param end End of the observation number.
+	 * @return frequencies of the variables, in the order of the selection
+	 * @throws IOException
+	 */
+	public List<DtaFrequencies> compute(long start, long end) throws IOException{
+		return Arrays.asList(aggregate(start, end));
+	}
+
+	@Override
+	protected boolean isAggregated(DtaVariable dtaVariable) {
+		switch(DtaRowLayout.getKind(dtaVariable)){
+			case DtaRowLayout.KIND_BYTE:
+			case DtaRowLayout.KIND_INT:
+			case DtaRowLayout.KIND_LONG:
+			case DtaRowLayout.KIND_STRING:
+			case DtaRowLayout.KIND_STRL:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	@Override
+	protected boolean isSelectedByDefault(DtaVariable dtaVariable) {
+		String valueLabelName = dtaVariable.getVariableValueLabelName();
+		return valueLabelName != null && !valueLabelName.isEmpty() && !dtaVariable.isString() && !dtaVariable.isStrL();
+	}
+
+	@Override
+	protected DtaFrequencies[] newAggregate(DtaRowLayout rowLayout, List<DtaVariable> dtaVariables) {
+		DtaFrequencies[] frequencies = new DtaFrequencies[dtaVariables.size()];
+		for(int i=0;i<frequencies.length;i++){
+			frequencies[i] = new DtaFrequencies(dtaVariables.get(i), maxDenseRange);
+		}
+		return frequencies;
+	}
+
+	@Override
+	protected void accumulate(DtaFrequencies[] frequencies, DtaRowView rowView) {
+		DtaRowLayout rowLayout = rowView.getRowLayout();
+		for(int i=0;i<frequencies.length;i++){
+			int kind = rowLayout.getKind(i);
+			if(kind == DtaRowLayout.KIND_STRING || kind == DtaRowLayout.KIND_STRL){
+				frequencies[i].add(rowView.getString(i));
+				continue;
+			}
+			int value = rowView.getInt(i);
+			if(!rowView.isMissing(i)) frequencies[i].add(value);
+			else if(kind == DtaRowLayout.KIND_BYTE) frequencies[i].addMissing(value - MISSING_BYTE);
+			else if(kind == DtaRowLayout.KIND_INT) frequencies[i].addMissing(value - MISSING_INT);
+			else frequencies[i].addMissing(value - MISSING_LONG);
+		}
+	}
+
+	@Override
+	protected DtaFrequencies[] merge(DtaFrequencies[] frequencies, DtaFrequencies[] next) {
+		for(int i=0;i<frequencies.length;i++){
+			frequencies[i].merge(next[i]);
+		}
+		return frequencies;
+	}
+
+	public int getMaxDenseRange() {
+		return maxDenseRange;
+	}
+
+	/**
+	 * @param maxDenseRange maximum range of values of a variable counted in a dense array; 
+	 * variables with a wider range are counted in a hash table
+	 */
+	public void setMaxDenseRange(int maxDenseRange) {
+		this.maxDenseRange = maxDenseRange;
+	}
+}
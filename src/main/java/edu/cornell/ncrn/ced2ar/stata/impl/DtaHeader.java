@@ -1,11 +1,14 @@
 package edu.cornell.ncrn.ced2ar.stata.impl;
 
+import java.io.Serializable;
 
 //LSF=LITTLE_ENDIAN
 //MSF=BIG_ENDIAN
 
 
-public class DtaHeader {
+public class DtaHeader implements Serializable {
+	private static final long serialVersionUID = 4716214826521391170L;
+
 	public enum ByteOrder{
 		BIG_ENDIAN(1),LITTLE_ENDIAN(2);
 		private int value;
@@ -58,6 +61,20 @@ public class DtaHeader {
 		this.timeStamp = timeStamp;
 	}
 
+	/**
+	 * @return header with the same fields as this header
+	 */
+	public DtaHeader copy(){
+		DtaHeader dtaHeader = new DtaHeader();
+		dtaHeader.setDtaFileFormat(dtaFileFormat);
+		dtaHeader.setByteOrder(byteOrder);
+		dtaHeader.setNumberOfVariables(numberOfVariables);
+		dtaHeader.setNumberOfObservations(numberOfObservations);
+		dtaHeader.setDataLabel(dataLabel);
+		dtaHeader.setTimeStamp(timeStamp);
+		return dtaHeader;
+	}
+
 	public boolean isLittleEndian(){
 		boolean isLittleEndian=false;
 		isLittleEndian  = (byteOrder == ByteOrder.LITTLE_ENDIAN.value);
@@ -0,0 +1,125 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+/**
+* This class is a histogram of the values of a numeric variable over fixed width bins.
+* Bins split the range lower to upper in numberOfBins equal parts; each bin includes its lower
+* bound and the last bin also includes upper.  Values below lower and above upper are counted
+* as underflow and overflow.
+*
+* USAGE
+* 	DtaHistogram histogram = new DtaHistogram(0, 100000, 20);
+* 	histogram.add(value);
+* 	long[] counts = histogram.getCounts();
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaHistogram {
+	private final double lower;
+	private final double upper;
+	private final double binWidth;
+	private final long[] counts;
+	private long underflow;
+	private long overflow;
+
+	/**
+	 * @param lower lower bound of the first bin
+	 * @param upper upper bound of the last bin
+	 * @param numberOfBins
+	 */
+	public DtaHistogram(double lower, double upper, int numberOfBins){
+		if(!(upper > lower))
+			throw new IllegalArgumentException("Upper bound " + upper + " must be greater than lower bound " + lower);
+		if(numberOfBins <= 0)
+			throw new IllegalArgumentException("Number of bins must be positive. Found " + numberOfBins);
+		this.lower = lower;
+		this.upper = upper;
+		this.binWidth = (upper - lower) / numberOfBins;
+		this.counts = new long[numberOfBins];
+	}
+
+	/**
+	 * Returns an empty histogram with the same bins
+	 * @return
+	 */
+	public DtaHistogram newEmptyHistogram(){
+		return new DtaHistogram(lower, upper, counts.length);
+	}
+
+	/**
+	 * Adds a value
+	 * @param value
+	 */
+	public void add(double value){
+		if(value < lower) underflow++;
+		else if(value > upper) overflow++;
+		else if(value >= lower) counts[Math.min((int)((value - lower) / binWidth), counts.length - 1)]++;
+	}
+
+	/**
+	 * Adds the counts of an other histogram with the same bins
+	 * @param other
+	 */
+	public void merge(DtaHistogram other){
+		if(other.lower != lower || other.upper != upper || other.counts.length != counts.length)
+			throw new IllegalArgumentException("Histograms have different bins");
+		for(int i=0;i<counts.length;i++){
+			counts[i] += other.counts[i];
+		}
+		underflow += other.underflow;
+		overflow += other.overflow;
+	}
+
+	/**
+	 * @param bin
+	 * @return lower bound of the bin
+	 */
+	public double getBinLower(int bin){
+		return lower + bin * binWidth;
+	}
+
+	/**
+	 * @param bin
+	 * @return upper bound of the bin
+	 */
+	public double getBinUpper(int bin){
+		return bin == counts.length - 1 ? upper : lower + (bin + 1) * binWidth;
+	}
+
+	public int getNumberOfBins(){
+		return counts.length;
+	}
+
+	public double getLower() {
+		return lower;
+	}
+
+	public double getUpper() {
+		return upper;
+	}
+
+	/**
+	 * @return count of the values in each bin
+	 */
+	public long[] getCounts() {
+		return counts;
+	}
+
+	/**
+	 * @return number of values below lower
+	 */
+	public long getUnderflow() {
+		return underflow;
+	}
+
+	/**
+	 * @return number of values above upper
+	 */
+	public long getOverflow() {
+		return overflow;
+	}
+}
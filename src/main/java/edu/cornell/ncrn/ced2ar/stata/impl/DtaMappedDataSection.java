@@ -0,0 +1,135 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.log4j.Logger;
+
+/**
+* This class maps the data section of a stata data file into memory.
+* A single MappedByteBuffer can address at most Integer.MAX_VALUE bytes, so the
+* data section is mapped as a series of windows.  Each window holds a whole number
+* of observations; an observation never straddles two windows.
+*
+* Observations are decoded straight from the mapped windows using absolute gets.
+* The windows are never repositioned, so one mapped data section can be shared by
+* any number of threads.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaMappedDataSection {
+	private static final Logger logger = Logger.getLogger(DtaMappedDataSection.class);
+
+	public static final long MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+	private final long observationLength;
+	private final long numberOfObservations;
+	private final long observationsPerWindow;
+	private final ByteBuffer[] windows;
+
+	/**
+	 * Maps the data section using the largest possible windows
+	 * @param dataFile stata data file
+	 * @param startOfObservations file position of the first byte of the first observation
+	 * @param observationLength length of one observation in bytes
+	 * @param numberOfObservations number of observations in the data section
+	 * @param isLittleEndian byte order of the data file
+	 * @throws IOException
+	 */
+	public DtaMappedDataSection(String dataFile, long startOfObservations, long observationLength,
+			long numberOfObservations, boolean isLittleEndian) throws IOException{
+		this(dataFile,startOfObservations,observationLength,numberOfObservations,isLittleEndian,MAX_WINDOW_SIZE);
+	}
+
+	/**
+	 * Maps the data section using windows of at most maxWindowSize bytes
+	 * @param dataFile stata data file
+	 * @param startOfObservations file position of the first byte of the first observation
+	 * @param observationLength length of one observation in bytes
+	 * @param numberOfObservations number of observations in the data section
+	 * @param isLittleEndian byte order of the data file
+	 * @param maxWindowSize upper bound of the size of one mapped window.
+	 * @throws IOException
+	 */
+	public DtaMappedDataSection(String dataFile, long startOfObservations, long observationLength,
+			long numberOfObservations, boolean isLittleEndian, long maxWindowSize) throws IOException{
+		if(maxWindowSize <=0 || maxWindowSize > MAX_WINDOW_SIZE)
+			throw new IllegalArgumentException("Window size must be between 1 and " + MAX_WINDOW_SIZE + ". Found " + maxWindowSize);
+		if(observationLength > maxWindowSize)
+			throw new IllegalArgumentException("Observation length " + observationLength + " exceeds the window size " + maxWindowSize);
+
+		this.observationLength = observationLength;
+		this.numberOfObservations = numberOfObservations;
+		this.observationsPerWindow = observationLength == 0 ? 1 : maxWindowSize/observationLength;
+
+		long numberOfWindows = (numberOfObservations + observationsPerWindow -1)/observationsPerWindow;
+		windows = new ByteBuffer[(int)numberOfWindows];
+		ByteOrder byteOrder = isLittleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+		RandomAccessFile dataRAF = new RandomAccessFile(new File(dataFile),"r");
+		try{
+			FileChannel channel = dataRAF.getChannel();
+			long windowStart = startOfObservations;
+			long remainingObservations = numberOfObservations;
+			for(int i=0;i<windows.length;i++){
+				long windowObservations = Math.min(observationsPerWindow, remainingObservations);
+				long windowSize = windowObservations * observationLength;
+				MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+				window.order(byteOrder);
+				windows[i] = window;
+				windowStart += windowSize;
+				remainingObservations -= windowObservations;
+			}
+		}
+		finally{
+			dataRAF.close();
+		}
+		logger.debug("Mapped " + numberOfObservations + " observations of " + dataFile + " in " + windows.length + " window(s)");
+	}
+
+	/**
+	 * Returns the mapped window that contains the observation.
+	 * Use getObservationOffset to find the start of the observation within the window
+	 * @param observationNumber 1 based observation number
+	 * @return ByteBuffer ordered by the byte order of the data file
+	 */
+	public ByteBuffer getWindow(long observationNumber){
+		return windows[(int)((observationNumber-1)/observationsPerWindow)];
+	}
+
+	/**
+	 * Returns the position of the first byte of the observation within its window
+	 * @param observationNumber 1 based observation number
+	 * @return offset within the window returned by getWindow
+	 */
+	public int getObservationOffset(long observationNumber){
+		return (int)(((observationNumber-1)%observationsPerWindow)*observationLength);
+	}
+
+	// getters
+	public long getObservationLength() {
+		return observationLength;
+	}
+
+	public long getNumberOfObservations() {
+		return numberOfObservations;
+	}
+
+	public long getObservationsPerWindow() {
+		return observationsPerWindow;
+	}
+
+	public int getNumberOfWindows() {
+		return windows.length;
+	}
+}
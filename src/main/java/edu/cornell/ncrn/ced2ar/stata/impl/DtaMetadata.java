@@ -0,0 +1,64 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+* This class holds the parsed meta data of a stata data file: the header, the variables with
+* their value labels, and the file positions of the sections of the data file.
+* A reader restored from the meta data does not parse the data file again.
+*
+* Section offsets are specific to the format of the data file.  See getSectionOffsets of the readers.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaMetadata implements Serializable {
+	private static final long serialVersionUID = 2853326017514927421L;
+
+	private DtaHeader dtaHeader;
+	private ArrayList<DtaVariable> dtaVariables;
+	private long[] sectionOffsets;
+
+	public DtaMetadata(DtaHeader dtaHeader, List<DtaVariable> dtaVariables, long[] sectionOffsets){
+		this.dtaHeader = dtaHeader;
+		this.dtaVariables = new ArrayList<DtaVariable>(dtaVariables);
+		this.sectionOffsets = sectionOffsets;
+	}
+
+	public DtaHeader getDtaHeader() {
+		return dtaHeader;
+	}
+
+	public List<DtaVariable> getDtaVariables() {
+		return dtaVariables;
+	}
+
+	public long[] getSectionOffsets() {
+		return sectionOffsets;
+	}
+
+	/**
+	 * Returns a copy of the meta data that shares no mutable state with it, so that readers
+	 * restored from the same cached meta data do not see each other's changes.
+	 * @return
+	 */
+	public DtaMetadata copy(){
+		ArrayList<DtaVariable> variables = new ArrayList<DtaVariable>(dtaVariables.size());
+		for(DtaVariable dtaVariable:dtaVariables){
+			variables.add(dtaVariable.copy());
+		}
+		return new DtaMetadata(dtaHeader.copy(), variables, sectionOffsets.clone());
+	}
+
+	@Override
+	public String toString() {
+		return "DtaMetadata [dtaHeader=" + dtaHeader + ", numberOfVariables=" + dtaVariables.size()
+				+ ", numberOfSectionOffsets=" + sectionOffsets.length + "]";
+	}
+}
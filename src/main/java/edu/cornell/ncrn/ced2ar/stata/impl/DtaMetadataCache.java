@@ -0,0 +1,400 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+* This class caches the meta data of stata data files so that reopening a data file does not
+* parse the header, the variables and the value labels again.
+*
+* Meta data is cached in memory and, if a cache directory is set, serialized to disk.
+* Entries are keyed by the identity of the data file: absolute path, size, last modified time
+* and a hash of the first HEADER_HASH_SIZE bytes.  A data file that is rewritten gets a new key,
+* so stale meta data is never returned.
+*
+* The memory cache holds at most maxEntries entries and evicts the least recently used entry.
+* The disk cache holds at most maxDiskSize bytes and evicts the least recently used files.
+*
+* USAGE
+* 	DtaMetadataCache cache = new DtaMetadataCache();
+* 	cache.setCacheDirectory(new File("/var/cache/ced2ar"));
+* 	factory.setMetadataCache(cache);
+*
+* Each reader restored from the cache gets its own copy of the meta data; only the value label
+* tables and the value label index, which are safe for use by multiple threads, are shared.
+* Cache files are deserialized with SafeObjectInputStream, which resolves only the classes of the
+* meta data, so a cache file written by someone else can not instantiate other classes.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaMetadataCache {
+	private static final Logger logger = Logger.getLogger(DtaMetadataCache.class);
+
+	public static final int DEFAULT_MAX_ENTRIES = 256;
+	public static final long DEFAULT_MAX_DISK_SIZE = 256L*1024*1024;
+	public static final int HEADER_HASH_SIZE = 4096;
+	private static final String CACHE_FILE_SUFFIX = ".dtameta";
+
+	private final Map<Key,DtaMetadata> entries;
+	private File cacheDirectory;
+	private long maxDiskSize = DEFAULT_MAX_DISK_SIZE;
+	private long hits;
+	private long misses;
+
+	public DtaMetadataCache(){
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * @param maxEntries maximum number of entries in the memory cache
+	 */
+	public DtaMetadataCache(final int maxEntries){
+		entries = new LinkedHashMap<Key,DtaMetadata>(16, 0.75f, true){
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,DtaMetadata> eldest){
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Returns the identity of the data file
+	 * @param stataFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static Key getKey(String stataFile) throws IOException{
+		File file = new File(stataFile).getAbsoluteFile();
+		CRC32 crc = new CRC32();
+		long size;
+		try(RandomAccessFile stataDataRAF = new RandomAccessFile(file,"r")){
+			size = stataDataRAF.length();
+			byte[] b = new byte[(int)Math.min(size, HEADER_HASH_SIZE)];
+			stataDataRAF.readFully(b);
+			crc.update(b);
+		}
+		return new Key(file.getPath(), size, file.lastModified(), crc.getValue());
+	}
+
+	/**
+	 * Returns the meta data of the data file from the memory cache or, if it is not
+	 * in memory, from the disk cache.
+	 * @param key
+	 * @return copy of the cached meta data, or null if the data file is not cached
+	 */
+	public DtaMetadata get(Key key){
+		synchronized(this){
+			DtaMetadata dtaMetadata = entries.get(key);
+			if(dtaMetadata != null){
+				hits++;
+				return dtaMetadata.copy();
+			}
+		}
+		DtaMetadata dtaMetadata = readFromDisk(key);
+		synchronized(this){
+			if(dtaMetadata == null){
+				misses++;
+				return null;
+			}
+			hits++;
+			entries.put(key, dtaMetadata);
+			return dtaMetadata.copy();
+		}
+	}
+
+	/**
+	 * Adds the meta data of the data file to the memory cache and, if a cache directory is set,
+	 * to the disk cache.  A copy of the meta data is cached, so later changes to it are not cached.
+	 * @param key
+	 * @param dtaMetadata
+	 */
+	public void put(Key key, DtaMetadata dtaMetadata){
+		dtaMetadata = dtaMetadata.copy();
+		synchronized(this){
+			entries.put(key, dtaMetadata);
+		}
+		writeToDisk(key, dtaMetadata);
+	}
+
+	/**
+	 * Removes all the entries from memory and disk
+	 */
+	public void clear(){
+		synchronized(this){
+			entries.clear();
+		}
+		for(File cacheFile:listCacheFiles()){
+			if(!cacheFile.delete()) logger.warn("Unable to delete cache file " + cacheFile);
+		}
+	}
+
+	/**
+	 * Reads the meta data from the cache file of the data file.  Cache files of an other
+	 * version of the data file, and cache files that can not be read, are deleted.
+	 * @param key
+	 * @return meta data or null
+	 */
+	protected DtaMetadata readFromDisk(Key key){
+		File cacheFile = getCacheFile(key);
+		if(cacheFile == null || !cacheFile.isFile()) return null;
+		try(ObjectInputStream in = new SafeObjectInputStream(new BufferedInputStream(Files.newInputStream(cacheFile.toPath())))){
+			if(key.equals(in.readObject())){
+				DtaMetadata dtaMetadata = (DtaMetadata)in.readObject();
+				cacheFile.setLastModified(System.currentTimeMillis());
+				return dtaMetadata;
+			}
+			logger.debug("Cache file " + cacheFile + " is of an other version of " + key.getPath());
+		}
+		catch(IOException | ClassNotFoundException | ClassCastException | ArrayStoreException ex){
+			logger.warn("Unable to read cache file " + cacheFile, ex);
+		}
+		cacheFile.delete();
+		return null;
+	}
+
+	/**
+	 * Writes the meta data to the cache file of the data file and evicts the least recently used
+	 * cache files beyond maxDiskSize.  The cache file is replaced atomically.
+	 * @param key
+	 * @param dtaMetadata
+	 */
+	protected void writeToDisk(Key key, DtaMetadata dtaMetadata){
+		File cacheFile = getCacheFile(key);
+		if(cacheFile == null) return;
+		Path tempFile = null;
+		try{
+			tempFile = Files.createTempFile(cacheDirectory.toPath(), cacheFile.getName(), ".tmp");
+			try(ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))){
+				out.writeObject(key);
+				out.writeObject(dtaMetadata);
+			}
+			Files.move(tempFile, cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch(IOException ex){
+			logger.warn("Unable to write cache file " + cacheFile, ex);
+			try{
+				if(tempFile != null) Files.deleteIfExists(tempFile);
+			}
+			catch(IOException ignored){
+			}
+			return;
+		}
+		evictFromDisk();
+	}
+
+	/**
+	 * Deletes the least recently used cache files until the cache files fit in maxDiskSize
+	 */
+	protected synchronized void evictFromDisk(){
+		List<File> cacheFiles = listCacheFiles();
+		long diskSize = 0;
+		for(File cacheFile:cacheFiles){
+			diskSize += cacheFile.length();
+		}
+		if(diskSize <= maxDiskSize) return;
+		Collections.sort(cacheFiles, new Comparator<File>(){
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f1.lastModified(), f2.lastModified());
+			}
+		});
+		for(File cacheFile:cacheFiles){
+			if(diskSize <= maxDiskSize) break;
+			long length = cacheFile.length();
+			if(cacheFile.delete()){
+				diskSize -= length;
+				logger.debug("Evicted cache file " + cacheFile);
+			}
+		}
+	}
+
+	private List<File> listCacheFiles(){
+		List<File> cacheFiles = new ArrayList<File>();
+		if(cacheDirectory == null) return cacheFiles;
+		File[] files = cacheDirectory.listFiles();
+		if(files == null) return cacheFiles;
+		for(File file:files){
+			if(file.getName().endsWith(CACHE_FILE_SUFFIX)) cacheFiles.add(file);
+		}
+		return cacheFiles;
+	}
+
+	/**
+	 * Cache file of a data file is named after the SHA-1 of its path.  Key stored in the cache
+	 * file identifies the version of the data file.
+	 * @param key
+	 * @return cache file, or null if there is no cache directory
+	 */
+	private File getCacheFile(Key key){
+		if(cacheDirectory == null) return null;
+		try{
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getPath().getBytes(StandardCharsets.UTF_8));
+			StringBuilder SB = new StringBuilder();
+			for(byte b:digest){
+				SB.append(String.format("%02x", b & 0xFF));
+			}
+			return new File(cacheDirectory, SB.append(CACHE_FILE_SUFFIX).toString());
+		}
+		catch(NoSuchAlgorithmException ex){
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	public File getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	/**
+	 * Enables the disk cache.  Directory is created if it does not exist.
+	 * @param cacheDirectory directory of the cache files, or null to cache in memory only
+	 * @throws IOException
+	 */
+	public void setCacheDirectory(File cacheDirectory) throws IOException {
+		if(cacheDirectory != null) Files.createDirectories(cacheDirectory.toPath());
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	public long getMaxDiskSize() {
+		return maxDiskSize;
+	}
+
+	/**
+	 * @param maxDiskSize maximum number of bytes of the cache files
+	 */
+	public void setMaxDiskSize(long maxDiskSize) {
+		this.maxDiskSize = maxDiskSize;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Object stream that resolves only the classes of the key and the meta data.  Any other class
+	 * in a cache file fails the read with InvalidClassException.
+	 */
+	private static class SafeObjectInputStream extends ObjectInputStream{
+		private static final Set<String> ALLOWED_CLASSES = new HashSet<String>(Arrays.asList(
+				Key.class.getName(), DtaMetadata.class.getName(), DtaHeader.class.getName(),
+				DtaVariable.class.getName(), DtaValueLabelTable.class.getName(), DtaValueLabelIndex.class.getName(),
+				ArrayList.class.getName(), HashMap.class.getName(), LinkedHashMap.class.getName(),
+				String.class.getName(), Long.class.getName(), Number.class.getName(),
+				int[].class.getName(), long[].class.getName(), String[].class.getName()));
+
+		private SafeObjectInputStream(InputStream in) throws IOException{
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if(!ALLOWED_CLASSES.contains(desc.getName()))
+				throw new InvalidClassException(desc.getName(), "Class is not allowed in a meta data cache file");
+			return super.resolveClass(desc);
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+			throw new InvalidClassException("Proxy classes are not allowed in a meta data cache file");
+		}
+	}
+
+	/**
+	 * Identity of a data file
+	 */
+	public static class Key implements Serializable{
+		private static final long serialVersionUID = -1583127036386151466L;
+
+		private final String path;
+		private final long size;
+		private final long lastModified;
+		private final long headerHash;
+
+		public Key(String path, long size, long lastModified, long headerHash){
+			this.path = path;
+			this.size = size;
+			this.lastModified = lastModified;
+			this.headerHash = headerHash;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public long getHeaderHash() {
+			return headerHash;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = path.hashCode();
+			result = 31 * result + (int)(size ^ (size >>> 32));
+			result = 31 * result + (int)(lastModified ^ (lastModified >>> 32));
+			result = 31 * result + (int)(headerHash ^ (headerHash >>> 32));
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj) return true;
+			if(!(obj instanceof Key)) return false;
+			Key other = (Key)obj;
+			return path.equals(other.path) && size == other.size
+					&& lastModified == other.lastModified && headerHash == other.headerHash;
+		}
+
+		@Override
+		public String toString() {
+			return "Key [path=" + path + ", size=" + size + ", lastModified=" + lastModified + ", headerHash=" + headerHash + "]";
+		}
+	}
+}
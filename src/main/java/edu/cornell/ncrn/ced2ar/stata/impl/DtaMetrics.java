@@ -0,0 +1,63 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+/**
+* This interface receives the measurements of the readers: reads from the data file, decoded
+* observations, and the time spent decoding values and parsing meta data and value labels.
+* Readers report to NOOP unless metrics are set on the StataReaderFactory or the reader.
+*
+* 	read                one read from the data file and the number of bytes read
+* 	rowsDecoded         observations returned by getObservation and cursors
+* 	decoded             time spent converting values of a variable type to Strings, estimated from sampled observations
+* 	metadataParsed      time spent reading the header, variables and, before format 117, value labels of a data file
+* 	valueLabelsParsed   time spent reading value label tables
+*
+* Implementations are called by many threads and must be thread safe.  Calls are made on the
+* hot paths of the readers, so they must be cheap; see DtaMetricsRegistry.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public interface DtaMetrics {
+	/**
+	 * Metrics that discard all the measurements.  Readers skip the timing of decoding when
+	 * their metrics are NOOP.
+	 */
+	public static final DtaMetrics NOOP = new DtaMetrics(){
+		public void read(long bytes){}
+		public void rowsDecoded(long rows){}
+		public void decoded(int kind, long nanos){}
+		public void metadataParsed(long nanos){}
+		public void valueLabelsParsed(long nanos){}
+	};
+
+	/**
+	 * Records one read from the data file
+	 * @param bytes number of bytes read
+	 */
+	public void read(long bytes);
+
+	/**
+	 * @param rows number of observations decoded
+	 */
+	public void rowsDecoded(long rows);
+
+	/**
+	 * @param kind DtaRowLayout kind of the variable type
+	 * @param nanos time spent decoding values of the kind
+	 */
+	public void decoded(int kind, long nanos);
+
+	/**
+	 * @param nanos time spent parsing the meta data of a data file
+	 */
+	public void metadataParsed(long nanos);
+
+	/**
+	 * @param nanos time spent parsing value label tables
+	 */
+	public void valueLabelsParsed(long nanos);
+}
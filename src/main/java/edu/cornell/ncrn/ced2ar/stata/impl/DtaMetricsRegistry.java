@@ -0,0 +1,153 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+* This class keeps the measurements of the readers in memory.  Counters are LongAdders, so
+* threads that report at the same time do not contend; a snapshot sums the counters when it is
+* taken.  Decode time is measured on about 1 in DtaReader.DECODE_SAMPLE_INTERVAL observations and
+* scaled up, so timing costs little even on wide observations.
+*
+* USAGE
+* 	DtaMetricsRegistry registry = new DtaMetricsRegistry();
+* 	factory.setMetrics(registry);
+* 	...
+* 	for(Map.Entry<String,Long> metric:registry.getSnapshot().entrySet()){
+* 		...
+* 	}
+*
+* Snapshot names are bytes_read, io_calls, rows_decoded, decode_nanos.<type>, metadata_nanos,
+* metadata_parses, value_label_nanos and value_label_parses.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaMetricsRegistry implements DtaMetrics {
+	/** names of the DtaRowLayout kinds */
+	private static final String[] KIND_NAMES = {"unknown", "str", "byte", "int", "long", "float", "double", "strL"};
+
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder ioCalls = new LongAdder();
+	private final LongAdder rowsDecoded = new LongAdder();
+	private final LongAdder[] decodeNanos = new LongAdder[KIND_NAMES.length];
+	private final LongAdder metadataNanos = new LongAdder();
+	private final LongAdder metadataParses = new LongAdder();
+	private final LongAdder valueLabelNanos = new LongAdder();
+	private final LongAdder valueLabelParses = new LongAdder();
+
+	public DtaMetricsRegistry(){
+		for(int kind=0;kind<decodeNanos.length;kind++){
+			decodeNanos[kind] = new LongAdder();
+		}
+	}
+
+	@Override
+	public void read(long bytes) {
+		ioCalls.increment();
+		bytesRead.add(bytes);
+	}
+
+	@Override
+	public void rowsDecoded(long rows) {
+		rowsDecoded.add(rows);
+	}
+
+	@Override
+	public void decoded(int kind, long nanos) {
+		decodeNanos[kind >= 0 && kind < decodeNanos.length ? kind : DtaRowLayout.KIND_UNKNOWN].add(nanos);
+	}
+
+	@Override
+	public void metadataParsed(long nanos) {
+		metadataParses.increment();
+		metadataNanos.add(nanos);
+	}
+
+	@Override
+	public void valueLabelsParsed(long nanos) {
+		valueLabelParses.increment();
+		valueLabelNanos.add(nanos);
+	}
+
+	/**
+	 * Returns the current values of all the metrics
+	 * @return values by metric name, in a fixed order
+	 */
+	public Map<String,Long> getSnapshot(){
+		Map<String,Long> snapshot = new LinkedHashMap<String,Long>();
+		snapshot.put("bytes_read", getBytesRead());
+		snapshot.put("io_calls", getIoCalls());
+		snapshot.put("rows_decoded", getRowsDecoded());
+		for(int kind=0;kind<KIND_NAMES.length;kind++){
+			if(kind != DtaRowLayout.KIND_UNKNOWN) snapshot.put("decode_nanos." + KIND_NAMES[kind], getDecodeNanos(kind));
+		}
+		snapshot.put("metadata_nanos", getMetadataNanos());
+		snapshot.put("metadata_parses", getMetadataParses());
+		snapshot.put("value_label_nanos", getValueLabelNanos());
+		snapshot.put("value_label_parses", getValueLabelParses());
+		return snapshot;
+	}
+
+	/**
+	 * Sets all the metrics to 0.  Measurements reported while resetting may be lost.
+	 */
+	public void reset(){
+		bytesRead.reset();
+		ioCalls.reset();
+		rowsDecoded.reset();
+		for(LongAdder nanos:decodeNanos){
+			nanos.reset();
+		}
+		metadataNanos.reset();
+		metadataParses.reset();
+		valueLabelNanos.reset();
+		valueLabelParses.reset();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	public long getIoCalls() {
+		return ioCalls.sum();
+	}
+
+	public long getRowsDecoded() {
+		return rowsDecoded.sum();
+	}
+
+	/**
+	 * @param kind DtaRowLayout kind of the variable type
+	 * @return estimated time spent decoding values of the kind
+	 */
+	public long getDecodeNanos(int kind) {
+		return decodeNanos[kind].sum();
+	}
+
+	public long getMetadataNanos() {
+		return metadataNanos.sum();
+	}
+
+	public long getMetadataParses() {
+		return metadataParses.sum();
+	}
+
+	public long getValueLabelNanos() {
+		return valueLabelNanos.sum();
+	}
+
+	public long getValueLabelParses() {
+		return valueLabelParses.sum();
+	}
+
+	@Override
+	public String toString() {
+		return "DtaMetricsRegistry " + getSnapshot();
+	}
+}
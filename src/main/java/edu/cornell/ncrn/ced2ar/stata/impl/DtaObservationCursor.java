@@ -0,0 +1,221 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import edu.cornell.ncrn.ced2ar.stata.StataCursor;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.DataAccessMode;
+
+/**
+* This class is a cursor over a range of observations.
+* The cursor reads the observations sequentially through its own block scanner, so
+* many observations are read with each read from the data file. When the reader is memory mapped
+* observations are decoded from the mapped data section and no file is opened.
+*
+* strL variables are resolved through a channel of the cursor, acquired from the file handle pool of
+* the reader if it has one.
+*
+* Cursor does not share the file pointer of the reader. Several cursors can be open on
+* the same reader at the same time.
+*
+* Returned observations are counted and reported to the metrics of the reader every
+* ROWS_REPORTED observations and when the cursor is closed.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaObservationCursor implements StataCursor {
+	public static final int ROWS_REPORTED = 1024;
+
+	private final DtaReader dtaReader;
+	private final DtaMetrics metrics;
+	private long rowsDecoded;
+	private final long end;
+	private long observationNumber;
+	private long returnedObservationNumber;
+	private DtaBlockScanner blockScanner;
+	private DtaMappedDataSection mappedDataSection;
+	private final DtaRowView fullRowView;
+	private DtaRowView rowView;
+	private DtaFilter filter;
+	private FileChannel strLChannel;
+	private DtaFileHandlePool.Handle strLHandle;
+	private boolean positioned;
+	private boolean closed;
+
+	/**
+	 * Opens a cursor over observations start to end (both inclusive) of the reader.
+	 * Range is limited to the observations available in the data file.
+	 * @param dtaReader
+	 * @param start
+	 * @param end
+	 * @throws IOException
+	 */
+	public DtaObservationCursor(DtaReader dtaReader, long start, long end) throws IOException{
+		this.dtaReader = dtaReader;
+		this.metrics = dtaReader.getMetrics();
+		this.fullRowView = new DtaRowView(dtaReader.getRowLayout());
+		this.rowView = new DtaRowView(dtaReader.getSelectedRowLayout());
+		fullRowView.setStringDecoder(new DtaStringDecoder(dtaReader.getCharset(), false));
+		rowView.setStringDecoder(dtaReader.newStringDecoder());
+		this.observationNumber = Math.max(start, 1)-1;
+		this.end = Math.min(end, dtaReader.getDtaHeader().getNumberOfObservations());
+		if(observationNumber >= this.end) return;
+
+		try{
+			if(dtaReader.getStrLIndex() != null && fullRowView.getRowLayout().hasStrLs()){
+				if(dtaReader.getFileHandlePool() != null){
+					strLHandle = dtaReader.getFileHandlePool().acquire(dtaReader.getDataFile());
+					strLChannel = strLHandle.getChannel();
+				}
+				else{
+					strLChannel = FileChannel.open(Paths.get(dtaReader.getDataFile()), StandardOpenOption.READ);
+				}
+				fullRowView.setStrLs(dtaReader.getStrLIndex(), strLChannel);
+				rowView.setStrLs(dtaReader.getStrLIndex(), strLChannel);
+			}
+
+			if(dtaReader.getDataAccessMode() == DataAccessMode.MEMORY_MAPPED){
+				mappedDataSection = dtaReader.getMappedDataSection();
+			}
+			else{
+				blockScanner = dtaReader.openBlockScanner(observationNumber+1, this.end);
+			}
+		}
+		catch(IOException | RuntimeException ex){
+			// the data section could not be opened; release the strL channel before rethrowing
+			closeStrLChannel(ex);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Moves to the next observation that satisfies the filter, if it is not already there.
+	 */
+	@Override
+	public boolean hasNext() {
+		if(closed) return false;
+		if(positioned) return true;
+		while(observationNumber < end){
+			moveToNextObservation();
+			if(filter == null || filter.accept(fullRowView)){
+				positioned = true;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public List<String> next() {
+		return dtaReader.decodeObservation(nextRowView());
+	}
+
+	@Override
+	public DtaRowView nextRowView() {
+		if(!hasNext()) throw new NoSuchElementException();
+		positioned = false;
+		returnedObservationNumber = observationNumber;
+		if(++rowsDecoded == ROWS_REPORTED){
+			metrics.rowsDecoded(rowsDecoded);
+			rowsDecoded = 0;
+		}
+		return rowView.position(fullRowView.getBuffer(), fullRowView.getOffset());
+	}
+
+	/**
+	 * Positions the full row view over the next observation of the range
+	 */
+	private void moveToNextObservation(){
+		observationNumber++;
+		if(mappedDataSection != null){
+			fullRowView.position(mappedDataSection.getWindow(observationNumber),
+					mappedDataSection.getObservationOffset(observationNumber));
+			return;
+		}
+		try{
+			blockScanner.next();
+		}
+		catch(IOException ex){
+			throw new UncheckedIOException("Unable to read observation " + observationNumber, ex);
+		}
+		fullRowView.position(blockScanner.getBuffer(), blockScanner.getObservationOffset());
+	}
+
+	/**
+	 * Returns the block scanner used by this cursor. 
+	 * Returns null if the observations are read from the mapped data section. 
+	 * @return
+	 */
+	public DtaBlockScanner getBlockScanner() {
+		return blockScanner;
+	}
+
+	@Override
+	public StataCursor select(String... variableNames) {
+		rowView = new DtaRowView(variableNames.length == 0 ? dtaReader.getRowLayout() : dtaReader.projectRowLayout(variableNames));
+		rowView.setStringDecoder(dtaReader.newStringDecoder());
+		if(strLChannel != null) rowView.setStrLs(dtaReader.getStrLIndex(), strLChannel);
+		return this;
+	}
+
+	@Override
+	public StataCursor where(String filterExpression) {
+		return where(DtaFilter.compile(filterExpression, dtaReader));
+	}
+
+	/**
+	 * Skips the observations that do not satisfy the filter. 
+	 * Filter is evaluated over all the variables of the observation.
+	 * @param filter compiled filter, or null to return all the observations
+	 * @return this cursor
+	 */
+	public StataCursor where(DtaFilter filter) {
+		this.filter = filter;
+		return this;
+	}
+
+	/**
+	 * Returns the observation number of the observation last returned by next().
+	 * Observations skipped by the filter are not returned.
+	 */
+	@Override
+	public long getObservationNumber() {
+		return returnedObservationNumber;
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		if(rowsDecoded > 0){
+			metrics.rowsDecoded(rowsDecoded);
+			rowsDecoded = 0;
+		}
+		if(blockScanner != null) blockScanner.close();
+		if(strLHandle != null) strLHandle.close();
+		else if(strLChannel != null) strLChannel.close();
+	}
+
+	/**
+	 * Releases the strL handle or closes the strL channel. Errors are added to the exception being thrown.
+	 * @param ex exception being thrown
+	 */
+	private void closeStrLChannel(Exception ex){
+		try{
+			if(strLHandle != null) strLHandle.close();
+			else if(strLChannel != null) strLChannel.close();
+		}
+		catch(IOException closeEx){
+			ex.addSuppressed(closeEx);
+		}
+	}
+}
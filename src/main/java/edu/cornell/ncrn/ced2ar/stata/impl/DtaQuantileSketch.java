@@ -0,0 +1,297 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.util.Arrays;
+
+/**
+* This class is a streaming quantile sketch (KLL) of the values of a numeric variable.
+* Values are kept in a stack of compactors.  A value added to the sketch goes to level 0; when a
+* level is full it is sorted and every other value, starting at a random offset, is promoted to the
+* next level where it stands for twice as many values.  Capacity of a level shrinks by 2/3 per level
+* below the top level, so the sketch retains about 3k values however many values are added.
+*
+* Memory is bounded by k.  Rank error is about 1.7% of the number of values for the default k of 200
+* and falls as 1/k.  Sketches of different ranges of observations are merged by adding their levels
+* and compacting, which keeps the same error bound.
+*
+* USAGE
+* 	DtaQuantileSketch sketch = new DtaQuantileSketch(400);
+* 	sketch.add(value);
+* 	double median = sketch.getQuantile(0.5);
+*
+* Min and max are exact.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaQuantileSketch {
+	public static final int DEFAULT_K = 200;
+	private static final double CAPACITY_RATIO = 2.0 / 3.0;
+
+	private final int k;
+	private double[][] levels;
+	private int[] sizes;
+	private int[] capacities;
+	private int retained;
+	private int capacity;
+	private long count;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+	private long random = 0x9E3779B97F4A7C15L;
+
+	public DtaQuantileSketch(){
+		this(DEFAULT_K);
+	}
+
+	/**
+	 * @param k capacity of the top level; the sketch retains about 3k values
+	 */
+	public DtaQuantileSketch(int k){
+		if(k < 8)
+			throw new IllegalArgumentException("k must be at least 8. Found " + k);
+		this.k = k;
+		levels = new double[][]{new double[k]};
+		sizes = new int[1];
+		computeCapacities();
+	}
+
+	/**
+	 * Adds a value
+	 * @param value
+	 */
+	public void add(double value){
+		if(Double.isNaN(value)) return;
+		if(count == 0){
+			min = value;
+			max = value;
+		}
+		else{
+			if(value < min) min = value;
+			if(value > max) max = value;
+		}
+		count++;
+		append(0, value);
+		if(retained >= capacity) compress();
+	}
+
+	/**
+	 * Adds the values of an other sketch.  The other sketch is not changed.
+	 * @param other
+	 */
+	public void merge(DtaQuantileSketch other){
+		if(other.count == 0) return;
+		if(count == 0){
+			min = other.min;
+			max = other.max;
+		}
+		else{
+			if(other.min < min) min = other.min;
+			if(other.max > max) max = other.max;
+		}
+		count += other.count;
+		while(levels.length < other.levels.length){
+			addLevel();
+		}
+		for(int level=0;level<other.levels.length;level++){
+			for(int i=0;i<other.sizes[level];i++){
+				append(level, other.levels[level][i]);
+			}
+		}
+		while(retained >= capacity){
+			compress();
+		}
+	}
+
+	/**
+	 * Returns the value of rank q
+	 * @param q between 0 and 1; 0.5 is the median
+	 * @return approximate quantile, or NaN if the sketch is empty
+	 */
+	public double getQuantile(double q){
+		if(count == 0) return Double.NaN;
+		if(q <= 0) return min;
+		if(q >= 1) return max;
+		SortedView view = getSortedView();
+		double target = q * view.totalWeight;
+		for(int i=0;i<view.values.length;i++){
+			if(view.cumulativeWeights[i] >= target) return view.values[i];
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the values of the ranks
+	 * @param qs ranks between 0 and 1
+	 * @return approximate quantiles, in the order of the ranks
+	 */
+	public double[] getQuantiles(double... qs){
+		double[] quantiles = new double[qs.length];
+		if(count == 0){
+			Arrays.fill(quantiles, Double.NaN);
+			return quantiles;
+		}
+		SortedView view = getSortedView();
+		for(int j=0;j<qs.length;j++){
+			if(qs[j] <= 0){
+				quantiles[j] = min;
+				continue;
+			}
+			double target = qs[j] * view.totalWeight;
+			quantiles[j] = max;
+			for(int i=0;i<view.values.length;i++){
+				if(view.cumulativeWeights[i] >= target){
+					quantiles[j] = view.values[i];
+					break;
+				}
+			}
+		}
+		return quantiles;
+	}
+
+	/**
+	 * Returns the fraction of the values that are less than or equal to the value
+	 * @param value
+	 * @return approximate rank between 0 and 1, or NaN if the sketch is empty
+	 */
+	public double getRank(double value){
+		if(count == 0) return Double.NaN;
+		SortedView view = getSortedView();
+		long weight = 0;
+		for(int i=0;i<view.values.length && view.values[i] <= value;i++){
+			weight = view.cumulativeWeights[i];
+		}
+		return (double)weight / view.totalWeight;
+	}
+
+	public double getMedian(){
+		return getQuantile(0.5);
+	}
+
+	/**
+	 * Sorts the lowest full level and promotes every other value to the next level
+	 */
+	private void compress(){
+		for(int level=0;level<levels.length;level++){
+			if(sizes[level] < capacities[level]) continue;
+			if(level + 1 == levels.length) addLevel();
+			double[] values = levels[level];
+			int size = sizes[level];
+			Arrays.sort(values, 0, size);
+			int kept = size % 2;
+			random ^= random << 13;
+			random ^= random >>> 7;
+			random ^= random << 17;
+			int offset = (int)(random & 1);
+			sizes[level] = kept;
+			retained -= size - kept;
+			for(int i=kept+offset;i<size;i+=2){
+				append(level + 1, values[i]);
+			}
+			return;
+		}
+	}
+
+	private void append(int level, double value){
+		if(sizes[level] == levels[level].length){
+			levels[level] = Arrays.copyOf(levels[level], Math.max(8, levels[level].length * 2));
+		}
+		levels[level][sizes[level]++] = value;
+		retained++;
+	}
+
+	private void addLevel(){
+		levels = Arrays.copyOf(levels, levels.length + 1);
+		sizes = Arrays.copyOf(sizes, sizes.length + 1);
+		levels[levels.length - 1] = new double[8];
+		computeCapacities();
+	}
+
+	/**
+	 * Capacity of the top level is k; each level below holds 2/3 of the level above it, and at least 2
+	 */
+	private void computeCapacities(){
+		capacities = new int[levels.length];
+		capacity = 0;
+		for(int level=0;level<levels.length;level++){
+			int depth = levels.length - 1 - level;
+			capacities[level] = Math.max(2, (int)Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+			capacity += capacities[level];
+		}
+	}
+
+	/**
+	 * Returns the retained values in ascending order with their cumulative weights.
+	 * A value at level h stands for 2^h values.
+	 * @return
+	 */
+	private SortedView getSortedView(){
+		double[] values = new double[0];
+		long[] weights = new long[0];
+		for(int level=0;level<levels.length;level++){
+			double[] levelValues = Arrays.copyOf(levels[level], sizes[level]);
+			Arrays.sort(levelValues);
+			double[] mergedValues = new double[values.length + levelValues.length];
+			long[] mergedWeights = new long[mergedValues.length];
+			int i = 0, j = 0, m = 0;
+			while(i < values.length || j < levelValues.length){
+				if(j == levelValues.length || (i < values.length && values[i] <= levelValues[j])){
+					mergedValues[m] = values[i];
+					mergedWeights[m++] = weights[i++];
+				}
+				else{
+					mergedValues[m] = levelValues[j++];
+					mergedWeights[m++] = 1L << level;
+				}
+			}
+			values = mergedValues;
+			weights = mergedWeights;
+		}
+		long totalWeight = 0;
+		for(int i=0;i<weights.length;i++){
+			totalWeight += weights[i];
+			weights[i] = totalWeight;
+		}
+		return new SortedView(values, weights, totalWeight);
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	/**
+	 * @return number of values added
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return number of values retained by the sketch
+	 */
+	public int getRetained() {
+		return retained;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	private static class SortedView{
+		private final double[] values;
+		private final long[] cumulativeWeights;
+		private final long totalWeight;
+
+		private SortedView(double[] values, long[] cumulativeWeights, long totalWeight){
+			this.values = values;
+			this.cumulativeWeights = cumulativeWeights;
+			this.totalWeight = totalWeight;
+		}
+	}
+}
@@ -1,16 +1,26 @@
 package edu.cornell.ncrn.ced2ar.stata.impl;
-import java.io.File;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.apache.log4j.Logger;
 
+import edu.cornell.ncrn.ced2ar.stata.StataCursor;
 import edu.cornell.ncrn.ced2ar.stata.exceptions.InvalidDtaFormatException;
 
 /**
@@ -41,6 +51,12 @@ import edu.cornell.ncrn.ced2ar.stata.exceptions.InvalidDtaFormatException;
 
 public  abstract class DtaReader{
 	private static final Logger logger = Logger.getLogger(DtaReader.class);
+
+	/** decoding of about 1 in DECODE_SAMPLE_INTERVAL observations is timed when metrics are set */
+	public static final int DECODE_SAMPLE_INTERVAL = 64;
+
+	/** positional reads of an observation are attempted at most MAX_READ_ATTEMPTS times when the shared channel is closed under them */
+	public static final int MAX_READ_ATTEMPTS = 4;
 	
 	public enum VALID_BYTE_VALUES{
 		MIN_VALUE((byte)-127),
@@ -102,18 +118,47 @@ public  abstract class DtaReader{
 		}
 	}
 
+	/**
+	 * Describes how the observations are read from the data section.
+	 * RANDOM_ACCESS_FILE reads each observation from the file with a single read.
+	 * MEMORY_MAPPED maps the data section and decodes observations from the mapped memory.
+	 * POSITIONAL_READ reads each observation with a positional read of one channel that stays open
+	 * and is shared by all the threads; getObservation can be called by many threads at the same time.
+	 */
+	public enum DataAccessMode{
+		RANDOM_ACCESS_FILE,
+		MEMORY_MAPPED,
+		POSITIONAL_READ
+	}
+
 	protected String dataFile;
-	protected RandomAccessFile stataDataRAF;
+	protected DtaChannelInput stataDataInput;
+	protected DataAccessMode dataAccessMode = DataAccessMode.RANDOM_ACCESS_FILE;
+	protected DtaMappedDataSection mappedDataSection;
+	protected volatile FileChannel dataChannel;
+	protected DtaFileHandlePool fileHandlePool;
+	protected volatile DtaFileHandlePool.Handle dataHandle;
+	private final ConcurrentLinkedQueue<PositionalRead> positionalReads = new ConcurrentLinkedQueue<PositionalRead>();
+	private final ConcurrentLinkedQueue<DtaRowView> rowViews = new ConcurrentLinkedQueue<DtaRowView>();
+	protected int scanBlockSize = DtaBlockScanner.DEFAULT_BLOCK_SIZE;
+	protected int prefetchDepth;
+	protected boolean stringDeduplication;
+	protected DtaMetrics metrics = DtaMetrics.NOOP;
 	protected DtaHeader dtaHeader;
 	protected List<DtaVariable> dtaVariables;
+	protected HashMap<String,DtaValueLabelTable> valueLabelTables = new HashMap<String,DtaValueLabelTable>();
+	protected DtaValueLabelIndex valueLabelIndex;
+	protected volatile DtaRowLayout rowLayout;
+	protected DtaRowLayout selectedRowLayout;
 	
 	/**
-	 * This method opens STATA data file 
+	 * This method opens STATA data file.  With a file handle pool the data file is read through
+	 * a channel of the pool.
 	 * @throws IOException
 	 */
 	public void openDtaFile() throws IOException{
 		try{
-			stataDataRAF = new RandomAccessFile(new File(dataFile),"r");
+			stataDataInput = DtaChannelInput.open(dataFile, fileHandlePool, metrics);
 		}
 		catch(IOException ex){
 			throw ex;
@@ -125,35 +170,68 @@ public  abstract class DtaReader{
 	 * @throws IOException
 	 */
 	public void closeDtaFile() throws IOException{
-		if(stataDataRAF !=null) stataDataRAF.close();
+		DtaChannelInput input = stataDataInput;
+		if(input !=null){
+			stataDataInput = null;
+			input.close();
+		}
+		positionalReads.clear();
+		FileChannel channel = dataChannel;
+		if(channel != null){
+			dataChannel = null;
+			channel.close();
+		}
+		DtaFileHandlePool.Handle handle = dataHandle;
+		if(handle != null){
+			dataHandle = null;
+			handle.close();
+		}
 	}
 
 	
 	/**
-	 * This method returns the length of observation by adding  
-	 * all the variable data type lengths
+	 * Limits the observations returned by this reader to the selected variables.
+	 * Values of an observation are returned in the order of the variable names.
+	 * Variables that are not selected are not decoded.
+	 * Calling select without variable names selects all the variables.
+	 * @param variableNames
+	 */
+	public void select(String... variableNames){
+		selectedRowLayout = variableNames.length == 0 ? null : projectRowLayout(variableNames);
+	}
+
+	/**
+	 * Returns the layout of the variables of the given names
+	 * @param variableNames
+	 * @return projected row layout
+	 */
+	public DtaRowLayout projectRowLayout(String... variableNames){
+		int[] columns = new int[variableNames.length];
+		for(int i=0;i<variableNames.length;i++){
+			columns[i] = getVariableIndex(variableNames[i]);
+			if(columns[i] < 0)
+				throw new IllegalArgumentException("Unknown variable " + variableNames[i]);
+		}
+		return getRowLayout().project(columns);
+	}
+
+	/**
+	 * Returns the layout of the selected variables. 
+	 * Returns the layout of all the variables if no variables are selected.
+	 * @return
+	 */
+	public DtaRowLayout getSelectedRowLayout(){
+		DtaRowLayout layout = selectedRowLayout;
+		return layout == null ? getRowLayout() : layout;
+	}
+
+	/**
+	 * This method returns the length of observation.  
+	 * Length is the sum of the widths of all the variables in the row layout
 	 * @return long 
 	 */
 	public long getObservationLength(){
-		long lengthOfObservation = 0;
-		for(DtaVariable dtaVariable:dtaVariables){
-			if(dtaVariable.isByte()){
-				lengthOfObservation++;
-			}
-			else if(dtaVariable.isInt()){
-				lengthOfObservation+=2;
-			}
-			else if(dtaVariable.isLong() || dtaVariable.isFloat()){
-				lengthOfObservation+=4;
-			}
-			else if(dtaVariable.isDouble()){
-				lengthOfObservation+=8;
-			}
-			else{
-				lengthOfObservation+=dtaVariable.getVariableType();
-			}
-		}
-		return lengthOfObservation;
+		return getRowLayout().getObservationLength();
 	}
 
 	/**
@@ -162,14 +240,13 @@ public  abstract class DtaReader{
 	 * @throws IOException
 	 */
 	public void dumpData() throws IOException{
-		try{
-			openDtaFile();
-			for(long l=1;l<=dtaHeader.getNumberOfObservations();l++){
-				logger.debug(getObservationAsCSV(readObservation(l))+"\n");
+		try(StataCursor cursor = openCursor(1, dtaHeader.getNumberOfObservations())){
+			while(cursor.hasNext()){
+				logger.debug(getObservationAsCSV(cursor.next())+"\n");
 			}
 		}
-		finally{
-			this.closeDtaFile();
+		catch(UncheckedIOException ex){
+			throw ex.getCause();
 		}
 	}
 
@@ -179,26 +256,29 @@ public  abstract class DtaReader{
 	 * @throws IOException
 	 */
 	public List<List<String>> getObservations() throws IOException {
-		try{
-			openDtaFile();
-			List<List<String>> observations = new ArrayList<List<String>>();
-			for(long l=1;l<=dtaHeader.getNumberOfObservations();l++){
-				observations.add(readObservation(l));
-			}
-			return observations;
-		}
-		finally{
-			closeDtaFile();
-		}
+		return getObservations(1, dtaHeader.getNumberOfObservations());
 	}
 
 	/**
 	 * returns one observation as a CSV string.   
+	 * With a file handle pool, RANDOM_ACCESS_FILE mode reads the observation through a channel of the pool
+	 * instead of opening the file.
 	 * @param observationNumber
 	 * @return CSV formatted string if the observationNumber is valid. An Empty string otherwise.
 	 * @throws IOException
 	 */
 	public List<String> getObservation(long observationNumber) throws IOException {
+		if(dataAccessMode == DataAccessMode.POSITIONAL_READ){
+			return readObservation(observationNumber);
+		}
+		if(dataAccessMode == DataAccessMode.RANDOM_ACCESS_FILE && fileHandlePool != null){
+			if(observationNumber <=0 || observationNumber > dtaHeader.getNumberOfObservations()){
+				return new ArrayList<String>();
+			}
+			try(DtaFileHandlePool.Handle handle = fileHandlePool.acquire(dataFile)){
+				return readObservationPositional(observationNumber, handle);
+			}
+		}
 		try{
 			openDtaFile();
 			return readObservation(observationNumber);
@@ -237,131 +317,528 @@ public  abstract class DtaReader{
 	/**
 	 * Returns a string containing observation values in CSV format.
 	 * Returns an empty string if the observation number is invalid
-	 * This method is format specific 
+	 * Observation is read from the file or from the mapped data section 
+	 * depending upon the data access mode.
 	 * @param observationNumber
 	 * @return An Observation in CSV format;
 	 * @throws IOException
 	 */
 	protected List<String> readObservation(long observationNumber) throws IOException{
-		List<String> observation = new ArrayList<String>();
 		if(observationNumber <=0 || observationNumber > dtaHeader.getNumberOfObservations()){
-			return observation;
+			return new ArrayList<String>();
 		}
-		else{
-			move2ObservationStart(observationNumber);
+		if(dataAccessMode == DataAccessMode.MEMORY_MAPPED){
+			DtaMappedDataSection mappedDataSection = getMappedDataSection();
+			metrics.rowsDecoded(1);
+			return decodeObservation(mappedDataSection.getWindow(observationNumber), 
+					mappedDataSection.getObservationOffset(observationNumber));
 		}
 		
-		for(DtaVariable dtaVariable : dtaVariables){
-			int variableType = dtaVariable.getVariableType();
-			if(dtaVariable.isString()){
-				byte b[] = new byte[variableType];
-				stataDataRAF.read(b);
-				observation.add(getStringValue(b));
-			}
-			else if(dtaVariable.isByte()){
-				byte b[] = new byte[1];
-				stataDataRAF.read(b);
-				int  intValue =getByteValue(b[0], dtaHeader.isLittleEndian());
-				if(intValue >= VALID_BYTE_VALUES.MIN_VALUE.value && intValue <= VALID_BYTE_VALUES.MAX_VALUE.value){
-					observation.add(""+intValue);
-				}
-				else{
-					observation.add(".");
-					//SB.append(".,");
-				}
+		if(dataAccessMode == DataAccessMode.POSITIONAL_READ){
+			return readObservationPositional(observationNumber, null);
+		}
+
+		move2ObservationStart(observationNumber);
+		byte b[] = new byte[(int)getObservationLength()];
+		stataDataInput.readFully(b);
+		ByteBuffer observationBuffer = ByteBuffer.wrap(b);
+		observationBuffer.order(dtaHeader.isLittleEndian()?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN);
+		metrics.rowsDecoded(1);
+		return decodeObservation(observationBuffer, 0);
+	}
+
+	/**
+	 * Decodes one observation starting at the offset of the buffer. 
+	 * Buffer is expected to be ordered by the byte order of the data file.
+	 * Only absolute gets are used; position of the buffer is not changed.
+	 * strL variables are read through the open data file.
+	 * @param buffer 
+	 * @param offset position of the first byte of the observation in the buffer
+	 * @return observation as a list of Strings
+	 */
+	protected List<String> decodeObservation(ByteBuffer buffer, int offset){
+		try{
+			return decodeObservation(buffer, offset, stataDataInput == null ? null : stataDataInput.getChannel());
+		}
+		catch(IOException ex){
+			throw new UncheckedIOException("Unable to read strLs of " + dataFile, ex);
+		}
+	}
+
+	/**
+	 * Decodes one observation starting at the offset of the buffer. strL variables are read through the channel. 
+	 * The row view is taken from the idle ones of this reader and given back after the observation is decoded,
+	 * so that getObservation does not allocate a row view per observation.
+	 * @param buffer 
+	 * @param offset position of the first byte of the observation in the buffer
+	 * @param strLChannel channel of the data file
+	 * @return observation as a list of Strings
+	 */
+	protected List<String> decodeObservation(ByteBuffer buffer, int offset, FileChannel strLChannel){
+		DtaRowLayout layout = getSelectedRowLayout();
+		DtaRowView rowView = rowViews.poll();
+		if(rowView == null || rowView.getRowLayout() != layout){
+			rowView = new DtaRowView(layout);
+			rowView.setStringDecoder(new DtaStringDecoder(getCharset(), false));
+		}
+		try{
+			rowView.position(buffer, offset);
+			if(layout.hasStrLs() && getStrLIndex() != null) rowView.setStrLs(getStrLIndex(), strLChannel);
+			return decodeObservation(rowView);
+		}
+		finally{
+			rowViews.offer(rowView);
+		}
+	}
+
+	/**
+	 * Converts the observation the row view is positioned over to a list of Strings.
+	 * Missing values are returned as "."
+	 * When metrics are set, decoding of about 1 in DECODE_SAMPLE_INTERVAL observations is timed by
+	 * variable type and reported scaled up by DECODE_SAMPLE_INTERVAL.
+	 * @param rowView 
+	 * @return observation as a list of Strings
+	 */
+	protected List<String> decodeObservation(DtaRowView rowView){
+		DtaRowLayout rowLayout = rowView.getRowLayout();
+		int numberOfVariables = rowLayout.getNumberOfVariables();
+		List<String> observation = new ArrayList<String>(numberOfVariables);
+		if(metrics != DtaMetrics.NOOP && ThreadLocalRandom.current().nextInt(DECODE_SAMPLE_INTERVAL) == 0){
+			long[] nanos = new long[DtaRowLayout.KIND_STRL + 1];
+			long time = System.nanoTime();
+			for(int i=0;i<numberOfVariables;i++){
+				int kind = rowLayout.getKind(i);
+				decodeValue(rowView, i, kind, observation);
+				long now = System.nanoTime();
+				nanos[kind] += now - time;
+				time = now;
 			}
-			else if(dtaVariable.isInt()){ // two byte stata-integer is a short in java
-				byte b[] = new byte[2];
-				stataDataRAF.read(b);
-				int  intValue =getShortValue(b, dtaHeader.isLittleEndian());
-				if(intValue >= VALID_INT_VALUES.MIN_VALUE.value && intValue <= VALID_INT_VALUES.MAX_VALUE.value){
-					observation.add(""+intValue);
-					//SB.append(intValue+",");	
-				}
-				else{
-					observation.add(".");
-					//SB.append(".,");
-				}
+			for(int kind=0;kind<nanos.length;kind++){
+				if(nanos[kind] > 0) metrics.decoded(kind, nanos[kind] * DECODE_SAMPLE_INTERVAL);
 			}
-			else if(dtaVariable.isLong()){ // 4 byte stata-long is an integer in java
-				byte b[] = new byte[4];
-				stataDataRAF.read(b);
-				int  intValue =getIntValue(b, dtaHeader.isLittleEndian());
-				if(intValue >= VALID_LONG_VALUES.MIN_VALUE.value && intValue <= VALID_LONG_VALUES.MAX_VALUE.value){
-					observation.add(""+intValue);
-					//SB.append(intValue+",");	
+			return observation;
+		}
+		for(int i=0;i<numberOfVariables;i++){
+			decodeValue(rowView, i, rowLayout.getKind(i), observation);
+		}
+		return observation;
+	}
+
+	/**
+	 * Adds the value of a variable of the observation to the list
+	 * @param rowView
+	 * @param i index of the variable in the row layout
+	 * @param kind kind of the variable
+	 * @param observation
+	 */
+	private void decodeValue(DtaRowView rowView, int i, int kind, List<String> observation){
+		if(kind == DtaRowLayout.KIND_STRING || kind == DtaRowLayout.KIND_STRL){
+			observation.add(rowView.getString(i));
+		}
+		else if(kind == DtaRowLayout.KIND_UNKNOWN){
+			logger.info("Unable to find the datatype");
+		}
+		else if(rowView.isMissing(i)){
+			observation.add(".");
+		}
+		else if(kind == DtaRowLayout.KIND_FLOAT){
+			observation.add(Float.toString(rowView.getFloat(i)));
+		}
+		else if(kind == DtaRowLayout.KIND_DOUBLE){
+			observation.add(Double.toString(rowView.getDouble(i)));
+		}
+		else{
+			observation.add(Integer.toString(rowView.getInt(i)));
+		}
+	}
+
+	/**
+	 * Returns the layout of an observation. Layout is built on the first call, after 
+	 * the variables are read, and is reused by all the subsequent calls.
+	 * @return row layout
+	 */
+	public DtaRowLayout getRowLayout(){
+		DtaRowLayout layout = rowLayout;
+		if(layout == null){
+			layout = new DtaRowLayout(dtaVariables);
+			rowLayout = layout;
+		}
+		return layout;
+	}
+
+	/**
+	 * Returns the mapped data section.  Data section is mapped on the first call 
+	 * and the mapping is reused by all the subsequent calls.
+	 * @return mapped data section
+	 * @throws IOException
+	 */
+	public synchronized DtaMappedDataSection getMappedDataSection() throws IOException{
+		if(mappedDataSection == null){
+			mappedDataSection = new DtaMappedDataSection(dataFile,getStartOfObservations(),getObservationLength(),
+					dtaHeader.getNumberOfObservations(),dtaHeader.isLittleEndian());
+		}
+		return mappedDataSection;
+	}
+
+	/**
+	 * Returns the channel used by POSITIONAL_READ mode.  Channel is opened, or acquired from the 
+	 * file handle pool, on the first call and is shared by all the threads until closeDtaFile is called. 
+	 * Only positional reads are made, so the position of the channel is never changed.
+	 * @return channel of the data file
+	 * @throws IOException
+	 */
+	public FileChannel getDataChannel() throws IOException{
+		DtaFileHandlePool.Handle handle = dataHandle;
+		if(handle != null) return handle.getChannel();
+		FileChannel channel = dataChannel;
+		if(channel == null){
+			synchronized(this){
+				if(fileHandlePool != null){
+					if(dataHandle == null) dataHandle = fileHandlePool.acquire(dataFile);
+					return dataHandle.getChannel();
 				}
-				else{
-					observation.add(".");
-					//SB.append(".,");
+				channel = dataChannel;
+				if(channel == null){
+					channel = FileChannel.open(Paths.get(dataFile), StandardOpenOption.READ);
+					dataChannel = channel;
 				}
 			}
-			else if(dtaVariable.isFloat()){
-				byte b[] = new byte[4];
-				stataDataRAF.read(b);
-				float f;
-				if(dtaHeader.isLittleEndian())
-					f = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getFloat();
-				else
-					f = ByteBuffer.wrap(b).order(ByteOrder.BIG_ENDIAN).getFloat();
-				
-				if(f >= VALID_FLOAT_VALUES.MIN_VALUE.value && f <= VALID_FLOAT_VALUES.MAX_VALUE.value){
-					observation.add(""+f);
-					//SB.append(f+",");	
-				}
-				else{
-					observation.add(".");
-					//SB.append(".,");
+		}
+		return channel;
+	}
+
+	/**
+	 * Reads the observation with a positional read of the data channel, or the channel of the handle, 
+	 * and decodes it; strL variables are read through the same channel.  The buffer, row view and
+	 * string decoder are taken from the idle ones of this reader and given back after the read, so
+	 * each thread reading at the same time has its own and none are allocated per observation.
+	 * A channel is closed when a thread reading from it is interrupted, so interrupted threads do not read,
+	 * and a channel closed under a read is replaced and the observation is read again, so that the other
+	 * threads can continue to read.
+	 * @param observationNumber valid observation number
+	 * @param handle handle of the file handle pool, or null to read the data channel
+	 * @return observation as a list of Strings
+	 * @throws IOException
+	 */
+	private List<String> readObservationPositional(long observationNumber, DtaFileHandlePool.Handle handle) throws IOException{
+		DtaRowLayout layout = getSelectedRowLayout();
+		PositionalRead read = positionalReads.poll();
+		if(read == null || read.rowView.getRowLayout() != layout) read = new PositionalRead(layout);
+		ByteBuffer observationBuffer = read.buffer;
+		long position = getStartOfObservations() + (observationNumber-1)*getObservationLength();
+		try{
+			for(int attempt=1;;attempt++){
+				if(Thread.currentThread().isInterrupted())
+					throw new InterruptedIOException("Interrupted before reading observation " + observationNumber + " of " + dataFile);
+				FileChannel channel = handle == null ? getDataChannel() : handle.getChannel();
+				try{
+					observationBuffer.clear();
+					while(observationBuffer.hasRemaining()){
+						int n = channel.read(observationBuffer, position + observationBuffer.position());
+						if(n < 0) throw new EOFException("Data section ends before observation " + observationNumber);
+						metrics.read(n);
+					}
+					if(layout.hasStrLs() && getStrLIndex() != null) read.rowView.setStrLs(getStrLIndex(), channel);
+					List<String> observation = decodeObservation(read.rowView);
+					metrics.rowsDecoded(1);
+					return observation;
 				}
-			}
-			else if(dtaVariable.isDouble()){
-				byte b[] = new byte[8];
-				stataDataRAF.read(b);
-				double d;
-				if(dtaHeader.isLittleEndian())
-					d = ByteBuffer.wrap(b).order(ByteOrder.LITTLE_ENDIAN).getDouble();
-				else
-					d = ByteBuffer.wrap(b).order(ByteOrder.BIG_ENDIAN).getDouble();
-
-				if(d >= MISSING_DOUBLE_VALUES.MIN_VALUE.value && d <= MISSING_DOUBLE_VALUES.MAX_VALUE.value){
-					observation.add(".");
-					//SB.append(".,");
+				catch(ClosedChannelException ex){
+					replaceDataChannel(channel, ex, attempt);
 				}
-				else{
-					observation.add(""+d);
-					//SB.append(d+",");
+				catch(UncheckedIOException ex){
+					if(!(ex.getCause() instanceof ClosedChannelException)) throw ex;
+					replaceDataChannel(channel, (ClosedChannelException)ex.getCause(), attempt);
 				}
 			}
-			else{
-				logger.info("Unable to find the datatype");
-				
-			}
 		}
-		return observation;
-//		return SB.toString().substring(0,SB.toString().length()-1);
+		finally{
+			positionalReads.offer(read);
+		}
+	}
+
+	/**
+	 * Drops the closed channel so that the next read opens a new one.  Channels of the file handle pool
+	 * are opened again by their handles.
+	 * @param channel closed channel
+	 * @param ex exception of the read
+	 * @param attempt number of the read attempt
+	 * @throws ClosedChannelException if the read is not to be attempted again
+	 */
+	private void replaceDataChannel(FileChannel channel, ClosedChannelException ex, int attempt) throws ClosedChannelException{
+		synchronized(this){
+			if(dataChannel == channel) dataChannel = null;
+		}
+		if(ex instanceof ClosedByInterruptException || attempt >= MAX_READ_ATTEMPTS) throw ex;
+	}
+
+	/**
+	 * Buffer of one observation with a row view and string decoder over it, used by one positional read at a time
+	 */
+	private class PositionalRead{
+		private final ByteBuffer buffer;
+		private final DtaRowView rowView;
+
+		private PositionalRead(DtaRowLayout layout){
+			buffer = ByteBuffer.allocate((int)getObservationLength())
+					.order(dtaHeader.isLittleEndian()?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN);
+			rowView = new DtaRowView(layout).position(buffer, 0);
+			rowView.setStringDecoder(new DtaStringDecoder(getCharset(), false));
+		}
+	}
+
+	/**
+	 * This method is a placeholder that returns the file position of the first byte of 
+	 * the first observation.  Data section start calculation can vary between various versions 
+	 * of the stata file.
+	 * @return file position of the first observation
+	 */
+	protected long getStartOfObservations(){
+		throw new RuntimeException("This method should have been overridden");
+	}
+
+	/**
+	 * Returns the index strL variables are resolved with.  Data files of formats before 117 have no strLs.
+	 * @return strL index, or null
+	 */
+	public DtaStrLIndex getStrLIndex(){
+		return null;
+	}
+
+	/**
+	 * This method is a placeholder that returns the file positions of the sections of the data file
+	 * that are needed to read the data.  Sections vary between various versions of the stata file.
+	 * @return file positions of the sections
+	 */
+	protected long[] getSectionOffsets(){
+		throw new RuntimeException("This method should have been overridden");
+	}
+
+	/**
+	 * This method is a placeholder that restores the file positions returned by getSectionOffsets
+	 * @param sectionOffsets
+	 */
+	protected void setSectionOffsets(long[] sectionOffsets){
+		throw new RuntimeException("This method should have been overridden");
+	}
+
+	/**
+	 * Returns the meta data read by this reader.  Meta data can be cached and used to create
+	 * a reader of the same data file without parsing the data file again.
+	 * @return
+	 */
+	public DtaMetadata getDtaMetadata(){
+		return new DtaMetadata(dtaHeader, dtaVariables, getSectionOffsets());
+	}
+
+	/**
+	 * Restores the meta data of the data file.  Variables are shared with the meta data.
+	 * @param dtaMetadata
+	 */
+	protected void setDtaMetadata(DtaMetadata dtaMetadata){
+		setDtaHeader(dtaMetadata.getDtaHeader());
+		setDtaVariables(new ArrayList<DtaVariable>(dtaMetadata.getDtaVariables()));
+		setSectionOffsets(dtaMetadata.getSectionOffsets());
+		for(DtaVariable dtaVariable:dtaVariables){
+			if(dtaVariable.getValueLabelIndex() != null) valueLabelIndex = dtaVariable.getValueLabelIndex();
+			else if(dtaVariable.getValueLabelTable() != null) addValueLabelTable(dtaVariable.getValueLabelTable());
+		}
 	}
 
-	
 	/**
 	 * Returns the observations in as a list. 
 	 * Each element of the list represents one observation in csv format
+	 * Data file is opened once and the observations are read sequentially.
+	 * Observation numbers that are not in the data set return an empty list, as getObservation does.
 	 * @param start Start of the observation Number
 	 * @param end End of the observation number.
 	 * @return
 	 * @throws IOException
 	 */
 	public List<List<String>> getObservations(long start, long end)throws IOException {
+		List<List<String>> observations = new ArrayList<List<String>>();
+		for(long l=start;l<=end && l<1;l++){
+			observations.add(new ArrayList<String>());
+		}
+		try(StataCursor cursor = openCursor(start, end)){
+			while(cursor.hasNext()){
+				observations.add(cursor.next());
+			}
+		}
+		catch(UncheckedIOException ex){
+			throw ex.getCause();
+		}
+		for(long l=Math.max(start, dtaHeader.getNumberOfObservations()+1);l<=end;l++){
+			observations.add(new ArrayList<String>());
+		}
+		return observations;
+	}
+
+	/**
+	 * Opens a cursor over the observations start to end. 
+	 * Cursor must be closed by the caller.
+	 * @param start Start of the observation Number
+	 * @param end End of the observation number.
+	 * @return cursor 
+	 * @throws IOException
+	 */
+	public StataCursor openCursor(long start, long end) throws IOException{
+		return new DtaObservationCursor(this, start, end);
+	}
+
+	/**
+	 * Returns the values of one variable for all the observations.
+	 * @param variableName name of the variable
+	 * @return column of primitive values
+	 * @throws IOException
+	 */
+	public DtaColumn readColumn(String variableName) throws IOException{
+		return readColumn(variableName, 1, dtaHeader.getNumberOfObservations());
+	}
+
+	/**
+	 * Returns the values of one variable for the observations start to end.
+	 * Only the bytes of the variable are read: the value of observation i is at
+	 * startOfObservations + (i-1)*observationLength + offset of the variable.
+	 * In MEMORY_MAPPED mode the values are decoded from the mapped memory at that position; in the other
+	 * modes each value is read with a positional read of the width of the variable, through a channel
+	 * of the file handle pool if one is set.
+	 * @param variableName name of the variable
+	 * @param start Start of the observation Number
+	 * @param end End of the observation number.
+	 * @return column of primitive values
+	 * @throws IOException
+	 */
+	public DtaColumn readColumn(String variableName, long start, long end) throws IOException{
+		int column = getVariableIndex(variableName);
+		if(column < 0)
+			throw new IllegalArgumentException("Unknown variable " + variableName);
+		long first = Math.max(start, 1);
+		long last = Math.min(end, dtaHeader.getNumberOfObservations());
+		long size = Math.max(0, last - first + 1);
+		if(size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Range " + start + " to " + end + " is too large for a column");
+		
+		DtaRowLayout layout = getRowLayout();
+		DtaColumn dtaColumn = new DtaColumn(variableName, layout.getKind(column), first, (int)size);
+		if(size == 0) return dtaColumn;
 		try{
-			openDtaFile();
-			List<List<String>> observations = new ArrayList<List<String>>();
-			for(long l=start;l<=end;l++){
-				observations.add(getObservation(l));
+			if(dataAccessMode == DataAccessMode.MEMORY_MAPPED){
+				readMappedColumn(dtaColumn, column);
+			}
+			else{
+				readColumnPositional(dtaColumn, column);
 			}
-			return observations;
 		}
-		finally{
-			closeDtaFile();
+		catch(UncheckedIOException ex){
+			throw ex.getCause();
 		}
+		metrics.rowsDecoded(size);
+		return dtaColumn;
+	}
+
+	/**
+	 * Decodes the values of the variable from the mapped data section.  The row view is positioned at each
+	 * observation and decodes only the bytes of the variable.
+	 * @param dtaColumn column to fill
+	 * @param column index of the variable
+	 * @throws IOException
+	 */
+	private void readMappedColumn(DtaColumn dtaColumn, int column) throws IOException{
+		DtaMappedDataSection mappedDataSection = getMappedDataSection();
+		DtaRowView rowView = new DtaRowView(getRowLayout().project(new int[]{column}));
+		rowView.setStringDecoder(newStringDecoder());
+		try(DtaChannelInput strLInput = rowView.getRowLayout().hasStrLs() && getStrLIndex() != null ? 
+				DtaChannelInput.open(dataFile, fileHandlePool, metrics) : null){
+			if(strLInput != null) rowView.setStrLs(getStrLIndex(), strLInput.getChannel());
+			long observationNumber = dtaColumn.getStart();
+			for(int i=0;i<dtaColumn.getSize();i++,observationNumber++){
+				rowView.position(mappedDataSection.getWindow(observationNumber), mappedDataSection.getObservationOffset(observationNumber));
+				dtaColumn.set(i, rowView, 0);
+			}
+		}
+	}
+
+	/**
+	 * Reads the values of the variable with one positional read of the width of the variable per observation
+	 * into a buffer that holds only the variable.
+	 * @param dtaColumn column to fill
+	 * @param column index of the variable
+	 * @throws IOException
+	 */
+	private void readColumnPositional(DtaColumn dtaColumn, int column) throws IOException{
+		DtaRowLayout layout = getRowLayout();
+		DtaRowView rowView = new DtaRowView(new DtaRowLayout(dtaVariables.subList(column, column+1)));
+		rowView.setStringDecoder(newStringDecoder());
+		ByteBuffer valueBuffer = ByteBuffer.allocate(layout.getWidth(column));
+		valueBuffer.order(dtaHeader.isLittleEndian()?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN);
+		rowView.position(valueBuffer, 0);
+		try(DtaChannelInput input = DtaChannelInput.open(dataFile, fileHandlePool, metrics)){
+			if(rowView.getRowLayout().hasStrLs() && getStrLIndex() != null) rowView.setStrLs(getStrLIndex(), input.getChannel());
+			long position = getStartOfObservations() + (dtaColumn.getStart()-1)*getObservationLength() + layout.getOffset(column);
+			for(int i=0;i<dtaColumn.getSize();i++,position+=getObservationLength()){
+				FileChannel channel = input.getChannel();
+				valueBuffer.clear();
+				while(valueBuffer.hasRemaining()){
+					int n = channel.read(valueBuffer, position + valueBuffer.position());
+					if(n < 0) throw new EOFException("Data section ends before observation " + (dtaColumn.getStart()+i));
+					metrics.read(n);
+				}
+				dtaColumn.set(i, rowView, 0);
+			}
+		}
+	}
+
+	/**
+	 * Returns the position of the variable in the variable list
+	 * @param variableName
+	 * @return 0 based index of the variable. -1 if there is no variable with the name.
+	 */
+	public int getVariableIndex(String variableName){
+		for(int i=0;i<dtaVariables.size();i++){
+			if(dtaVariables.get(i).getRawName().equals(variableName)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Opens a block scanner over the observations start to end. 
+	 * Range is limited to the observations available in the data file.
+	 * Data section is read in blocks of scanBlockSize bytes.  If the prefetch depth is positive,
+	 * prefetchDepth blocks are read ahead asynchronously by a DtaAsyncBlockScanner.
+	 * With a file handle pool the scanner reads through a channel of the pool.
+	 * Scanner must be closed by the caller.
+	 * @param start Start of the observation Number
+	 * @param end End of the observation number.
+	 * @return scanner
+	 * @throws IOException
+	 */
+	public DtaBlockScanner openBlockScanner(long start, long end) throws IOException{
+		long first = Math.max(start, 1);
+		long last = Math.min(end, dtaHeader.getNumberOfObservations());
+		if(fileHandlePool != null){
+			DtaFileHandlePool.Handle handle = fileHandlePool.acquire(dataFile);
+			try{
+				DtaBlockScanner blockScanner = prefetchDepth > 0 ?
+						new DtaAsyncBlockScanner(handle, getStartOfObservations(), (int)getObservationLength(),
+								first, last, dtaHeader.isLittleEndian(), scanBlockSize, prefetchDepth) :
+						new DtaBlockScanner(handle, getStartOfObservations(), (int)getObservationLength(),
+								first, last, dtaHeader.isLittleEndian(), scanBlockSize);
+				blockScanner.setMetrics(metrics);
+				return blockScanner;
+			}
+			catch(RuntimeException ex){
+				handle.close();
+				throw ex;
+			}
+		}
+		DtaBlockScanner blockScanner = prefetchDepth > 0 ?
+				new DtaAsyncBlockScanner(dataFile, getStartOfObservations(), (int)getObservationLength(),
+						first, last, dtaHeader.isLittleEndian(), scanBlockSize, prefetchDepth) :
+				new DtaBlockScanner(dataFile, getStartOfObservations(), (int)getObservationLength(),
+						first, last, dtaHeader.isLittleEndian(), scanBlockSize);
+		blockScanner.setMetrics(metrics);
+		return blockScanner;
 	}
 
 	/**
@@ -392,77 +869,64 @@ public  abstract class DtaReader{
 	 * @throws IOException
 	 */
 	protected void readValueLabels() throws IOException{
-		logger.debug("Start of Value Label Section: " + stataDataRAF.getFilePointer());
-		while(true){
-			byte b[] = new byte[4];
-			stataDataRAF.read(b);
-			int lengthOfValueTable = getIntValue(b, dtaHeader.isLittleEndian());
-			
-			b = new byte[33];
-			stataDataRAF.read(b);
-			String valueLabelName = getStringValue(b);
-	
-			
-			b = new byte[3];
-			stataDataRAF.read(b);
-			String padding = getStringValue(b);
-	
-			
-			b = new byte[4];
-			stataDataRAF.read(b);
-			int numberOfEntries = getIntValue(b, dtaHeader.isLittleEndian());
-	
-			b = new byte[4];
-			stataDataRAF.read(b);
-			int textLength = getIntValue(b, dtaHeader.isLittleEndian());
-			
-			int offsets[] = new int[numberOfEntries];
-			for(int i=0;i<numberOfEntries;i++){
-				b = new byte[4];
-				stataDataRAF.read(b);
-				offsets[i]= getIntValue(b, dtaHeader.isLittleEndian());
-			}
-			int values[] = new int[numberOfEntries];
-			for(int i=0;i<numberOfEntries;i++){
-				b = new byte[4];
-				stataDataRAF.read(b);
-				values[i]= getIntValue(b, dtaHeader.isLittleEndian());
-			}
-			
-			b = new byte[textLength];
-			stataDataRAF.read(b);
-			String[] labels = new String[numberOfEntries];
-			for(int i=0;i<numberOfEntries;i++){
-				if(offsets.length>=(i+1)){
-					byte[] text = Arrays.copyOfRange(b,offsets[i],  b.length);
-					labels[i]= getStringValue(text);
-				}
-				else{
-					byte[] text = Arrays.copyOfRange(b,offsets[i],  offsets[i+1]);
-					labels[i]= getStringValue(text);
-				}
-			}
-			//Add value label pairs to variables 
-			for (DtaVariable dtaVariable: dtaVariables){
-				if(dtaVariable.getVariableValueLabelName().equals(valueLabelName)){
-					HashMap<String,String> valueLabelMap = dtaVariable.getVariableValueLabels();
-					for(int i=0;i<values.length;i++){
-						valueLabelMap.put(""+values[i], labels[i]);
-					}
-				}
-			}
-			if(dtaHeader.getDtaFileFormat() == 117){
-				if(stataDataRAF.length()<= stataDataRAF.getFilePointer()+"</lbl></value_labels></stata_dta>".length())
-					break;
-				else
-					stataDataRAF.seek(stataDataRAF.getFilePointer() + "</lbl><lbl>".length());
-			}
-			else{
-				if(stataDataRAF.length()<= stataDataRAF.getFilePointer()) break;
-			}
+		logger.debug("Start of Value Label Section: " + stataDataInput.getFilePointer());
+		long start = System.nanoTime();
+		long lengthOfFile = stataDataInput.length();
+		while(stataDataInput.getFilePointer() < lengthOfFile){
+			addValueLabelTable(readValueLabelTable());
+		}
+		assignValueLabelTables();
+		metrics.valueLabelsParsed(System.nanoTime() - start);
+	}
+
+	/**
+	 * Reads the value label table at the file pointer.
+	 * The value_label_table is read with a single read and decoded from the buffer.
+	 * @return value label table
+	 * @throws IOException
+	 */
+	protected DtaValueLabelTable readValueLabelTable() throws IOException{
+		return DtaValueLabelTable.read(stataDataInput, dtaHeader.isLittleEndian()?ByteOrder.LITTLE_ENDIAN:ByteOrder.BIG_ENDIAN, 
+				getValueLabelNameLength(), getCharset());
+	}
+
+	/**
+	 * Adds the value label table to the index of the tables by name
+	 * @param valueLabelTable
+	 */
+	protected void addValueLabelTable(DtaValueLabelTable valueLabelTable){
+		valueLabelTables.put(valueLabelTable.getName(), valueLabelTable);
+	}
+
+	/**
+	 * Sets the value label table of each variable from the index of the tables by name.
+	 * Variables with the same value label name share the table.
+	 */
+	protected void assignValueLabelTables(){
+		for (DtaVariable dtaVariable: dtaVariables){
+			String valueLabelName = dtaVariable.getVariableValueLabelName();
+			if(valueLabelName != null && !valueLabelName.isEmpty())
+				dtaVariable.setValueLabelTable(valueLabelTables.get(valueLabelName));
 		}
 	}
 
+	/**
+	 * @return length of the \0 terminated labname of a value label table
+	 */
+	protected int getValueLabelNameLength(){
+		return 33;
+	}
+
+	/**
+	 * Returns the value label table.  Tables of a data file with a value label index are read on demand.
+	 * @param valueLabelName
+	 * @return value label table, or null if the data file has no table of the name
+	 */
+	public DtaValueLabelTable getValueLabelTable(String valueLabelName){
+		if(valueLabelIndex != null) return valueLabelIndex.getValueLabelTable(valueLabelName);
+		return valueLabelTables.get(valueLabelName);
+	}
+
 	/**
 	 * This method calculates int value from the signed byte array.  
 	 * Byte Array size is expected to be  4 
@@ -491,9 +955,9 @@ public  abstract class DtaReader{
 	protected long getLongValue(byte[] bytes, boolean isLittleEndian){
 		long l;
 		if(isLittleEndian)
-			l = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+			l = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong();
 		else
-			l = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN).getInt();
+			l = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN).getLong();
 		return l;
 	}
 	
@@ -505,8 +969,9 @@ public  abstract class DtaReader{
 	 */
 	protected int getUnsignedIntValue(byte[] bytes,  boolean isLittleEndian){
 		byte[] b = new byte[4];
+		int offset = isLittleEndian ? 0 : b.length - bytes.length;
 		for(int i=0;i<bytes.length;i++){
-			b[i]=bytes[i];
+			b[offset+i]=bytes[i];
 		}
 		return getIntValue(b,isLittleEndian);
 	}
@@ -519,8 +984,9 @@ public  abstract class DtaReader{
 	 */
 	protected long getUnsignedLongValue(byte[] bytes,  boolean isLittleEndian){
 		byte[] b = new byte[8];
+		int offset = isLittleEndian ? 0 : b.length - bytes.length;
 		for(int i=0;i<bytes.length;i++){
-			b[i]=bytes[i];
+			b[offset+i]=bytes[i];
 		}
 		return getLongValue(b,isLittleEndian);
 	}
@@ -567,15 +1033,37 @@ public  abstract class DtaReader{
 	 * @return String value of the bytes array;
 	 */
 	protected String getStringValue(byte[] bytes){
-		StringBuffer sb = new StringBuffer("");
-		
-		for(int i=0;i<bytes.length;i++){
-			byte b = bytes[i];
-			if(b=='\0') break;
-			sb.append(""+(char)b);
-		}
-			
-		return sb.toString();
+		return new String(bytes, 0, DtaStringDecoder.getLength(bytes), getCharset());
+	}
+
+	/**
+	 * Returns the string value of length bytes of the buffer starting at the offset.
+	 * Uses delimiter '\0' to find the end of string
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return String value of the bytes
+	 */
+	protected String getStringValue(ByteBuffer buffer, int offset, int length){
+		return DtaStringDecoder.decode(buffer, offset, length, getCharset());
+	}
+
+	/**
+	 * Returns the charset strings of the data file are encoded in.
+	 * ISO-8859-1 up to format 117 and UTF-8 in format 118.
+	 * @return
+	 */
+	public Charset getCharset(){
+		return dtaHeader == null ? StandardCharsets.ISO_8859_1 : DtaStringDecoder.getCharset(dtaHeader.getDtaFileFormat());
+	}
+
+	/**
+	 * Returns a new decoder for the string variables of the data file.
+	 * Decoders are not thread safe; each cursor gets its own.
+	 * @return
+	 */
+	public DtaStringDecoder newStringDecoder(){
+		return new DtaStringDecoder(getCharset(), stringDeduplication);
 	}
 
 	
@@ -635,12 +1123,89 @@ public  abstract class DtaReader{
 		this.dataFile = dataFile;
 	}
 
-	public RandomAccessFile getStataDataRAF() {
-		return stataDataRAF;
+	public DtaChannelInput getStataDataInput() {
+		return stataDataInput;
+	}
+
+	public void setStataDataInput(DtaChannelInput stataDataInput) {
+		this.stataDataInput = stataDataInput;
+	}
+
+	public DataAccessMode getDataAccessMode() {
+		return dataAccessMode;
+	}
+
+	public void setDataAccessMode(DataAccessMode dataAccessMode) {
+		this.dataAccessMode = dataAccessMode;
+	}
+
+	public int getScanBlockSize() {
+		return scanBlockSize;
+	}
+
+	/**
+	 * Sets the size of the blocks read by cursors and block scanners. 
+	 * To read N observations per block use N*getObservationLength()
+	 * @param scanBlockSize block size in bytes
+	 */
+	public void setScanBlockSize(int scanBlockSize) {
+		this.scanBlockSize = scanBlockSize;
 	}
 
-	public void setStataDataRAF(RandomAccessFile stataDataRAF) {
-		this.stataDataRAF = stataDataRAF;
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
+
+	/**
+	 * Sets the number of blocks read ahead by cursors and block scanners.
+	 * 0, the default, reads each block when its observations are needed.
+	 * Read ahead helps on storage with high latency; each block read ahead holds scanBlockSize bytes.
+	 * @param prefetchDepth number of blocks read ahead
+	 */
+	public void setPrefetchDepth(int prefetchDepth) {
+		this.prefetchDepth = prefetchDepth;
+	}
+
+	public DtaFileHandlePool getFileHandlePool() {
+		return fileHandlePool;
+	}
+
+	/**
+	 * Sets the pool the channels of getObservation, POSITIONAL_READ mode, block scanners, the strL variables
+	 * of cursors and value label tables read on demand are acquired from. null, the default, opens the
+	 * data file for each use.  Meta data is read through the pool only when the pool is given to the constructor.
+	 * @param fileHandlePool
+	 */
+	public void setFileHandlePool(DtaFileHandlePool fileHandlePool) {
+		this.fileHandlePool = fileHandlePool;
+		if(valueLabelIndex != null) valueLabelIndex.setFileHandlePool(fileHandlePool);
+	}
+
+	public boolean isStringDeduplication() {
+		return stringDeduplication;
+	}
+
+	/**
+	 * Returns repeated values of a string variable as the same String instance in the row views
+	 * of cursors opened after this call.  Useful for categorical str# variables.
+	 * @param stringDeduplication
+	 */
+	public void setStringDeduplication(boolean stringDeduplication) {
+		this.stringDeduplication = stringDeduplication;
+	}
+
+	public DtaMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Sets the metrics reads, decoding and value label parsing of this reader are reported to.
+	 * Cursors and block scanners report to the metrics of the reader when they are opened.
+	 * @param metrics metrics, or DtaMetrics.NOOP to disable the reporting
+	 */
+	public void setMetrics(DtaMetrics metrics) {
+		this.metrics = metrics == null ? DtaMetrics.NOOP : metrics;
+		if(valueLabelIndex != null) valueLabelIndex.setMetrics(this.metrics);
 	}
 
 	public DtaHeader getDtaHeader() {
@@ -657,5 +1222,7 @@ public  abstract class DtaReader{
 
 	public void setDtaVariables(List<DtaVariable> dtaVariables) {
 		this.dtaVariables = dtaVariables;
+		this.rowLayout = null;
+		this.selectedRowLayout = null;
 	}
 }
\ No newline at end of file
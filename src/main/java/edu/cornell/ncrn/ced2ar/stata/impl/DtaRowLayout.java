@@ -0,0 +1,175 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.util.List;
+
+/**
+* This class is the precompiled layout of an observation.
+* Data type of each variable is resolved once, when the layout is built.  Offset, width
+* and decoder kind of every variable are kept in primitive arrays so that decoding an
+* observation is a switch over the kinds instead of a chain of DtaVariable type checks.
+*
+* A projected layout holds only the selected variables.  Offsets of a projected layout still
+* point into the full observation, so the variables that are not selected are skipped without
+* being decoded.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaRowLayout {
+	public static final int KIND_UNKNOWN = 0;
+	public static final int KIND_STRING = 1;
+	public static final int KIND_BYTE = 2;
+	public static final int KIND_INT = 3;
+	public static final int KIND_LONG = 4;
+	public static final int KIND_FLOAT = 5;
+	public static final int KIND_DOUBLE = 6;
+	public static final int KIND_STRL = 7;
+
+	private final int[] variableIndexes;
+	private final int[] offsets;
+	private final int[] widths;
+	private final int[] kinds;
+	private final int observationLength;
+	private final boolean hasStrLs;
+
+	/**
+	 * Builds the layout of an observation made of the variables in the given order
+	 * @param dtaVariables
+	 */
+	public DtaRowLayout(List<DtaVariable> dtaVariables){
+		int numberOfVariables = dtaVariables.size();
+		variableIndexes = new int[numberOfVariables];
+		offsets = new int[numberOfVariables];
+		widths = new int[numberOfVariables];
+		kinds = new int[numberOfVariables];
+		int offset = 0;
+		for(int i=0;i<numberOfVariables;i++){
+			DtaVariable dtaVariable = dtaVariables.get(i);
+			variableIndexes[i] = i;
+			kinds[i] = getKind(dtaVariable);
+			widths[i] = getWidth(kinds[i], dtaVariable.getVariableType());
+			offsets[i] = offset;
+			offset += widths[i];
+		}
+		observationLength = offset;
+		hasStrLs = containsStrLs(kinds);
+	}
+
+	private DtaRowLayout(int[] variableIndexes, int[] offsets, int[] widths, int[] kinds, int observationLength){
+		this.variableIndexes = variableIndexes;
+		this.offsets = offsets;
+		this.widths = widths;
+		this.kinds = kinds;
+		this.observationLength = observationLength;
+		this.hasStrLs = containsStrLs(kinds);
+	}
+
+	/**
+	 * Returns a layout that holds only the given variables, in the given order.
+	 * @param columns indexes of the variables in this layout
+	 * @return projected layout
+	 */
+	public DtaRowLayout project(int[] columns){
+		int[] projectedVariableIndexes = new int[columns.length];
+		int[] projectedOffsets = new int[columns.length];
+		int[] projectedWidths = new int[columns.length];
+		int[] projectedKinds = new int[columns.length];
+		for(int i=0;i<columns.length;i++){
+			projectedVariableIndexes[i] = variableIndexes[columns[i]];
+			projectedOffsets[i] = offsets[columns[i]];
+			projectedWidths[i] = widths[columns[i]];
+			projectedKinds[i] = kinds[columns[i]];
+		}
+		return new DtaRowLayout(projectedVariableIndexes, projectedOffsets, projectedWidths, projectedKinds, observationLength);
+	}
+
+	/**
+	 * Returns the decoder kind of the variable
+	 * @param dtaVariable
+	 * @return one of the KIND_ constants
+	 */
+	public static int getKind(DtaVariable dtaVariable){
+		if(dtaVariable.isString()) return KIND_STRING;
+		if(dtaVariable.isByte()) return KIND_BYTE;
+		if(dtaVariable.isInt()) return KIND_INT;
+		if(dtaVariable.isLong()) return KIND_LONG;
+		if(dtaVariable.isFloat()) return KIND_FLOAT;
+		if(dtaVariable.isDouble()) return KIND_DOUBLE;
+		if(dtaVariable.isStrL()) return KIND_STRL;
+		return KIND_UNKNOWN;
+	}
+
+	/**
+	 * Returns the number of bytes a variable of this kind occupies in an observation.
+	 * strL cells hold the 8 byte (v,o) reference of the contents.
+	 * Strings and unknown types occupy as many bytes as their variable type.
+	 * @param kind
+	 * @param variableType
+	 * @return width in bytes
+	 */
+	public static int getWidth(int kind, int variableType){
+		switch(kind){
+			case KIND_BYTE: return 1;
+			case KIND_INT: return 2;
+			case KIND_LONG:
+			case KIND_FLOAT: return 4;
+			case KIND_DOUBLE:
+			case KIND_STRL: return 8;
+			default: return variableType;
+		}
+	}
+
+	public int getNumberOfVariables(){
+		return kinds.length;
+	}
+
+	/**
+	 * @param column index in this layout
+	 * @return index of the variable in the variable list of the reader
+	 */
+	public int getVariableIndex(int column){
+		return variableIndexes[column];
+	}
+
+	public int getOffset(int column){
+		return offsets[column];
+	}
+
+	public int getWidth(int column){
+		return widths[column];
+	}
+
+	public int getKind(int column){
+		return kinds[column];
+	}
+
+	/**
+	 * @return true if the layout has strL variables
+	 */
+	public boolean hasStrLs(){
+		return hasStrLs;
+	}
+
+	private static boolean containsStrLs(int[] kinds){
+		for(int kind:kinds){
+			if(kind == KIND_STRL) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param column
+	 * @return true if the variable is a str or strL variable
+	 */
+	public boolean isString(int column){
+		return kinds[column] == KIND_STRING || kinds[column] == KIND_STRL;
+	}
+
+	public int getObservationLength(){
+		return observationLength;
+	}
+}
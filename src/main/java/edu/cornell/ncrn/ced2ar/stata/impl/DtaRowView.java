@@ -0,0 +1,332 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.MISSING_DOUBLE_VALUES;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.VALID_BYTE_VALUES;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.VALID_FLOAT_VALUES;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.VALID_INT_VALUES;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.VALID_LONG_VALUES;
+
+/**
+* This class is a reusable view of one observation.
+* The view is positioned over the bytes of the current observation and decodes the
+* values of the variables on demand.  Positioning the view does not copy or allocate,
+* so consumers that only need numbers never create Strings.
+*
+* USAGE
+* 	DtaRowView rowView = cursor.nextRowView();
+* 	if(!rowView.isMissing(3)) total += rowView.getDouble(3);
+*
+* Columns are 0 based indexes into the row layout of the view; for a full layout that is the
+* index of the variable in the variable list of the reader.
+* The view is valid until the cursor moves to the next observation.
+* strL variables are resolved through the strL index of the reader; getString returns their contents.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaRowView {
+	private static final byte VALID_BYTE_MIN = VALID_BYTE_VALUES.MIN_VALUE.getValue();
+	private static final byte VALID_BYTE_MAX = VALID_BYTE_VALUES.MAX_VALUE.getValue();
+	private static final int VALID_INT_MIN = VALID_INT_VALUES.MIN_VALUE.getValue();
+	private static final int VALID_INT_MAX = VALID_INT_VALUES.MAX_VALUE.getValue();
+	private static final long VALID_LONG_MIN = VALID_LONG_VALUES.MIN_VALUE.getValue();
+	private static final long VALID_LONG_MAX = VALID_LONG_VALUES.MAX_VALUE.getValue();
+	private static final float VALID_FLOAT_MIN = VALID_FLOAT_VALUES.MIN_VALUE.getValue();
+	private static final float VALID_FLOAT_MAX = VALID_FLOAT_VALUES.MAX_VALUE.getValue();
+	private static final double MISSING_DOUBLE_MIN = MISSING_DOUBLE_VALUES.MIN_VALUE.getValue();
+
+	private final DtaRowLayout rowLayout;
+	private ByteBuffer buffer;
+	private int offset;
+	private DtaStrLIndex strLIndex;
+	private FileChannel strLChannel;
+	private DtaStringDecoder stringDecoder = new DtaStringDecoder(StandardCharsets.ISO_8859_1, false);
+
+	public DtaRowView(DtaRowLayout rowLayout){
+		this.rowLayout = rowLayout;
+	}
+
+	/**
+	 * Positions the view over an observation.
+	 * @param buffer buffer ordered by the byte order of the data file
+	 * @param offset position of the first byte of the observation in the buffer
+	 * @return this view
+	 */
+	public DtaRowView position(ByteBuffer buffer, int offset){
+		this.buffer = buffer;
+		this.offset = offset;
+		return this;
+	}
+
+	/**
+	 * Sets the index and the channel strL variables are resolved with
+	 * @param strLIndex
+	 * @param strLChannel channel of the data file
+	 * @return this view
+	 */
+	public DtaRowView setStrLs(DtaStrLIndex strLIndex, FileChannel strLChannel){
+		this.strLIndex = strLIndex;
+		this.strLChannel = strLChannel;
+		return this;
+	}
+
+	/**
+	 * Sets the decoder string variables are decoded with.
+	 * Default decoder decodes ISO-8859-1 and does not deduplicate.
+	 * @param stringDecoder
+	 * @return this view
+	 */
+	public DtaRowView setStringDecoder(DtaStringDecoder stringDecoder){
+		this.stringDecoder = stringDecoder;
+		return this;
+	}
+
+	/**
+	 * Returns true if the value of a numeric variable is one of the STATA missing values.
+	 * String variables are never missing.
+	 * @param column
+	 * @return
+	 */
+	public boolean isMissing(int column){
+		int position = offset + rowLayout.getOffset(column);
+		switch(rowLayout.getKind(column)){
+			case DtaRowLayout.KIND_BYTE:{
+				byte b = buffer.get(position);
+				return b < VALID_BYTE_MIN || b > VALID_BYTE_MAX;
+			}
+			case DtaRowLayout.KIND_INT:{
+				short s = buffer.getShort(position);
+				return s < VALID_INT_MIN || s > VALID_INT_MAX;
+			}
+			case DtaRowLayout.KIND_LONG:{
+				int i = buffer.getInt(position);
+				return i < VALID_LONG_MIN || i > VALID_LONG_MAX;
+			}
+			case DtaRowLayout.KIND_FLOAT:{
+				float f = buffer.getFloat(position);
+				return !(f >= VALID_FLOAT_MIN && f <= VALID_FLOAT_MAX);
+			}
+			case DtaRowLayout.KIND_DOUBLE:
+				return !(buffer.getDouble(position) < MISSING_DOUBLE_MIN);
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Returns the value of a byte, int or long variable.
+	 * Float and double values are truncated.
+	 * Value of a missing variable is the raw STATA missing code.
+	 * @param column
+	 * @return
+	 */
+	public int getInt(int column){
+		int position = offset + rowLayout.getOffset(column);
+		switch(rowLayout.getKind(column)){
+			case DtaRowLayout.KIND_BYTE: return buffer.get(position);
+			case DtaRowLayout.KIND_INT: return buffer.getShort(position);
+			case DtaRowLayout.KIND_LONG: return buffer.getInt(position);
+			case DtaRowLayout.KIND_FLOAT: return (int)buffer.getFloat(position);
+			case DtaRowLayout.KIND_DOUBLE: return (int)buffer.getDouble(position);
+			default: throw new IllegalArgumentException("Variable " + column + " is not numeric");
+		}
+	}
+
+	/**
+	 * Returns the value of a numeric variable as a float.
+	 * @param column
+	 * @return
+	 */
+	public float getFloat(int column){
+		if(rowLayout.getKind(column) == DtaRowLayout.KIND_FLOAT)
+			return buffer.getFloat(offset + rowLayout.getOffset(column));
+		return (float)getDouble(column);
+	}
+
+	/**
+	 * Returns the value of a numeric variable as a double.
+	 * @param column
+	 * @return
+	 */
+	public double getDouble(int column){
+		int position = offset + rowLayout.getOffset(column);
+		switch(rowLayout.getKind(column)){
+			case DtaRowLayout.KIND_BYTE: return buffer.get(position);
+			case DtaRowLayout.KIND_INT: return buffer.getShort(position);
+			case DtaRowLayout.KIND_LONG: return buffer.getInt(position);
+			case DtaRowLayout.KIND_FLOAT: return buffer.getFloat(position);
+			case DtaRowLayout.KIND_DOUBLE: return buffer.getDouble(position);
+			default: throw new IllegalArgumentException("Variable " + column + " is not numeric");
+		}
+	}
+
+	/**
+	 * Decodes a string variable into the target buffer.
+	 * Characters up to the '\0' terminator are put at the position of the target.
+	 * @param column
+	 * @param target
+	 * @return number of characters put
+	 */
+	public int getString(int column, CharBuffer target){
+		if(rowLayout.getKind(column) == DtaRowLayout.KIND_STRL){
+			String value = getStrL(column);
+			target.put(value);
+			return value.length();
+		}
+		return stringDecoder.decode(buffer, offset + rowLayout.getOffset(column), rowLayout.getWidth(column), target);
+	}
+
+	/**
+	 * Compares the bytes of a string variable with the value, without decoding the string.
+	 * Bytes are compared as unsigned values; the string ends at the '\0' terminator.
+	 * @param column
+	 * @param value encoded in the charset of the data file
+	 * @return negative, zero or positive as the variable is less than, equal to, or greater than the value
+	 */
+	public int compareString(int column, byte[] value){
+		if(rowLayout.getKind(column) == DtaRowLayout.KIND_STRL){
+			byte[] strL = stringDecoder.encode(getStrL(column));
+			for(int i=0;i<Math.min(strL.length, value.length);i++){
+				int b = strL[i] & 0xFF;
+				int v = value[i] & 0xFF;
+				if(b != v) return b - v;
+			}
+			return strL.length - value.length;
+		}
+		int position = offset + rowLayout.getOffset(column);
+		int width = rowLayout.getWidth(column);
+		for(int i=0;i<width;i++){
+			int b = buffer.get(position+i) & 0xFF;
+			if(b == 0) return i < value.length ? -1 : 0;
+			if(i >= value.length) return 1;
+			int v = value[i] & 0xFF;
+			if(b != v) return b - v;
+		}
+		return width < value.length ? -1 : 0;
+	}
+
+	/**
+	 * Returns the value of a string variable.
+	 * Repeated values are returned as the same instance if the decoder deduplicates.
+	 * @param column
+	 * @return
+	 */
+	public String getString(int column){
+		if(rowLayout.getKind(column) == DtaRowLayout.KIND_STRL) return getStrL(column);
+		return stringDecoder.decode(buffer, offset + rowLayout.getOffset(column), rowLayout.getWidth(column), column);
+	}
+
+	/**
+	 * Returns a 64 bit hash of a variable that does not depend on the byte order of the data file.
+	 * Byte, int and long variables are hashed by their value and float and double variables by the 
+	 * bits of their value as a double, so each missing code hashes as a value of its own.
+	 * Bytes of a string variable are hashed up to the '\0' terminator without decoding the string;
+	 * strL variables are hashed by their contents.
+	 * @param column
+	 * @return
+	 */
+	public long hash(int column){
+		int position = offset + rowLayout.getOffset(column);
+		switch(rowLayout.getKind(column)){
+			case DtaRowLayout.KIND_STRING:
+				return hash(buffer, position, DtaStringDecoder.getLength(buffer, position, rowLayout.getWidth(column)));
+			case DtaRowLayout.KIND_STRL:{
+				byte[] b = stringDecoder.encode(getStrL(column));
+				return hash(ByteBuffer.wrap(b), 0, b.length);
+			}
+			case DtaRowLayout.KIND_BYTE:
+			case DtaRowLayout.KIND_INT:
+			case DtaRowLayout.KIND_LONG:
+				return mix(0x9E3779B97F4A7C15L ^ getInt(column));
+			default:
+				return mix(0x9E3779B97F4A7C15L ^ Double.doubleToRawLongBits(getDouble(column)));
+		}
+	}
+
+	/**
+	 * Hashes length bytes of the buffer 8 bytes at a time with the murmur3 finalizer as the mixing step.
+	 * The 8 bytes are read big endian whatever the order of the buffer.
+	 * @param buffer
+	 * @param position
+	 * @param length
+	 * @return
+	 */
+	private static long hash(ByteBuffer buffer, int position, int length){
+		boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+		long h = 0x9E3779B97F4A7C15L ^ length;
+		int i = 0;
+		for(;i+8<=length;i+=8){
+			long word = buffer.getLong(position + i);
+			h = mix(h ^ (bigEndian ? word : Long.reverseBytes(word)));
+		}
+		long tail = 0;
+		for(;i<length;i++){
+			tail = (tail << 8) | (buffer.get(position + i) & 0xFF);
+		}
+		return mix(h ^ tail);
+	}
+
+	private static long mix(long h){
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Returns the (v,o) reference of a strL variable
+	 * @param column
+	 * @return key of the strL in the DtaStrLIndex; 0 for an empty strL
+	 */
+	public long getStrLKey(int column){
+		if(strLIndex == null) throw new IllegalStateException("strL variables can not be resolved by this view");
+		return strLIndex.getKey(buffer, offset + rowLayout.getOffset(column));
+	}
+
+	/**
+	 * Resolves the strL variable through the strL index
+	 * @param column
+	 * @return
+	 */
+	private String getStrL(int column){
+		return strLIndex.getString(strLChannel, getStrLKey(column));
+	}
+
+	public DtaStringDecoder getStringDecoder() {
+		return stringDecoder;
+	}
+
+	public DtaStrLIndex getStrLIndex() {
+		return strLIndex;
+	}
+
+	/**
+	 * @return buffer the view is positioned over
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return position of the observation in the buffer
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	public DtaRowLayout getRowLayout() {
+		return rowLayout;
+	}
+}
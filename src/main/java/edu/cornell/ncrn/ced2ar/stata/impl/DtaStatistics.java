@@ -0,0 +1,144 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+/**
+* This class holds the summary statistics of a numeric variable.
+* Mean and the sum of squared deviations from the mean are updated one value at a time
+* (Welford) so that large data sets do not lose precision to a running sum of squares.
+* Statistics of two ranges of observations are combined with the pairwise update of Chan et al.
+*
+* USAGE
+* 	DtaStatistics statistics = engine.compute().get(0);
+* 	double mean = statistics.getMean();
+*
+* Missing values are counted and are not part of min, max, mean and standard deviation.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaStatistics {
+	private final String name;
+	private long valid;
+	private long missing;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+	private double mean;
+	private double sumOfSquaredDeviations;
+
+	public DtaStatistics(String name){
+		this.name = name;
+	}
+
+	/**
+	 * Adds a valid value
+	 * @param value
+	 */
+	public void add(double value){
+		valid++;
+		if(valid == 1){
+			min = value;
+			max = value;
+		}
+		else{
+			if(value < min) min = value;
+			if(value > max) max = value;
+		}
+		double delta = value - mean;
+		mean += delta / valid;
+		sumOfSquaredDeviations += delta * (value - mean);
+	}
+
+	/**
+	 * Adds a missing value
+	 */
+	public void addMissing(){
+		missing++;
+	}
+
+	/**
+	 * Adds the statistics of an other range of observations of the same variable
+	 * @param other
+	 */
+	public void merge(DtaStatistics other){
+		missing += other.missing;
+		if(other.valid == 0) return;
+		if(valid == 0){
+			valid = other.valid;
+			min = other.min;
+			max = other.max;
+			mean = other.mean;
+			sumOfSquaredDeviations = other.sumOfSquaredDeviations;
+			return;
+		}
+		long n = valid + other.valid;
+		double delta = other.mean - mean;
+		mean += delta * other.valid / n;
+		sumOfSquaredDeviations += other.sumOfSquaredDeviations + delta * delta * ((double)valid * other.valid / n);
+		valid = n;
+		if(other.min < min) min = other.min;
+		if(other.max > max) max = other.max;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return number of observations, valid and missing
+	 */
+	public long getCount() {
+		return valid + missing;
+	}
+
+	public long getValid() {
+		return valid;
+	}
+
+	public long getMissing() {
+		return missing;
+	}
+
+	/**
+	 * @return minimum of the valid values, or NaN if there are none
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return maximum of the valid values, or NaN if there are none
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return mean of the valid values, or NaN if there are none
+	 */
+	public double getMean() {
+		return valid == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 * @return sample variance of the valid values, or NaN if there are less than two
+	 */
+	public double getVariance() {
+		return valid < 2 ? Double.NaN : sumOfSquaredDeviations / (valid - 1);
+	}
+
+	/**
+	 * @return sample standard deviation of the valid values, as reported by STATA summarize
+	 */
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	@Override
+	public String toString() {
+		return "DtaStatistics [name=" + name + ", count=" + getCount() + ", valid=" + valid + ", missing=" + missing
+				+ ", min=" + min + ", max=" + max + ", mean=" + getMean() + ", standardDeviation=" + getStandardDeviation() + "]";
+	}
+}
@@ -0,0 +1,87 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+
+/**
+* This class computes the summary statistics of the numeric variables of a stata data file in one
+* scan of the data section: count, valid and missing counts, min, max, mean and standard deviation.
+* Values are decoded from the raw bytes of the observations; no Strings are created.
+* Chunks of observations are summarized in parallel and their statistics are merged.
+*
+* USAGE
+* 	DtaStatisticsEngine engine = new DtaStatisticsEngine(SR);
+* 	engine.select("age", "income");
+* 	for(DtaStatistics statistics:engine.compute()){
+* 		...
+* 	}
+*
+* Without a selection all the byte, int, long, float and double variables are summarized.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaStatisticsEngine extends DtaAggregationEngine<DtaStatistics[]> {
+
+	public DtaStatisticsEngine(StataReader stataReader){
+		super(stataReader);
+	}
+
+	/**
+	 * Computes the statistics of all the observations
+	 * @return statistics of the variables, in the order of the selection
+	 * @throws IOException
+	 */
+	public List<DtaStatistics> compute() throws IOException{
+		return compute(1, stataReader.getDtaHeader().getNumberOfObservations());
+	}
+
+	/**
+	 * Computes the statistics of the observations start to end (both inclusive)
+	 * @param start Start of the observation Number
+	 * @param end End of the observation number.
+	 * @return statistics of the variables, in the order of the selection
+	 * @throws IOException
+	 */
+	public List<DtaStatistics> compute(long start, long end) throws IOException{
+		return Arrays.asList(aggregate(start, end));
+	}
+
+	@Override
+	protected boolean isAggregated(DtaVariable dtaVariable) {
+		int kind = DtaRowLayout.getKind(dtaVariable);
+		return kind != DtaRowLayout.KIND_STRING && kind != DtaRowLayout.KIND_STRL && kind != DtaRowLayout.KIND_UNKNOWN;
+	}
+
+	@Override
+	protected DtaStatistics[] newAggregate(DtaRowLayout rowLayout, List<DtaVariable> dtaVariables) {
+		DtaStatistics[] statistics = new DtaStatistics[dtaVariables.size()];
+		for(int i=0;i<statistics.length;i++){
+			statistics[i] = new DtaStatistics(dtaVariables.get(i).getName());
+		}
+		return statistics;
+	}
+
+	@Override
+	protected void accumulate(DtaStatistics[] statistics, DtaRowView rowView) {
+		for(int i=0;i<statistics.length;i++){
+			if(rowView.isMissing(i)) statistics[i].addMissing();
+			else statistics[i].add(rowView.getDouble(i));
+		}
+	}
+
+	@Override
+	protected DtaStatistics[] merge(DtaStatistics[] statistics, DtaStatistics[] next) {
+		for(int i=0;i<statistics.length;i++){
+			statistics[i].merge(next[i]);
+		}
+		return statistics;
+	}
+}
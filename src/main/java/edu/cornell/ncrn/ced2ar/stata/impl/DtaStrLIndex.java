@@ -0,0 +1,396 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+* This class resolves the strL (long string) variables of format 117 and 118 data files.
+* A strL cell of the data section holds the (v,o) reference of a GSO block of the <strls> section.
+*
+* 	strL cell    117: v 4 bytes, o 4 bytes     118: v 2 bytes, o 6 bytes
+* 	GSO block    "GSO"  v 4 bytes  o 4 bytes (117) or 8 bytes (118)  t 1 byte  len 4 bytes  contents
+* 	             t is 130 for ASCII contents that include the \0 terminator and 129 for binary contents
+*
+* On the first lookup the <strls> section is walked once and the file position of each GSO block is
+* recorded in a primitive hash table keyed by (v,o); contents are skipped.  Decoded strings of up to
+* maxCachedLength characters are kept in an LRU cache of at most maxCacheSize characters, so STATA's
+* shared references to duplicate strLs are read once.  Large contents can be read as streams.
+*
+* Lookups read with positional reads of the file channel passed by the caller, so the index can be
+* shared by cursors in multiple threads.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaStrLIndex {
+	private static final Logger logger = Logger.getLogger(DtaStrLIndex.class);
+
+	public static final int DEFAULT_MAX_CACHE_SIZE = 16*1024*1024;
+	public static final int DEFAULT_MAX_CACHED_LENGTH = 64*1024;
+	public static final int GSO_TYPE_BINARY = 129;
+	public static final int GSO_TYPE_ASCII = 130;
+	private static final int SCAN_BUFFER_SIZE = 1024*1024;
+
+	private final String dataFile;
+	private final boolean isFormat118;
+	private final boolean littleEndian;
+	private final long startOfStrlsSection;
+	private final long endOfStrlsSection;
+	private final Charset charset;
+	private int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+	private int maxCachedLength = DEFAULT_MAX_CACHED_LENGTH;
+	private volatile DtaMetrics metrics = DtaMetrics.NOOP;
+	private volatile DtaFileHandlePool fileHandlePool;
+
+	// open addressing hash table of (v,o) keys and file positions of the t byte of the GSO blocks
+	private long[] keys;
+	private long[] positions;
+	private int size;
+	private final LinkedHashMap<Long,String> cache;
+	private long cacheSize;
+
+	/**
+	 * @param dataFile
+	 * @param dtaFileFormat 117 or 118
+	 * @param littleEndian byte order of the data file
+	 * @param startOfStrlsSection file position of <strls>
+	 * @param endOfStrlsSection file position of the section that follows </strls>
+	 */
+	public DtaStrLIndex(String dataFile, int dtaFileFormat, boolean littleEndian, long startOfStrlsSection, long endOfStrlsSection){
+		this.dataFile = dataFile;
+		this.isFormat118 = dtaFileFormat >= 118;
+		this.littleEndian = littleEndian;
+		this.startOfStrlsSection = startOfStrlsSection;
+		this.endOfStrlsSection = endOfStrlsSection;
+		this.charset = isFormat118 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+		this.cache = new LinkedHashMap<Long,String>(1024, 0.75f, true);
+	}
+
+	/**
+	 * Returns the (v,o) reference of the strL cell at the position of the buffer.
+	 * References are normalized so that cells and GSO blocks of the same format produce the same key.
+	 * @param buffer buffer ordered by the byte order of the data file
+	 * @param position position of the cell in the buffer
+	 * @return (v,o) key; 0 for an empty strL
+	 */
+	public long getKey(ByteBuffer buffer, int position){
+		if(!isFormat118){
+			return ((buffer.getInt(position) & 0xFFFFFFFFL) << 32) | (buffer.getInt(position+4) & 0xFFFFFFFFL);
+		}
+		long cell = buffer.getLong(position);
+		if(littleEndian){
+			return ((cell & 0xFFFFL) << 48) | (cell >>> 16);
+		}
+		return cell;
+	}
+
+	private long getKey(long v, long o){
+		return isFormat118 ? (v << 48) | (o & 0xFFFFFFFFFFFFL) : (v << 32) | (o & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Returns the contents of the strL.  Binary contents are returned as ISO-8859-1 characters.
+	 * @param channel channel of the data file used to read the contents
+	 * @param key (v,o) key of the strL cell
+	 * @return contents, or "" for an empty strL
+	 * @throws UncheckedIOException if the data file can not be read
+	 */
+	public String getString(FileChannel channel, long key){
+		if(key == 0) return "";
+		synchronized(this){
+			String value = cache.get(key);
+			if(value != null) return value;
+		}
+		try{
+			long position = getPosition(key);
+			if(position < 0) throw new IOException("There is no GSO block for strL " + toString(key));
+			ByteBuffer header = readFully(channel, position, 5);
+			int type = header.get(0) & 0xFF;
+			int length = header.getInt(1);
+			ByteBuffer contents = readFully(channel, position + 5, length);
+			if(type == GSO_TYPE_ASCII && length > 0 && contents.get(length-1) == 0) length--;
+			String value = new String(contents.array(), 0, length, type == GSO_TYPE_BINARY ? StandardCharsets.ISO_8859_1 : charset);
+			if(value.length() <= maxCachedLength) cache(key, value);
+			return value;
+		}
+		catch(IOException ex){
+			throw new UncheckedIOException("Unable to read strL " + toString(key) + " of " + dataFile, ex);
+		}
+	}
+
+	/**
+	 * Adds the string to the cache and evicts the least recently used strings until the cached
+	 * strings fit in maxCacheSize characters
+	 * @param key
+	 * @param value
+	 */
+	private synchronized void cache(long key, String value){
+		cacheSize += value.length();
+		String previous = cache.put(key, value);
+		if(previous != null) cacheSize -= previous.length();
+		evict();
+	}
+
+	private void evict(){
+		Iterator<String> iterator = cache.values().iterator();
+		while(cacheSize > maxCacheSize && iterator.hasNext()){
+			cacheSize -= iterator.next().length();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Returns the number of bytes of the contents of the strL.  ASCII contents include the \0 terminator.
+	 * @param channel
+	 * @param key
+	 * @return
+	 * @throws IOException
+	 */
+	public long getLength(FileChannel channel, long key) throws IOException{
+		if(key == 0) return 0;
+		long position = getPosition(key);
+		if(position < 0) throw new IOException("There is no GSO block for strL " + toString(key));
+		return readFully(channel, position, 5).getInt(1) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Opens a stream over the contents of the strL.  The stream opens its own channel, or acquires
+	 * one from the file handle pool, and must be closed by the caller.
+	 * @param key (v,o) key of the strL cell
+	 * @return stream of the contents.  ASCII contents include the \0 terminator.
+	 * @throws IOException
+	 */
+	public InputStream openStream(long key) throws IOException{
+		final DtaChannelInput input = DtaChannelInput.open(dataFile, fileHandlePool, metrics);
+		try{
+			final long start;
+			final long end;
+			if(key == 0){
+				start = end = 0;
+			}
+			else{
+				long position = getPosition(key);
+				if(position < 0) throw new IOException("There is no GSO block for strL " + toString(key));
+				start = position + 5;
+				end = start + (readFully(input.getChannel(), position, 5).getInt(1) & 0xFFFFFFFFL);
+			}
+			return new InputStream(){
+				private long position = start;
+
+				@Override
+				public int read() throws IOException {
+					byte[] b = new byte[1];
+					return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xFF);
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if(position >= end) return -1;
+					ByteBuffer buffer = ByteBuffer.wrap(b, off, (int)Math.min(len, end - position));
+					int read = input.getChannel().read(buffer, position);
+					metrics.read(Math.max(read, 0));
+					if(read > 0) position += read;
+					return read;
+				}
+
+				@Override
+				public long skip(long n) throws IOException {
+					long skipped = Math.max(0, Math.min(n, end - position));
+					position += skipped;
+					return skipped;
+				}
+
+				@Override
+				public int available() throws IOException {
+					return (int)Math.min(Integer.MAX_VALUE, end - position);
+				}
+
+				@Override
+				public void close() throws IOException {
+					input.close();
+				}
+			};
+		}
+		catch(IOException | RuntimeException ex){
+			input.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Returns the file position of the t byte of the GSO block
+	 * @param key
+	 * @return position, or -1 if there is no GSO block for the key
+	 * @throws IOException
+	 */
+	private synchronized long getPosition(long key) throws IOException{
+		if(keys == null){
+			try{
+				buildIndex();
+			}
+			catch(IOException | RuntimeException ex){
+				// a partial index would miss GSO blocks; the index is built again on the next lookup
+				keys = null;
+				positions = null;
+				size = 0;
+				throw ex;
+			}
+		}
+		int mask = keys.length - 1;
+		for(int slot = hash(key) & mask;;slot = (slot + 1) & mask){
+			if(positions[slot] == 0) return -1;
+			if(keys[slot] == key) return positions[slot];
+		}
+	}
+
+	/**
+	 * Walks the GSO blocks of the <strls> section and records the file position of each block.
+	 * Headers are read through a scan buffer; contents are skipped.
+	 * @throws IOException
+	 */
+	private void buildIndex() throws IOException{
+		keys = new long[1024];
+		positions = new long[1024];
+		size = 0;
+		int vLength = 4;
+		int oLength = isFormat118 ? 8 : 4;
+		int headerLength = 3 + vLength + oLength + 1 + 4;
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE).order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		long bufferStart = 0;
+		int bufferLength = 0;
+		try(DtaChannelInput input = DtaChannelInput.open(dataFile, fileHandlePool, metrics)){
+			FileChannel channel = input.getChannel();
+			long position = startOfStrlsSection + "<strls>".length();
+			while(position + headerLength <= endOfStrlsSection){
+				if(position < bufferStart || position + headerLength > bufferStart + bufferLength){
+					buffer.clear();
+					bufferStart = position;
+					bufferLength = 0;
+					while(buffer.hasRemaining()){
+						int read = channel.read(buffer, bufferStart + bufferLength);
+						if(read < 0) break;
+						metrics.read(read);
+						bufferLength += read;
+					}
+					if(bufferLength < headerLength) break;
+				}
+				int offset = (int)(position - bufferStart);
+				if(buffer.get(offset) != 'G' || buffer.get(offset+1) != 'S' || buffer.get(offset+2) != 'O') break;
+				long v = buffer.getInt(offset+3) & 0xFFFFFFFFL;
+				long o = isFormat118 ? buffer.getLong(offset+3+vLength) : (buffer.getInt(offset+3+vLength) & 0xFFFFFFFFL);
+				long length = buffer.getInt(offset+3+vLength+oLength+1) & 0xFFFFFFFFL;
+				put(getKey(v, o), position + 3 + vLength + oLength);
+				position += headerLength + length;
+			}
+		}
+		logger.debug("Indexed " + size + " GSO blocks of " + dataFile);
+	}
+
+	private void put(long key, long position){
+		if((size + 1) * 2 > keys.length){
+			long[] oldKeys = keys;
+			long[] oldPositions = positions;
+			keys = new long[oldKeys.length * 2];
+			positions = new long[oldPositions.length * 2];
+			size = 0;
+			for(int i=0;i<oldKeys.length;i++){
+				if(oldPositions[i] != 0) put(oldKeys[i], oldPositions[i]);
+			}
+		}
+		int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while(positions[slot] != 0 && keys[slot] != key){
+			slot = (slot + 1) & mask;
+		}
+		if(positions[slot] == 0) size++;
+		keys[slot] = key;
+		positions[slot] = position;
+	}
+
+	private static int hash(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	private ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()){
+			int read = channel.read(buffer, position + buffer.position());
+			if(read < 0)
+				throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+			metrics.read(read);
+		}
+		buffer.order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		return buffer;
+	}
+
+	private String toString(long key){
+		return isFormat118 ? "(" + (key >>> 48) + "," + (key & 0xFFFFFFFFFFFFL) + ")" : "(" + (key >>> 32) + "," + (key & 0xFFFFFFFFL) + ")";
+	}
+
+	/**
+	 * @return number of GSO blocks in the index.  Index is built on the first lookup.
+	 */
+	public synchronized int size(){
+		return size;
+	}
+
+	public synchronized int getMaxCacheSize() {
+		return maxCacheSize;
+	}
+
+	/**
+	 * @param maxCacheSize maximum number of characters of the cached strings
+	 */
+	public synchronized void setMaxCacheSize(int maxCacheSize) {
+		this.maxCacheSize = maxCacheSize;
+		evict();
+	}
+
+	public int getMaxCachedLength() {
+		return maxCachedLength;
+	}
+
+	/**
+	 * @param maxCachedLength strings longer than this are not cached
+	 */
+	public void setMaxCachedLength(int maxCachedLength) {
+		this.maxCachedLength = maxCachedLength;
+	}
+
+	public DtaMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @param metrics metrics the reads of GSO blocks are reported to
+	 */
+	public void setMetrics(DtaMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public DtaFileHandlePool getFileHandlePool() {
+		return fileHandlePool;
+	}
+
+	/**
+	 * @param fileHandlePool pool the channels of the index and of the streams are acquired from, or null to open the data file
+	 */
+	public void setFileHandlePool(DtaFileHandlePool fileHandlePool) {
+		this.fileHandlePool = fileHandlePool;
+	}
+}
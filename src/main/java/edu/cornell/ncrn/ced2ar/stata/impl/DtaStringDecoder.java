@@ -0,0 +1,281 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+* This class decodes the \0 terminated strings of a stata data file.
+* The terminator is found in one pass over the bytes and the bytes are decoded in bulk with the
+* charset of the data file: ISO-8859-1 up to format 117 and UTF-8 in format 118.
+*
+* Categorical str# variables repeat a few values many times.  With deduplication enabled the decoder
+* keeps a dictionary per column keyed by the raw bytes; a value that was decoded before is returned
+* as the same String instance without allocating.  A dictionary that fills up with distinct values
+* stops growing, so high cardinality columns do not pay for it.
+*
+* USAGE
+* 	DtaStringDecoder decoder = new DtaStringDecoder(StandardCharsets.UTF_8, true);
+* 	String value = decoder.decode(buffer, offset, width, column);
+*
+* A decoder with deduplication is not safe for use by multiple threads; each cursor has its own.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaStringDecoder {
+	public static final int DEFAULT_MAX_DICTIONARY_SIZE = 4096;
+
+	private final Charset charset;
+	private final boolean latin1;
+	private final boolean deduplicate;
+	private int maxDictionarySize = DEFAULT_MAX_DICTIONARY_SIZE;
+	private Dictionary[] dictionaries = new Dictionary[0];
+	private byte[] scratch = new byte[256];
+
+	/**
+	 * @param charset charset of the data file
+	 * @param deduplicate true to return the same String instance for repeated values of a column
+	 */
+	public DtaStringDecoder(Charset charset, boolean deduplicate){
+		this.charset = charset;
+		this.latin1 = charset.equals(StandardCharsets.ISO_8859_1);
+		this.deduplicate = deduplicate;
+	}
+
+	/**
+	 * Returns the charset of a data file format
+	 * @param dtaFileFormat
+	 * @return UTF-8 for format 118 and later, ISO-8859-1 before
+	 */
+	public static Charset getCharset(int dtaFileFormat){
+		return dtaFileFormat >= 118 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+	}
+
+	/**
+	 * Returns the number of bytes before the \0 terminator
+	 * @param buffer
+	 * @param offset
+	 * @param length maximum number of bytes
+	 * @return
+	 */
+	public static int getLength(ByteBuffer buffer, int offset, int length){
+		if(buffer.hasArray()){
+			byte[] array = buffer.array();
+			int start = buffer.arrayOffset() + offset;
+			for(int i=0;i<length;i++){
+				if(array[start+i] == 0) return i;
+			}
+			return length;
+		}
+		for(int i=0;i<length;i++){
+			if(buffer.get(offset+i) == 0) return i;
+		}
+		return length;
+	}
+
+	/**
+	 * Returns the number of bytes before the \0 terminator
+	 * @param bytes
+	 * @return
+	 */
+	public static int getLength(byte[] bytes){
+		for(int i=0;i<bytes.length;i++){
+			if(bytes[i] == 0) return i;
+		}
+		return bytes.length;
+	}
+
+	/**
+	 * Decodes the \0 terminated string of the bytes
+	 * @param bytes
+	 * @return
+	 */
+	public String decode(byte[] bytes){
+		return new String(bytes, 0, getLength(bytes), charset);
+	}
+
+	/**
+	 * Decodes the \0 terminated string of length bytes of the buffer starting at the offset.
+	 * Position of the buffer is not changed.
+	 * @param buffer
+	 * @param offset
+	 * @param length width of the string in bytes
+	 * @return
+	 */
+	public String decode(ByteBuffer buffer, int offset, int length){
+		return decode(buffer, offset, length, charset);
+	}
+
+	/**
+	 * Decodes the \0 terminated string of length bytes of the buffer starting at the offset.
+	 * Position of the buffer is not changed.
+	 * @param buffer
+	 * @param offset
+	 * @param length width of the string in bytes
+	 * @param charset
+	 * @return
+	 */
+	public static String decode(ByteBuffer buffer, int offset, int length, Charset charset){
+		int n = getLength(buffer, offset, length);
+		if(buffer.hasArray()) return new String(buffer.array(), buffer.arrayOffset() + offset, n, charset);
+		byte[] b = new byte[n];
+		for(int i=0;i<n;i++){
+			b[i] = buffer.get(offset+i);
+		}
+		return new String(b, charset);
+	}
+
+	/**
+	 * Decodes the \0 terminated string of a column.  Repeated values of the column are returned
+	 * as the same String instance if deduplication is enabled.
+	 * @param buffer
+	 * @param offset
+	 * @param length width of the string in bytes
+	 * @param column index of the column the dictionary of which is used
+	 * @return
+	 */
+	public String decode(ByteBuffer buffer, int offset, int length, int column){
+		if(!deduplicate) return decode(buffer, offset, length);
+		if(column >= dictionaries.length){
+			Dictionary[] grown = new Dictionary[Math.max(column+1, dictionaries.length*2)];
+			System.arraycopy(dictionaries, 0, grown, 0, dictionaries.length);
+			dictionaries = grown;
+		}
+		Dictionary dictionary = dictionaries[column];
+		if(dictionary == null){
+			dictionary = new Dictionary();
+			dictionaries[column] = dictionary;
+		}
+		return dictionary.decode(buffer, offset, length);
+	}
+
+	/**
+	 * Decodes the string of a column into the target.  ISO-8859-1 strings are put byte by byte
+	 * without creating a String.
+	 * @param buffer
+	 * @param offset
+	 * @param length width of the string in bytes
+	 * @param target
+	 * @return number of characters put
+	 */
+	public int decode(ByteBuffer buffer, int offset, int length, CharBuffer target){
+		if(!latin1){
+			String value = decode(buffer, offset, length);
+			target.put(value);
+			return value.length();
+		}
+		int n = getLength(buffer, offset, length);
+		for(int i=0;i<n;i++){
+			target.put((char)(buffer.get(offset+i) & 0xFF));
+		}
+		return n;
+	}
+
+	/**
+	 * Encodes a value the way strings are stored in the data file
+	 * @param value
+	 * @return
+	 */
+	public byte[] encode(String value){
+		return value.getBytes(charset);
+	}
+
+	private byte[] copy(ByteBuffer buffer, int offset, int n){
+		if(scratch.length < n) scratch = new byte[Math.max(n, scratch.length*2)];
+		for(int i=0;i<n;i++){
+			scratch[i] = buffer.get(offset+i);
+		}
+		return scratch;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public boolean isDeduplicate() {
+		return deduplicate;
+	}
+
+	public int getMaxDictionarySize() {
+		return maxDictionarySize;
+	}
+
+	/**
+	 * @param maxDictionarySize maximum number of distinct values kept per column
+	 */
+	public void setMaxDictionarySize(int maxDictionarySize) {
+		this.maxDictionarySize = maxDictionarySize;
+	}
+
+	/**
+	 * Open addressing hash table of the raw bytes and decoded values of one column
+	 */
+	private class Dictionary{
+		private byte[][] keys = new byte[64][];
+		private String[] values = new String[64];
+		private int size;
+
+		private String decode(ByteBuffer buffer, int offset, int length){
+			byte[] array = buffer.hasArray() ? buffer.array() : null;
+			int start = array != null ? buffer.arrayOffset() + offset : 0;
+			int hash = 0x811C9DC5;
+			int n = 0;
+			for(;n<length;n++){
+				byte b = array != null ? array[start+n] : buffer.get(offset+n);
+				if(b == 0) break;
+				hash = (hash ^ b) * 0x01000193;
+			}
+			int mask = keys.length - 1;
+			int slot = hash & mask;
+			while(keys[slot] != null){
+				if(matches(keys[slot], buffer, array, start, offset, n)) return values[slot];
+				slot = (slot + 1) & mask;
+			}
+			String value = array != null ? new String(array, start, n, charset) : new String(copy(buffer, offset, n), 0, n, charset);
+			if(size >= maxDictionarySize) return value;
+			byte[] key = new byte[n];
+			for(int i=0;i<n;i++){
+				key[i] = array != null ? array[start+i] : buffer.get(offset+i);
+			}
+			keys[slot] = key;
+			values[slot] = value;
+			if(++size * 2 > keys.length) grow();
+			return value;
+		}
+
+		private boolean matches(byte[] key, ByteBuffer buffer, byte[] array, int start, int offset, int n){
+			if(key.length != n) return false;
+			for(int i=0;i<n;i++){
+				if(key[i] != (array != null ? array[start+i] : buffer.get(offset+i))) return false;
+			}
+			return true;
+		}
+
+		private void grow(){
+			byte[][] oldKeys = keys;
+			String[] oldValues = values;
+			keys = new byte[oldKeys.length*2][];
+			values = new String[oldValues.length*2];
+			int mask = keys.length - 1;
+			for(int i=0;i<oldKeys.length;i++){
+				if(oldKeys[i] == null) continue;
+				int hash = 0x811C9DC5;
+				for(byte b:oldKeys[i]){
+					hash = (hash ^ b) * 0x01000193;
+				}
+				int slot = hash & mask;
+				while(keys[slot] != null){
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
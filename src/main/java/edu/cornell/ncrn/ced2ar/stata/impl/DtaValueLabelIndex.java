@@ -0,0 +1,183 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+* This class reads the value label tables of a format 117 or 118 data file on demand.
+* Opening a data file does not read the <value_labels> section.  On first access the index walks
+* the <lbl> records and records the file position of each table by name; only the length and the
+* name of each table are read.  A table is decoded when its labels are asked for, and is kept.
+*
+* 	<value_labels>
+* 		<lbl> len labname padding value_label_table </lbl>
+* 		...
+* 	</value_labels>
+*
+* The index is shared by the variables of a data file and is safe for use by multiple threads.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaValueLabelIndex implements Serializable {
+	private static final long serialVersionUID = -2215640392468795210L;
+	private static final Logger logger = Logger.getLogger(DtaValueLabelIndex.class);
+
+	private final String dataFile;
+	private final boolean littleEndian;
+	private final int valueLabelNameLength;
+	private final String charsetName;
+	private final long startOfValueLabelsSection;
+	private LinkedHashMap<String,Long> tablePositions;
+	private final HashMap<String,DtaValueLabelTable> valueLabelTables = new HashMap<String,DtaValueLabelTable>();
+	private transient DtaMetrics metrics;
+	private transient DtaFileHandlePool fileHandlePool;
+
+	/**
+	 * @param dataFile
+	 * @param littleEndian byte order of the data file
+	 * @param valueLabelNameLength length of labname; 33 in format 117 and 129 in format 118
+	 * @param charset charset of the data file
+	 * @param startOfValueLabelsSection file position of <value_labels>
+	 */
+	public DtaValueLabelIndex(String dataFile, boolean littleEndian, int valueLabelNameLength, Charset charset, long startOfValueLabelsSection){
+		this.dataFile = dataFile;
+		this.littleEndian = littleEndian;
+		this.valueLabelNameLength = valueLabelNameLength;
+		this.charsetName = charset.name();
+		this.startOfValueLabelsSection = startOfValueLabelsSection;
+	}
+
+	/**
+	 * Returns the value label table, reading it from the data file on first access
+	 * @param valueLabelName
+	 * @return value label table, or null if the data file has no table of the name
+	 * @throws UncheckedIOException if the data file can not be read
+	 */
+	public synchronized DtaValueLabelTable getValueLabelTable(String valueLabelName){
+		DtaValueLabelTable valueLabelTable = valueLabelTables.get(valueLabelName);
+		if(valueLabelTable != null) return valueLabelTable;
+		try{
+			Long tablePosition = getTablePositions().get(valueLabelName);
+			if(tablePosition == null) return null;
+			long start = System.nanoTime();
+			try(DtaChannelInput stataDataInput = DtaChannelInput.open(dataFile, fileHandlePool, getMetrics())){
+				stataDataInput.seek(tablePosition);
+				valueLabelTable = DtaValueLabelTable.read(stataDataInput, getByteOrder(), valueLabelNameLength, Charset.forName(charsetName));
+			}
+			getMetrics().valueLabelsParsed(System.nanoTime() - start);
+			logger.debug("Read " + valueLabelTable);
+			valueLabelTables.put(valueLabelName, valueLabelTable);
+			return valueLabelTable;
+		}
+		catch(IOException ex){
+			throw new UncheckedIOException("Unable to read value label table " + valueLabelName + " of " + dataFile, ex);
+		}
+	}
+
+	/**
+	 * @return names of the value label tables of the data file, in file order
+	 * @throws UncheckedIOException if the data file can not be read
+	 */
+	public synchronized Set<String> getValueLabelNames(){
+		try{
+			return Collections.unmodifiableSet(getTablePositions().keySet());
+		}
+		catch(IOException ex){
+			throw new UncheckedIOException("Unable to index value labels of " + dataFile, ex);
+		}
+	}
+
+	/**
+	 * Walks the <lbl> records of the <value_labels> section once and records the file position
+	 * of the len field of each table.
+	 * @return file positions of the tables by name
+	 * @throws IOException
+	 */
+	private LinkedHashMap<String,Long> getTablePositions() throws IOException{
+		if(tablePositions != null) return tablePositions;
+		LinkedHashMap<String,Long> positions = new LinkedHashMap<String,Long>();
+		long start = System.nanoTime();
+		try(DtaChannelInput stataDataInput = DtaChannelInput.open(dataFile, fileHandlePool, getMetrics())){
+			long lengthOfFile = stataDataInput.length();
+			long position = startOfValueLabelsSection + "<value_labels>".length();
+			byte[] tag = new byte["<lbl>".length()];
+			byte[] b = new byte[4 + valueLabelNameLength];
+			while(position + tag.length + b.length <= lengthOfFile){
+				stataDataInput.seek(position);
+				stataDataInput.readFully(tag);
+				if(!"<lbl>".equals(new String(tag, StandardCharsets.US_ASCII))) break;
+				long tablePosition = stataDataInput.getFilePointer();
+				stataDataInput.readFully(b);
+				ByteBuffer buffer = ByteBuffer.wrap(b).order(getByteOrder());
+				int lengthOfValueTable = buffer.getInt(0);
+				if(lengthOfValueTable < 0) throw new IOException("Invalid length " + lengthOfValueTable + " of value label table at " + tablePosition);
+				positions.put(DtaStringDecoder.decode(buffer, 4, valueLabelNameLength, Charset.forName(charsetName)), tablePosition);
+				position = tablePosition + b.length + 3 + lengthOfValueTable + "</lbl>".length();
+			}
+		}
+		getMetrics().valueLabelsParsed(System.nanoTime() - start);
+		logger.debug("Indexed " + positions.size() + " value label tables of " + dataFile);
+		tablePositions = positions;
+		return tablePositions;
+	}
+
+	private ByteOrder getByteOrder(){
+		return littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+	}
+
+	/**
+	 * @param valueLabelName
+	 * @return true if the table has been read from the data file
+	 */
+	public synchronized boolean isLoaded(String valueLabelName){
+		return valueLabelTables.containsKey(valueLabelName);
+	}
+
+	public String getDataFile() {
+		return dataFile;
+	}
+
+	/**
+	 * @return metrics the reads of value label tables are reported to; NOOP if none are set
+	 */
+	public DtaMetrics getMetrics() {
+		DtaMetrics metrics = this.metrics;
+		return metrics == null ? DtaMetrics.NOOP : metrics;
+	}
+
+	/**
+	 * Metrics are not serialized with the index
+	 * @param metrics
+	 */
+	public void setMetrics(DtaMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public DtaFileHandlePool getFileHandlePool() {
+		return fileHandlePool;
+	}
+
+	/**
+	 * Value label tables are read through a channel of the pool when it is set.  The pool is not serialized with the index
+	 * @param fileHandlePool pool of open data files, or null to open the data file for each read
+	 */
+	public void setFileHandlePool(DtaFileHandlePool fileHandlePool) {
+		this.fileHandlePool = fileHandlePool;
+	}
+}
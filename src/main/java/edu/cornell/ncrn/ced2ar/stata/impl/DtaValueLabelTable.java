@@ -0,0 +1,197 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+* This class is a value label table of a stata data file.
+* A value label table is stored once per data file and is shared by all the variables that
+* use its name.  Values are kept in a sorted int array and labels are looked up by binary search.
+*
+* USAGE
+* 	DtaValueLabelTable valueLabelTable = dtaVariable.getValueLabelTable();
+* 	String label = valueLabelTable.getLabel(2);
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaValueLabelTable implements Serializable {
+	private static final long serialVersionUID = -3871304129675532890L;
+
+	private final String name;
+	private final int[] values;
+	private final String[] labels;
+
+	/**
+	 * The arrays are copied; the table is not changed by later changes of the arrays.
+	 * @param name name of the value label table
+	 * @param values values; STATA writes the values sorted
+	 * @param labels label of each value
+	 */
+	public DtaValueLabelTable(String name, int[] values, String[] labels){
+		if(values.length != labels.length)
+			throw new IllegalArgumentException("Value label table " + name + " has " + values.length + " values and " + labels.length + " labels");
+		this.name = name;
+		this.values = values.clone();
+		this.labels = labels.clone();
+		if(!isSorted(this.values)) sort();
+	}
+
+	/**
+	 * Creates the table over arrays decoded by read, without copying them
+	 * @param values
+	 * @param labels
+	 * @param name
+	 */
+	private DtaValueLabelTable(int[] values, String[] labels, String name){
+		this.name = name;
+		this.values = values;
+		this.labels = labels;
+		if(!isSorted(values)) sort();
+	}
+
+	/**
+	 * Reads the value label table at the file pointer.
+	 * 	len                 4         length of value_label_table
+	 * 	labname             33 or 129 \0 terminated
+	 * 	padding             3
+	 * 	value_label_table   len       n, txtlen, off[], val[] and txt[]
+	 * The value_label_table is read with a single read and decoded from the buffer.
+	 * @param stataDataInput
+	 * @param byteOrder byte order of the data file
+	 * @param valueLabelNameLength length of labname
+	 * @param charset charset of the data file
+	 * @return value label table
+	 * @throws IOException
+	 */
+	public static DtaValueLabelTable read(DtaChannelInput stataDataInput, ByteOrder byteOrder, int valueLabelNameLength, Charset charset) throws IOException{
+		byte[] b = new byte[4 + valueLabelNameLength + 3];
+		stataDataInput.readFully(b);
+		ByteBuffer buffer = ByteBuffer.wrap(b).order(byteOrder);
+		int lengthOfValueTable = buffer.getInt(0);
+		String valueLabelName = DtaStringDecoder.decode(buffer, 4, valueLabelNameLength, charset);
+		if(lengthOfValueTable < 8 || lengthOfValueTable > stataDataInput.length() - stataDataInput.getFilePointer())
+			throw new IOException("Invalid length " + lengthOfValueTable + " of value label table " + valueLabelName);
+
+		b = new byte[lengthOfValueTable];
+		stataDataInput.readFully(b);
+		buffer = ByteBuffer.wrap(b).order(byteOrder);
+		int numberOfEntries = buffer.getInt(0);
+		int textLength = buffer.getInt(4);
+		if(numberOfEntries < 0 || numberOfEntries > (lengthOfValueTable - 8L)/8)
+			throw new IOException("Invalid number of entries " + numberOfEntries + " of value label table " + valueLabelName);
+		int startOfText = 8 + 8*numberOfEntries;
+		if(textLength < 0 || (long)startOfText + textLength > lengthOfValueTable)
+			throw new IOException("Invalid value label table " + valueLabelName);
+
+		int[] values = new int[numberOfEntries];
+		String[] labels = new String[numberOfEntries];
+		for(int i=0;i<numberOfEntries;i++){
+			int offset = buffer.getInt(8 + 4*i);
+			values[i] = buffer.getInt(8 + 4*numberOfEntries + 4*i);
+			labels[i] = (offset >= 0 && offset < textLength) ? DtaStringDecoder.decode(buffer, startOfText + offset, textLength - offset, charset) : "";
+		}
+		return new DtaValueLabelTable(values, labels, valueLabelName);
+	}
+
+	/**
+	 * Returns the label of the value
+	 * @param value
+	 * @return label, or null if the value has no label
+	 */
+	public String getLabel(int value){
+		int index = Arrays.binarySearch(values, value);
+		return index < 0 ? null : labels[index];
+	}
+
+	/**
+	 * @return number of labeled values
+	 */
+	public int size(){
+		return values.length;
+	}
+
+	/**
+	 * Returns the labels keyed by the string form of the values
+	 * @return new map of the labels
+	 */
+	public HashMap<String,String> toMap(){
+		HashMap<String,String> valueLabelMap = new HashMap<String,String>(values.length*2);
+		for(int i=0;i<values.length;i++){
+			valueLabelMap.put(Integer.toString(values[i]), labels[i]);
+		}
+		return valueLabelMap;
+	}
+
+	private static boolean isSorted(int[] values){
+		for(int i=1;i<values.length;i++){
+			if(values[i-1] > values[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Sorts the values and labels by value.  Only used for tables that are not written sorted.
+	 * Value and index of each entry are packed in a long so that the entries are sorted by value.
+	 */
+	private void sort(){
+		long[] entries = new long[values.length];
+		for(int i=0;i<values.length;i++){
+			entries[i] = ((long)values[i] << 32) | i;
+		}
+		Arrays.sort(entries);
+		String[] unsortedLabels = labels.clone();
+		for(int i=0;i<entries.length;i++){
+			values[i] = (int)(entries[i] >> 32);
+			labels[i] = unsortedLabels[(int)entries[i]];
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return copy of the values, sorted
+	 */
+	public int[] getValues() {
+		return values.clone();
+	}
+
+	/**
+	 * @return copy of the labels, in the order of the values
+	 */
+	public String[] getLabels() {
+		return labels.clone();
+	}
+
+	/**
+	 * @param index 0 based index of the entry, in the order of the values
+	 * @return value of the entry
+	 */
+	public int getValueAt(int index){
+		return values[index];
+	}
+
+	/**
+	 * @param index 0 based index of the entry, in the order of the values
+	 * @return label of the entry
+	 */
+	public String getLabelAt(int index){
+		return labels[index];
+	}
+
+	@Override
+	public String toString() {
+		return "DtaValueLabelTable [name=" + name + ", size=" + values.length + "]";
+	}
+}
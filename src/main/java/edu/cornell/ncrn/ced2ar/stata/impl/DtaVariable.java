@@ -1,11 +1,14 @@
 package edu.cornell.ncrn.ced2ar.stata.impl;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
-public class DtaVariable {
+public class DtaVariable implements Serializable {
+	private static final long serialVersionUID = -6051263297467780384L;
+
 	public enum Dta117DataType{
-		BYTE(65530),INT(65529),LONG(65528),FLOAT(65527),DOUBLE(65526);
+		BYTE(65530),INT(65529),LONG(65528),FLOAT(65527),DOUBLE(65526),STRL(32768);
 		private int dataTypeCode;
 		private Dta117DataType(int dataTypeCode){
 			this.dataTypeCode = dataTypeCode;
@@ -25,7 +28,9 @@ public class DtaVariable {
 	private String variableValueLabelName;
 	private String variableLabel;
 	private String variableFormat;
-	private HashMap<String,String> variableValueLabels = new HashMap<String,String>();
+	private volatile HashMap<String,String> variableValueLabels;
+	private volatile DtaValueLabelTable valueLabelTable;
+	private DtaValueLabelIndex valueLabelIndex;
 	
 	public String getRawName(){
 		return name;
@@ -119,18 +124,98 @@ public class DtaVariable {
 		return 	returnValue;	
 	}
 	
+	/**
+	 * strL (long string) variables exist in format 117 and later
+	 * @return
+	 */
+	public boolean isStrL(){
+		return isDta117DataType() && variableType == Dta117DataType.STRL.dataTypeCode;
+	}
+	
 	public String getVariableValueLabelName() {
 		return variableValueLabelName;
 	}
 	public void setVariableValueLabelName(String variableValueLabelName) {
 		this.variableValueLabelName= variableValueLabelName;
 	}
+	/**
+	 * Returns the value labels keyed by the string form of the values.
+	 * Labels of a variable with a value label table are copied into a map on the first call; the
+	 * same map is returned by later calls and changes to it are seen by getValueLabel.  Use
+	 * getValueLabelTable or getValueLabel to look up labels without creating a map.
+	 * @return
+	 */
 	public HashMap<String, String> getVariableValueLabels() {
-		return variableValueLabels;
+		HashMap<String,String> valueLabels = variableValueLabels;
+		if(valueLabels == null){
+			synchronized(this){
+				if(variableValueLabels == null){
+					DtaValueLabelTable table = getValueLabelTable();
+					variableValueLabels = table == null ? new HashMap<String,String>() : table.toMap();
+				}
+				valueLabels = variableValueLabels;
+			}
+		}
+		return valueLabels;
 	}
 	public void setVariableValueLabels(HashMap<String, String> variableValueLabels) {
 		this.variableValueLabels = variableValueLabels;
 	}
+	/**
+	 * Returns the value label table of the variable.  If the variable has a value label index
+	 * the table is read from the data file on first access.
+	 * @return value label table shared by the variables with the same value label name, or null
+	 */
+	public DtaValueLabelTable getValueLabelTable() {
+		DtaValueLabelTable table = valueLabelTable;
+		if(table == null && valueLabelIndex != null && variableValueLabelName != null && !variableValueLabelName.isEmpty()){
+			table = valueLabelIndex.getValueLabelTable(variableValueLabelName);
+			valueLabelTable = table;
+		}
+		return table;
+	}
+	public void setValueLabelTable(DtaValueLabelTable valueLabelTable) {
+		this.valueLabelTable = valueLabelTable;
+	}
+	/**
+	 * Returns the label of the value
+	 * @param value
+	 * @return label, or null if the value has no label
+	 */
+	public String getValueLabel(int value) {
+		HashMap<String,String> valueLabels = variableValueLabels;
+		if(valueLabels != null) return valueLabels.get(Integer.toString(value));
+		DtaValueLabelTable table = getValueLabelTable();
+		return table == null ? null : table.getLabel(value);
+	}
+	public DtaValueLabelIndex getValueLabelIndex() {
+		return valueLabelIndex;
+	}
+	/**
+	 * @param valueLabelIndex index the value label table of the variable is read from on demand
+	 */
+	public void setValueLabelIndex(DtaValueLabelIndex valueLabelIndex) {
+		this.valueLabelIndex = valueLabelIndex;
+	}
+	/**
+	 * Returns a copy of the variable.  Value labels are copied; the value label table and the
+	 * value label index, which are safe to share, are shared with this variable.
+	 * @return
+	 */
+	public DtaVariable copy(){
+		DtaVariable dtaVariable = new DtaVariable();
+		dtaVariable.setDta117DataType(isDta117DataType);
+		dtaVariable.setName(name);
+		dtaVariable.setVariableType(variableType);
+		dtaVariable.setVariableValueLabelName(variableValueLabelName);
+		dtaVariable.setVariableLabel(variableLabel);
+		dtaVariable.setVariableFormat(variableFormat);
+		HashMap<String,String> valueLabels = variableValueLabels;
+		if(valueLabels != null) dtaVariable.setVariableValueLabels(new HashMap<String,String>(valueLabels));
+		dtaVariable.setValueLabelTable(valueLabelTable);
+		dtaVariable.setValueLabelIndex(valueLabelIndex);
+		return dtaVariable;
+	}
 	public boolean isDate(){
 		return (variableFormat.startsWith("%d")  ||
 				variableFormat.startsWith("%-d") ||		
@@ -140,8 +225,12 @@ public class DtaVariable {
 	@Override
 	public String toString() {
 		StringBuilder SB =  new StringBuilder("");
-		if(!variableValueLabels.isEmpty()){
-			for (Map.Entry<String, String> entry : variableValueLabels.entrySet()) {
+		// value labels that have not been read are not read for toString
+		HashMap<String,String> valueLabels = new HashMap<String,String>();
+		if(variableValueLabels != null) valueLabels = variableValueLabels;
+		else if(valueLabelTable != null) valueLabels = valueLabelTable.toMap();
+		if(!valueLabels.isEmpty()){
+			for (Map.Entry<String, String> entry : valueLabels.entrySet()) {
 			    SB.append( entry.getKey()+"=");
 			    SB.append( entry.getValue()+":");
 			}
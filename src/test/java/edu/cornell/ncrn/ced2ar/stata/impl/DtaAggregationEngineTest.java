@@ -0,0 +1,265 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.DataAccessMode;
+
+/**
+* Runs the aggregation engines over generated data files of every format, byte order and data access
+* mode in small chunks, and compares the aggregates with values computed from the observations and
+* columns the reader returns.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+@RunWith(Parameterized.class)
+public class DtaAggregationEngineTest {
+	private static final long CHUNK_SIZE = 97;
+	private static final int PARALLELISM = 4;
+
+	@ClassRule
+	public static final TemporaryFolder folder = new TemporaryFolder();
+
+	private static List<Long> estimates;
+
+	private final int format;
+	private final String byteOrder;
+	private final DataAccessMode dataAccessMode;
+	private StataReader stataReader;
+	private List<List<String>> observations;
+
+	@Parameters(name = "{0} {1} {2}")
+	public static Collection<Object[]> parameters(){
+		return GeneratedDtaFiles.formatsByteOrdersAndModes();
+	}
+
+	public DtaAggregationEngineTest(int format, String byteOrder, DataAccessMode dataAccessMode){
+		this.format = format;
+		this.byteOrder = byteOrder;
+		this.dataAccessMode = dataAccessMode;
+	}
+
+	@BeforeClass
+	public static void estimateReferenceCardinalities() throws Exception{
+		StataReader reference = GeneratedDtaFiles.open(GeneratedDtaFiles.generate(folder, 118, "LSF", false), DataAccessMode.RANDOM_ACCESS_FILE);
+		try{
+			estimates = estimate(reference);
+		}
+		finally{
+			reference.closeDtaFile();
+		}
+	}
+
+	@Before
+	public void openReader() throws Exception{
+		File dtaFile = new File(folder.getRoot(), "g" + format + byteOrder + ".dta");
+		if(!dtaFile.exists()) GeneratedDtaFiles.generate(folder, format, byteOrder, false);
+		stataReader = GeneratedDtaFiles.open(dtaFile.getPath(), dataAccessMode);
+		observations = stataReader.getObservations();
+	}
+
+	@After
+	public void closeReader() throws Exception{
+		stataReader.closeDtaFile();
+	}
+
+	@Test
+	public void computesStatistics() throws Exception{
+		DtaStatisticsEngine engine = new DtaStatisticsEngine(stataReader);
+		engine.setChunkSize(CHUNK_SIZE);
+		engine.setParallelism(PARALLELISM);
+		List<DtaStatistics> statistics = engine.compute();
+		List<Integer> columns = numericColumns();
+		assertEquals(columns.size(), statistics.size());
+		for(int i=0;i<columns.size();i++){
+			double[] values = validValues(columns.get(i));
+			DtaStatistics dtaStatistics = statistics.get(i);
+			String name = dtaStatistics.getName();
+			double sum = 0;
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for(double value:values){
+				sum += value;
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+			}
+			double mean = sum/values.length;
+			double squares = 0;
+			for(double value:values){
+				squares += (value - mean)*(value - mean);
+			}
+			assertEquals(name, GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS, dtaStatistics.getCount());
+			assertEquals(name, values.length, dtaStatistics.getValid());
+			assertEquals(name, GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS - values.length, dtaStatistics.getMissing());
+			assertEquals(name, min, dtaStatistics.getMin(), tolerance(min));
+			assertEquals(name, max, dtaStatistics.getMax(), tolerance(max));
+			assertEquals(name, mean, dtaStatistics.getMean(), tolerance(Math.max(Math.abs(min), Math.abs(max))));
+			double variance = squares/(values.length - 1);
+			assertEquals(name, variance, dtaStatistics.getVariance(), variance*1e-5);
+		}
+	}
+
+	@Test
+	public void computesFrequenciesOfLabeledVariables() throws Exception{
+		DtaFrequencyEngine engine = new DtaFrequencyEngine(stataReader);
+		engine.setChunkSize(CHUNK_SIZE);
+		engine.setParallelism(PARALLELISM);
+		List<DtaFrequencies> frequencies = engine.compute();
+		assertFalse(frequencies.isEmpty());
+		for(DtaFrequencies dtaFrequencies:frequencies){
+			Map<String,Long> counts = count(stataReader.readColumn(dtaFrequencies.getDtaVariable().getRawName()));
+			long total = 0;
+			for(DtaFrequencies.Frequency frequency:dtaFrequencies.getFrequencies()){
+				assertEquals(dtaFrequencies.getName() + " " + frequency.getValue(), counts.get(frequency.getValue()), Long.valueOf(frequency.getCount()));
+				if(!frequency.isMissing()) assertEquals(frequency.getCount(), dtaFrequencies.getCount(Integer.parseInt(frequency.getValue())));
+				total += frequency.getCount();
+			}
+			assertEquals(dtaFrequencies.getName(), GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS, total);
+			assertEquals(dtaFrequencies.getName(), counts.size(), dtaFrequencies.getFrequencies().size());
+		}
+	}
+
+	@Test
+	public void computesFrequenciesOfStrings() throws Exception{
+		DtaFrequencyEngine engine = new DtaFrequencyEngine(stataReader);
+		engine.setChunkSize(CHUNK_SIZE);
+		engine.setParallelism(PARALLELISM);
+		engine.select("v6");
+		DtaFrequencies dtaFrequencies = engine.compute().get(0);
+		for(Map.Entry<String,Long> count:count(stataReader.readColumn("v6")).entrySet()){
+			assertEquals(count.getKey(), count.getValue().longValue(), dtaFrequencies.getCount(count.getKey()));
+		}
+	}
+
+	@Test
+	public void computesMediansWithinTheRankErrorOfTheSketch() throws Exception{
+		DtaDistributionEngine engine = new DtaDistributionEngine(stataReader);
+		engine.setChunkSize(CHUNK_SIZE);
+		engine.setParallelism(PARALLELISM);
+		List<DtaDistribution> distributions = engine.compute();
+		List<Integer> columns = numericColumns();
+		assertEquals(columns.size(), distributions.size());
+		for(int i=0;i<columns.size();i++){
+			double[] values = validValues(columns.get(i));
+			Arrays.sort(values);
+			DtaDistribution distribution = distributions.get(i);
+			assertEquals(distribution.getName(), values.length, distribution.getValid());
+			double median = distribution.getMedian();
+			int below = 0;
+			while(below < values.length && values[below] < median - tolerance(median)) below++;
+			int atOrBelow = below;
+			while(atOrBelow < values.length && values[atOrBelow] <= median + tolerance(median)) atOrBelow++;
+			double half = values.length/2.0;
+			double rankError = 0.05*values.length;
+			assertTrue(distribution.getName() + " median " + median, below - rankError <= half && half <= atOrBelow + rankError);
+		}
+	}
+
+	@Test
+	public void countsDistinctValuesExactly() throws Exception{
+		DtaCardinalityEngine engine = new DtaCardinalityEngine(stataReader);
+		engine.setChunkSize(CHUNK_SIZE);
+		engine.setParallelism(PARALLELISM);
+		engine.setExactLimit(Integer.MAX_VALUE);
+		List<DtaCardinality> cardinalities = engine.compute();
+		assertEquals(GeneratedDtaFiles.NUMBER_OF_VARIABLES, cardinalities.size());
+		for(int column=0;column<cardinalities.size();column++){
+			DtaCardinality cardinality = cardinalities.get(column);
+			assertTrue(cardinality.isExact());
+			assertEquals(cardinality.getName(), count(stataReader.readColumn(cardinality.getName())).size(), cardinality.getCount());
+		}
+	}
+
+	@Test
+	public void estimatesTheSameCardinalitiesInEveryFormatAndByteOrder() throws Exception{
+		assertEquals(estimates, estimate(stataReader));
+	}
+
+	private static List<Long> estimate(StataReader stataReader) throws Exception{
+		DtaCardinalityEngine engine = new DtaCardinalityEngine(stataReader);
+		engine.setChunkSize(CHUNK_SIZE);
+		engine.setParallelism(PARALLELISM);
+		engine.setExactLimit(0);
+		List<Long> counts = new ArrayList<Long>();
+		for(DtaCardinality cardinality:engine.compute()){
+			assertFalse(cardinality.isExact());
+			counts.add(cardinality.getCount());
+		}
+		return counts;
+	}
+
+	private List<Integer> numericColumns(){
+		List<Integer> columns = new ArrayList<Integer>();
+		List<DtaVariable> dtaVariables = stataReader.getDtaVariables();
+		for(int i=0;i<dtaVariables.size();i++){
+			if(!dtaVariables.get(i).isString() && !dtaVariables.get(i).isStrL()) columns.add(i);
+		}
+		return columns;
+	}
+
+	private double[] validValues(int column){
+		List<Double> values = new ArrayList<Double>();
+		for(String value:GeneratedDtaFiles.column(observations, column)){
+			if(!value.startsWith(".")) values.add(Double.parseDouble(value));
+		}
+		double[] valid = new double[values.size()];
+		for(int i=0;i<valid.length;i++){
+			valid[i] = values.get(i);
+		}
+		return valid;
+	}
+
+	/**
+	 * Counts the values of the column the way the frequency tables show them: missing values as . or .a to .z
+	 */
+	private static Map<String,Long> count(DtaColumn dtaColumn){
+		Map<String,Long> counts = new HashMap<String,Long>();
+		for(int i=0;i<dtaColumn.getSize();i++){
+			String value;
+			if(dtaColumn.getStringValues() != null) value = dtaColumn.getStringValues()[i];
+			else if(!dtaColumn.isMissing(i)) value = dtaColumn.getDoubleValues() != null ? Double.toString(dtaColumn.getDouble(i)) : Integer.toString((int)dtaColumn.getDouble(i));
+			else value = missingValue(dtaColumn, i);
+			Long count = counts.get(value);
+			counts.put(value, count == null ? 1 : count + 1);
+		}
+		return counts;
+	}
+
+	private static String missingValue(DtaColumn dtaColumn, int i){
+		int missingIndex;
+		if(dtaColumn.getByteValues() != null) missingIndex = dtaColumn.getByteValues()[i] - (DtaReader.VALID_BYTE_VALUES.MAX_VALUE.getValue() + 1);
+		else if(dtaColumn.getIntValues() != null && dtaColumn.getKind() == DtaRowLayout.KIND_INT) missingIndex = dtaColumn.getIntValues()[i] - (DtaReader.VALID_INT_VALUES.MAX_VALUE.getValue() + 1);
+		else if(dtaColumn.getIntValues() != null) missingIndex = dtaColumn.getIntValues()[i] - ((int)DtaReader.VALID_LONG_VALUES.MAX_VALUE.getValue() + 1);
+		else return Long.toHexString(Double.doubleToRawLongBits(dtaColumn.getDouble(i)));
+		return missingIndex == 0 ? "." : "." + (char)('a' + missingIndex - 1);
+	}
+
+	private static double tolerance(double value){
+		return Math.max(Math.abs(value)*1e-6, 1e-9);
+	}
+}
@@ -0,0 +1,142 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.DataAccessMode;
+
+/**
+* Exports a generated data file with strL variables in chunks and compares the CSV file with the
+* observations of the reader.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+public class DtaCsvExporterTest {
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private StataReader stataReader;
+	private List<List<String>> observations;
+
+	@Before
+	public void openReader() throws Exception{
+		stataReader = GeneratedDtaFiles.open(GeneratedDtaFiles.generate(folder, 118, "MSF", true), DataAccessMode.MEMORY_MAPPED);
+		observations = stataReader.getObservations();
+	}
+
+	@After
+	public void closeReader() throws Exception{
+		stataReader.closeDtaFile();
+	}
+
+	@Test
+	public void exportsAllTheObservationsInOrder() throws Exception{
+		DtaCsvExporter exporter = new DtaCsvExporter(stataReader);
+		exporter.setChunkSize(128);
+		exporter.setParallelism(4);
+		File csvFile = new File(folder.getRoot(), "all.csv");
+		exporter.export(csvFile.getPath());
+
+		StringBuilder expected = new StringBuilder();
+		for(int i=1;i<=GeneratedDtaFiles.NUMBER_OF_VARIABLES;i++){
+			if(i > 1) expected.append(',');
+			expected.append("v" + i);
+		}
+		expected.append("\r\n");
+		for(List<String> observation:observations){
+			appendLine(expected, observation);
+		}
+		assertEquals(expected.toString(), read(csvFile));
+		assertNoChunkFiles();
+	}
+
+	@Test
+	public void exportsTheSelectedVariablesOfTheFilteredObservations() throws Exception{
+		DtaCsvExporter exporter = new DtaCsvExporter(stataReader);
+		exporter.setChunkSize(100);
+		exporter.setParallelism(3);
+		exporter.select("v7", "v1");
+		exporter.where("v1 < . & v1 <= 2");
+		File csvFile = new File(folder.getRoot(), "filtered.csv");
+		exporter.export(csvFile.getPath(), 51, 1200);
+
+		StringBuilder expected = new StringBuilder("v7,v1\r\n");
+		int lines = 0;
+		for(int i=50;i<1200;i++){
+			List<String> observation = observations.get(i);
+			String v1 = observation.get(0);
+			if(v1.startsWith(".") || Double.parseDouble(v1) > 2) continue;
+			appendLine(expected, observation.subList(6, 7), v1);
+			lines++;
+		}
+		assertTrue(lines > 0);
+		assertEquals(expected.toString(), read(csvFile));
+		assertNoChunkFiles();
+	}
+
+	@Test
+	public void rejectsAnInvalidFilterWithoutLeavingChunkFiles() throws Exception{
+		DtaCsvExporter exporter = new DtaCsvExporter(stataReader);
+		exporter.setChunkSize(100);
+		exporter.where("v1 >");
+		try{
+			exporter.export(new File(folder.getRoot(), "invalid.csv").getPath());
+			fail("Invalid filter expression was accepted");
+		}
+		catch(IllegalArgumentException ex){
+			// expected
+		}
+		assertNoChunkFiles();
+	}
+
+	@Test
+	public void quotesValuesWithSeparators(){
+		assertEquals("plain", DtaCsvExporter.toCSV("plain"));
+		assertEquals("\"a,b\"", DtaCsvExporter.toCSV("a,b"));
+		assertEquals("\"say \"\"hi\"\"\"", DtaCsvExporter.toCSV("say \"hi\""));
+		assertEquals("\"two\r\nlines\"", DtaCsvExporter.toCSV("two\r\nlines"));
+	}
+
+	private static void appendLine(StringBuilder SB, List<String> values, String... moreValues){
+		boolean first = true;
+		for(String value:values){
+			if(!first) SB.append(',');
+			SB.append(DtaCsvExporter.toCSV(value));
+			first = false;
+		}
+		for(String value:moreValues){
+			if(!first) SB.append(',');
+			SB.append(DtaCsvExporter.toCSV(value));
+			first = false;
+		}
+		SB.append("\r\n");
+	}
+
+	private static String read(File file) throws Exception{
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private void assertNoChunkFiles(){
+		for(String name:folder.getRoot().list()){
+			assertTrue(name, !name.endsWith(".part"));
+		}
+	}
+}
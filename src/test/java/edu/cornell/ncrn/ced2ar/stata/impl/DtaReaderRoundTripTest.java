@@ -0,0 +1,210 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import edu.cornell.ncrn.ced2ar.stata.StataCursor;
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.DataAccessMode;
+
+/**
+* Writes data files of formats 113 to 118 in both byte orders with DtaFileGenerator and reads them back
+* in each data access mode.  Observations must equal those of the format 118 LSF file read in
+* RANDOM_ACCESS_FILE mode; formats 117 and 118 are compared with a reference that has strL variables.
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+@RunWith(Parameterized.class)
+public class DtaReaderRoundTripTest {
+	@ClassRule
+	public static final TemporaryFolder folder = new TemporaryFolder();
+
+	private static List<List<String>> reference;
+	private static List<List<String>> strLReference;
+
+	private final int format;
+	private final String byteOrder;
+	private final DataAccessMode dataAccessMode;
+	private StataReader stataReader;
+	private List<List<String>> expected;
+
+	@Parameters(name = "{0} {1} {2}")
+	public static Collection<Object[]> parameters(){
+		return GeneratedDtaFiles.formatsByteOrdersAndModes();
+	}
+
+	public DtaReaderRoundTripTest(int format, String byteOrder, DataAccessMode dataAccessMode){
+		this.format = format;
+		this.byteOrder = byteOrder;
+		this.dataAccessMode = dataAccessMode;
+	}
+
+	@BeforeClass
+	public static void readReferences() throws Exception{
+		reference = GeneratedDtaFiles.open(GeneratedDtaFiles.generate(folder, 118, "LSF", false), DataAccessMode.RANDOM_ACCESS_FILE).getObservations();
+		strLReference = GeneratedDtaFiles.open(GeneratedDtaFiles.generate(folder, 118, "LSF", true), DataAccessMode.RANDOM_ACCESS_FILE).getObservations();
+	}
+
+	@Before
+	public void openReader() throws Exception{
+		boolean strLs = GeneratedDtaFiles.hasStrLs(format);
+		File dtaFile = new File(folder.getRoot(), "g" + format + byteOrder + (strLs ? "L" : "") + ".dta");
+		if(!dtaFile.exists()) GeneratedDtaFiles.generate(folder, format, byteOrder, strLs);
+		stataReader = GeneratedDtaFiles.open(dtaFile.getPath(), dataAccessMode);
+		expected = strLs ? strLReference : reference;
+	}
+
+	@After
+	public void closeReader() throws Exception{
+		stataReader.closeDtaFile();
+	}
+
+	@Test
+	public void readsTheHeader(){
+		DtaHeader dtaHeader = stataReader.getDtaHeader();
+		assertEquals(format, dtaHeader.getDtaFileFormat());
+		assertEquals("LSF".equals(byteOrder), dtaHeader.isLittleEndian());
+		assertEquals(GeneratedDtaFiles.NUMBER_OF_VARIABLES, dtaHeader.getNumberOfVariables());
+		assertEquals(GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS, dtaHeader.getNumberOfObservations());
+		assertEquals(GeneratedDtaFiles.NUMBER_OF_VARIABLES, stataReader.getDtaVariables().size());
+	}
+
+	@Test
+	public void readsTheSameObservationsInEveryFormat() throws Exception{
+		List<List<String>> observations = stataReader.getObservations();
+		assertEquals(expected.size(), observations.size());
+		for(int i=0;i<expected.size();i++){
+			assertEquals("Observation " + (i+1), expected.get(i), observations.get(i));
+		}
+	}
+
+	@Test
+	public void readsSingleObservations() throws Exception{
+		for(long n=1;n<=GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS;n+=97){
+			assertEquals("Observation " + n, expected.get((int)n-1), stataReader.getObservation(n));
+		}
+		assertEquals(expected.get(expected.size()-1), stataReader.getObservation(GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS));
+		assertTrue(stataReader.getObservation(0).isEmpty());
+		assertTrue(stataReader.getObservation(GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS+1).isEmpty());
+	}
+
+	@Test
+	public void keepsThePositionsOfObservationsOutOfRange() throws Exception{
+		long n = GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS;
+		List<List<String>> observations = stataReader.getObservations(n-1, n+2);
+		assertEquals(4, observations.size());
+		assertEquals(expected.get((int)n-2), observations.get(0));
+		assertEquals(expected.get((int)n-1), observations.get(1));
+		assertTrue(observations.get(2).isEmpty());
+		assertTrue(observations.get(3).isEmpty());
+		observations = stataReader.getObservations(0, 2);
+		assertEquals(3, observations.size());
+		assertTrue(observations.get(0).isEmpty());
+		assertEquals(expected.get(1), observations.get(2));
+	}
+
+	@Test
+	public void selectsAndFiltersWithACursor() throws Exception{
+		List<List<String>> selected = new ArrayList<List<String>>();
+		List<Long> observationNumbers = new ArrayList<Long>();
+		for(int i=0;i<expected.size();i++){
+			List<String> observation = expected.get(i);
+			if(isGreaterThan(observation.get(0), 2) && !observation.get(5).isEmpty()){
+				List<String> projected = new ArrayList<String>();
+				projected.add(observation.get(5));
+				projected.add(observation.get(1));
+				selected.add(projected);
+				observationNumbers.add(i+1L);
+			}
+		}
+		assertFalse(selected.isEmpty());
+
+		List<List<String>> filtered = new ArrayList<List<String>>();
+		List<Long> filteredNumbers = new ArrayList<Long>();
+		try(StataCursor cursor = stataReader.openCursor(1, Long.MAX_VALUE).select("v6", "v2").where("v1 > 2 & v6 != \"\"")){
+			while(cursor.hasNext()){
+				filtered.add(cursor.next());
+				filteredNumbers.add(cursor.getObservationNumber());
+			}
+		}
+		assertEquals(selected, filtered);
+		assertEquals(observationNumbers, filteredNumbers);
+	}
+
+	@Test
+	public void readsColumns() throws Exception{
+		List<DtaVariable> dtaVariables = stataReader.getDtaVariables();
+		for(int column=0;column<dtaVariables.size();column++){
+			DtaColumn dtaColumn = stataReader.readColumn(dtaVariables.get(column).getRawName(), 11, GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS+5);
+			assertEquals(11, dtaColumn.getStart());
+			assertEquals(GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS-10, dtaColumn.getSize());
+			for(int i=0;i<dtaColumn.getSize();i++){
+				String value = expected.get(10+i).get(column);
+				String message = dtaVariables.get(column).getRawName() + " of observation " + (11+i);
+				if(dtaColumn.getStringValues() != null){
+					assertEquals(message, value, dtaColumn.getStringValues()[i]);
+				}
+				else if(dtaColumn.isMissing(i)){
+					assertEquals(message, ".", value);
+				}
+				else{
+					double d = Double.parseDouble(value);
+					assertEquals(message, d, dtaColumn.getDouble(i), Math.abs(d)*1e-6);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void readsValueLabels(){
+		int labeled = 0;
+		for(DtaVariable dtaVariable:stataReader.getDtaVariables()){
+			if(!(dtaVariable.isByte() || dtaVariable.isInt() || dtaVariable.isLong())) continue;
+			HashMap<String,String> valueLabels = dtaVariable.getVariableValueLabels();
+			assertNotNull(dtaVariable.getRawName(), valueLabels);
+			assertEquals(dtaVariable.getRawName(), 6, valueLabels.size());
+			assertNotNull(dtaVariable.getValueLabel(0));
+			labeled++;
+		}
+		assertTrue(labeled > 0);
+	}
+
+	@Test
+	public void readsStrLs() throws Exception{
+		if(!GeneratedDtaFiles.hasStrLs(format)) return;
+		int nonEmpty = 0;
+		for(List<String> observation:stataReader.getObservations()){
+			String strL = observation.get(6);
+			assertTrue(strL.length() <= 2*300);
+			if(!strL.isEmpty()) nonEmpty++;
+		}
+		assertTrue(nonEmpty > GeneratedDtaFiles.NUMBER_OF_OBSERVATIONS/2);
+	}
+
+	private static boolean isGreaterThan(String value, double number){
+		return value.startsWith(".") || Double.parseDouble(value) > number;
+	}
+}
@@ -0,0 +1,116 @@
+package edu.cornell.ncrn.ced2ar.stata.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.rules.TemporaryFolder;
+
+import edu.cornell.ncrn.ced2ar.stata.StataReader;
+import edu.cornell.ncrn.ced2ar.stata.StataReaderFactory;
+import edu.cornell.ncrn.ced2ar.stata.impl.DtaReader.DataAccessMode;
+
+/**
+* This class writes the synthetic data files the tests read.  Files of the same settings hold the
+* same values whatever their format and byte order, so a file read in one format, byte order and
+* data access mode is the reference for all the others.
+*
+* 	v1 byte, v2 int, v3 long, v4 float, v5 double, v6 str, v7 strL (formats 117 and 118), v8 byte ...
+*
+*@author Cornell University, Copyright 2012-2015
+*@author Venky Kambhampaty
+*
+*@author Cornell Institute for Social and Economic Research
+*@author Cornell Labor Dynamics Institute
+*@author NCRN Project Team
+*/
+final class GeneratedDtaFiles {
+	static final int NUMBER_OF_VARIABLES = 14;
+	static final long NUMBER_OF_OBSERVATIONS = 1500;
+	static final int[] FORMATS = {113, 114, 115, 117, 118};
+	static final String[] BYTE_ORDERS = {"LSF", "MSF"};
+
+	private GeneratedDtaFiles(){
+	}
+
+	/**
+	 * @param format
+	 * @return true if the format has strL variables
+	 */
+	static boolean hasStrLs(int format){
+		return format >= 117;
+	}
+
+	/**
+	 * Writes a data file with missing values and value labels; formats 117 and 118 have strL variables
+	 * @param folder
+	 * @param format
+	 * @param byteOrder LSF or MSF
+	 * @param strLs true to add strL variables to the type mix
+	 * @return path of the data file
+	 * @throws IOException
+	 */
+	static String generate(TemporaryFolder folder, int format, String byteOrder, boolean strLs) throws IOException{
+		DtaFileGenerator generator = new DtaFileGenerator();
+		generator.setDtaFileFormat(format);
+		generator.setByteOrder(byteOrder);
+		generator.setNumberOfVariables(NUMBER_OF_VARIABLES);
+		generator.setNumberOfObservations(NUMBER_OF_OBSERVATIONS);
+		if(strLs) generator.setTypeMix("byte", "int", "long", "float", "double", "str", "strL");
+		else generator.setTypeMix("byte", "int", "long", "float", "double", "str");
+		generator.setMaxStringWidth(40);
+		generator.setStrLLength(300);
+		generator.setMissingValueDensity(0.1);
+		generator.setNumberOfValueLabels(6);
+		generator.setNumberOfValueLabelTables(2);
+		generator.setSeed(20150101L);
+		File file = new File(folder.getRoot(), "g" + format + byteOrder + (strLs ? "L" : "") + ".dta");
+		generator.generate(file.getPath());
+		return file.getPath();
+	}
+
+	/**
+	 * Opens a reader of the data file through a factory that does not share open files with the other tests
+	 * @param dtaFile
+	 * @param dataAccessMode
+	 * @return
+	 * @throws Exception
+	 */
+	static StataReader open(String dtaFile, DataAccessMode dataAccessMode) throws Exception{
+		StataReaderFactory factory = new StataReaderFactory();
+		factory.setDataAccessMode(dataAccessMode);
+		factory.setFileHandlePool(null);
+		return factory.getStataReader(dtaFile);
+	}
+
+	/**
+	 * @return format, byte order and data access mode of each case
+	 */
+	static Collection<Object[]> formatsByteOrdersAndModes(){
+		List<Object[]> parameters = new ArrayList<Object[]>();
+		for(int format:FORMATS){
+			for(String byteOrder:BYTE_ORDERS){
+				for(DataAccessMode dataAccessMode:DataAccessMode.values()){
+					parameters.add(new Object[]{format, byteOrder, dataAccessMode});
+				}
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * @param observations
+	 * @param column
+	 * @return values of the column
+	 */
+	static List<String> column(List<List<String>> observations, int column){
+		String[] values = new String[observations.size()];
+		for(int i=0;i<values.length;i++){
+			values[i] = observations.get(i).get(column);
+		}
+		return Arrays.asList(values);
+	}
+}